@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.netflix.servo.monitor.Counter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of requests in flight using an additive increase, multiplicative decrease
+ * window. The window grows by roughly one request per window worth of fast responses, and is
+ * halved when the server asks us to back off (429/503), a request fails, or the latency goes
+ * above the target. At most one decrease is applied for the requests that were started before
+ * the previous decrease, so a burst of errors from the same window only counts once.
+ *
+ * <p>The gauges are shared by all limiters, so they report the totals for the process.</p>
+ */
+final class AimdLimiter {
+    private static final String NAME = "rxhttp.limiter";
+    private static final double BACKOFF_RATIO = 0.5;
+    private static final double MIN_WINDOW = 1.0;
+    private static final AtomicInteger IN_FLIGHT_GAUGE =
+            Servo.getNumberGauge(NAME + ".inFlight", new AtomicInteger(0));
+    private static final AtomicInteger WINDOW_GAUGE =
+            Servo.getNumberGauge(NAME + ".window", new AtomicInteger(0));
+
+    private final ExtendedPluginConfig config;
+    private final Counter decreases = Servo.getCounter(NAME + ".decrease");
+    private final Counter acquireTimeouts = Servo.getCounter(NAME + ".acquireTimeout");
+
+    private double window;
+    private int reportedWindow;
+    private int inFlight;
+    private long lastDecreaseNanos;
+
+    /**
+     * Create a new limiter. The window starts at the max in flight setting of the config.
+     */
+    AimdLimiter(ExtendedPluginConfig config) {
+        this.config = config;
+        this.window = Math.max(MIN_WINDOW, config.getMaxInFlight());
+        this.lastDecreaseNanos = System.nanoTime();
+        updateWindowGauge();
+    }
+
+    /**
+     * Wait until a request can be started. Returns false if the deadline was reached before
+     * a slot became available.
+     *
+     * @param deadlineMs Wall clock time in milliseconds after which we give up.
+     */
+    synchronized boolean acquire(long deadlineMs) throws InterruptedException {
+        while (inFlight >= limit()) {
+            final long remaining = deadlineMs - System.currentTimeMillis();
+            if (remaining <= 0) {
+                acquireTimeouts.increment();
+                return false;
+            }
+            wait(remaining);
+        }
+        ++inFlight;
+        IN_FLIGHT_GAUGE.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Release a slot obtained with {@link #acquire(long)}.
+     */
+    synchronized void release() {
+        --inFlight;
+        IN_FLIGHT_GAUGE.decrementAndGet();
+        notifyAll();
+    }
+
+    /**
+     * Update the window based on the response to a request.
+     *
+     * @param startNanos Value of {@link System#nanoTime()} when the request was started.
+     * @param overloaded True if the server indicated it is overloaded or the request failed.
+     */
+    synchronized void onResponse(long startNanos, boolean overloaded) {
+        final long now = System.nanoTime();
+        final long latencyMs = TimeUnit.NANOSECONDS.toMillis(now - startNanos);
+        if (overloaded || latencyMs > config.getTargetLatencyMs()) {
+            if (startNanos - lastDecreaseNanos > 0) {
+                window = Math.max(MIN_WINDOW, window * BACKOFF_RATIO);
+                lastDecreaseNanos = now;
+                decreases.increment();
+            }
+        } else {
+            window = Math.min(maxWindow(), window + 1.0 / window);
+        }
+        updateWindowGauge();
+        notifyAll();
+    }
+
+    private double maxWindow() {
+        return Math.max(MIN_WINDOW, config.getMaxInFlight());
+    }
+
+    @VisibleForTesting
+    synchronized int limit() {
+        // the max can be lowered dynamically, so clamp it here as well
+        return (int) Math.min(window, maxWindow());
+    }
+
+    private void updateWindowGauge() {
+        final int current = limit();
+        WINDOW_GAUGE.addAndGet(current - reportedWindow);
+        reportedWindow = current;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return Objects.toStringHelper(this).
+                add("window", window).
+                add("inFlight", inFlight).
+                toString();
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Stopwatch;
+import com.netflix.servo.monitor.Timer;
+import com.netflix.servo.publish.MetricObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Delivers the metric updates to a set of observers asynchronously. Updates are written once
+ * to a bounded ring buffer that is shared by all the observers, and each observer has its own
+ * thread and cursor into the ring. Publishing never blocks: when an observer falls behind by
+ * more than the capacity of the ring, the updates it has not processed yet are overwritten
+ * and counted as dropped for that observer. Updates that are older than the expiration time
+ * when an observer gets to them are also dropped, so a slow observer catches up with the
+ * latest data instead of sending stale data. Once every observer has moved past an update its
+ * slot is cleared, so the ring does not keep the metric lists alive after they are processed.
+ *
+ * <p>For each observer the number of updates it is behind, the number of dropped updates
+ * and the time from publishing an update to the observer being done with it are reported.</p>
+ */
+final class AsyncDispatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncDispatcher.class);
+
+    private final AtomicReferenceArray<Entry> ring;
+    private final int mask;
+    private final long expireNanos;
+
+    // sequence of the last published update, -1 if nothing has been published
+    private final AtomicLong published = new AtomicLong(-1L);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final List<Consumer> consumers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Create a new dispatcher.
+     *
+     * @param capacity Number of updates kept in the ring. Rounded up to a power of 2.
+     * @param expireMs Max age in milliseconds of an update for it to be processed.
+     */
+    AsyncDispatcher(int capacity, long expireMs) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be > 0");
+        final int size = Integer.highestOneBit(capacity) == capacity
+                ? capacity
+                : Integer.highestOneBit(capacity) << 1;
+        ring = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+        expireNanos = TimeUnit.MILLISECONDS.toNanos(expireMs);
+    }
+
+    /**
+     * Start delivering the updates published from now on to an observer.
+     *
+     * @param name     Name used for the thread and the metrics of the observer.
+     * @param observer Observer that will receive the updates.
+     */
+    void register(String name, MetricObserver observer) {
+        final Consumer consumer = new Consumer(name, observer, published.get() + 1);
+        consumers.add(consumer);
+        final Thread thread = new Thread(consumer, "AsyncDispatcher-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Add an update to the ring and wake up the observers. Publishing is expected to be done
+     * from a single thread, normally the poller.
+     */
+    synchronized void publish(List<Metric> metrics) {
+        final long seq = published.get() + 1;
+        ring.set((int) (seq & mask), new Entry(seq, metrics, System.nanoTime()));
+        published.set(seq);
+        lock.lock();
+        try {
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitPublished(long seq) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (published.get() < seq) {
+                available.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Clear the slots of the updates that all the observers have moved past. An observer keeps
+     * its own reference to the update it is processing. The compare and set makes sure a slot
+     * that has been reused for a newer update in the meantime is left alone.
+     */
+    private void releaseConsumed() {
+        long min = Long.MAX_VALUE;
+        for (Consumer c : consumers) {
+            min = Math.min(min, c.cursor.get());
+        }
+        for (int i = 0; i < ring.length(); ++i) {
+            final Entry entry = ring.get(i);
+            if (entry != null && entry.seq < min) {
+                ring.compareAndSet(i, entry, null);
+            }
+        }
+    }
+
+    /**
+     * Number of updates that are still referenced by the ring.
+     */
+    @VisibleForTesting
+    int retained() {
+        int n = 0;
+        for (int i = 0; i < ring.length(); ++i) {
+            if (ring.get(i) != null) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Number of updates that can be kept in the ring.
+     */
+    int capacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("capacity", capacity())
+                .add("published", published.get())
+                .toString();
+    }
+
+    /**
+     * Update stored in the ring. Entries are immutable, so an observer that reads a slot
+     * while it is being overwritten sees either the old or the new update and can tell from
+     * the sequence which one it got.
+     */
+    private static final class Entry {
+        private final long seq;
+        private final List<Metric> metrics;
+        private final long publishedNanos;
+
+        Entry(long seq, List<Metric> metrics, long publishedNanos) {
+            this.seq = seq;
+            this.metrics = metrics;
+            this.publishedNanos = publishedNanos;
+        }
+    }
+
+    private final class Consumer implements Runnable {
+        private final String name;
+        private final MetricObserver observer;
+        private final AtomicLong cursor;
+        private final Counter droppedOverrun;
+        private final Counter droppedExpired;
+        private final Timer latency;
+        private final Timer updateTimer;
+        // the gauge only keeps a weak reference
+        private final Lag lag;
+
+        Consumer(String name, MetricObserver observer, long start) {
+            this.name = name;
+            this.observer = observer;
+            this.cursor = new AtomicLong(start);
+            droppedOverrun = Servo.getCounter(MonitorConfig.builder("atlas.async.dropped")
+                    .withTag("observer", name).withTag("reason", "overrun").build());
+            droppedExpired = Servo.getCounter(MonitorConfig.builder("atlas.async.dropped")
+                    .withTag("observer", name).withTag("reason", "expired").build());
+            latency = Servo.getTimer("atlas.async", "observer", name, "phase", "latency");
+            updateTimer = Servo.getTimer("atlas.async", "observer", name, "phase", "update");
+            lag = Servo.getNumberGauge(MonitorConfig.builder("atlas.async.lag")
+                    .withTag("observer", name).build(), new Lag(cursor));
+        }
+
+        @Override
+        public void run() {
+            boolean interrupted = false;
+            while (!interrupted) {
+                try {
+                    awaitPublished(cursor.get());
+                    processAvailable();
+                } catch (InterruptedException e) {
+                    LOGGER.debug("Interrupted waiting for updates for {}", name);
+                    interrupted = true;
+                } catch (Throwable t) {
+                    LOGGER.warn("Caught unexpected exception updating " + name, t);
+                }
+            }
+        }
+
+        private void processAvailable() {
+            long seq = cursor.get();
+            while (seq <= published.get()) {
+                final Entry entry = ring.get((int) (seq & mask));
+                if (entry == null || entry.seq != seq) {
+                    // the slot was overwritten, skip to the oldest update still in the ring
+                    final long oldest = Math.max(seq + 1, published.get() - mask);
+                    LOGGER.warn("{} fell behind, dropping {} updates", name, oldest - seq);
+                    droppedOverrun.increment(oldest - seq);
+                    seq = oldest;
+                } else {
+                    // advance first so a failing observer does not get the same update again
+                    cursor.set(++seq);
+                    process(entry);
+                }
+                cursor.set(seq);
+                releaseConsumed();
+            }
+        }
+
+        private void process(Entry entry) {
+            final long age = System.nanoTime() - entry.publishedNanos;
+            if (age > expireNanos) {
+                LOGGER.debug("Dropping expired update for {}", name);
+                droppedExpired.increment();
+                return;
+            }
+            final Stopwatch s = updateTimer.start();
+            try {
+                observer.update(entry.metrics);
+            } finally {
+                s.stop();
+                latency.record(System.nanoTime() - entry.publishedNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Number of published updates an observer has not processed yet.
+     */
+    @SuppressWarnings("serial")
+    private final class Lag extends Number {
+        private final AtomicLong cursor;
+
+        Lag(AtomicLong cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public long longValue() {
+            return Math.max(0L, published.get() + 1 - cursor.get());
+        }
+
+        @Override
+        public int intValue() {
+            return (int) longValue();
+        }
+
+        @Override
+        public float floatValue() {
+            return longValue();
+        }
+
+        @Override
+        public double doubleValue() {
+            return longValue();
+        }
+
+        @Override
+        public String toString() {
+            return Long.toString(longValue());
+        }
+    }
+}
@@ -16,9 +16,9 @@
 
 package com.netflix.atlas.client;
 
-import com.netflix.servo.Metric;
 import com.netflix.servo.tag.TagList;
 import rx.Observable;
+import rx.functions.Func0;
 
 class AtlasMetricObserver extends BaseAtlasMetricObserver {
     AtlasMetricObserver(PluginConfig config) {
@@ -26,9 +26,15 @@ class AtlasMetricObserver extends BaseAtlasMetricObserver {
     }
 
     @Override
-    Observable<Integer> getSenderObservable(TagList tags, Metric[] batch) {
-        JsonPayload payload = new UpdateRequest(tags, batch, batch.length, getStepMs());
-        return RxHttp.postSmile(getPluginConfig().getPublishUri(), payload)
-                .map(withBookkeeping(batch.length));
+    Observable<Integer> getSenderObservable(final TagList tags, final MetricBatch batch,
+                                            final long deadlineMs) {
+        return Observable.defer(new Func0<Observable<Integer>>() {
+            @Override
+            public Observable<Integer> call() {
+                JsonPayload payload = new UpdateRequest(tags, batch, getStepMs());
+                return getRxHttp().postSmile(getPluginConfig().getPublishUri(), payload, deadlineMs)
+                        .map(withBookkeeping(batch.size()));
+            }
+        });
     }
 }
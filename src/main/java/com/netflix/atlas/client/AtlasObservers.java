@@ -17,46 +17,44 @@
 package com.netflix.atlas.client;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableList;
 import com.netflix.servo.Metric;
 import com.netflix.servo.monitor.Pollers;
-import com.netflix.servo.publish.AsyncMetricObserver;
 import com.netflix.servo.publish.MetricObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
 import java.util.List;
 
 final class AtlasObservers implements MetricObserver {
-    private static final int ASYNC_QUEUE_SIZE = 10;
     private static final Logger LOGGER = LoggerFactory.getLogger(AtlasObservers.class);
 
     private final BaseAtlasMetricObserver atlasMetricObserver;
-    private final Collection<MetricObserver> observers;
+    private final AsyncDispatcher dispatcher;
     private final PushManager pushManager;
 
     AtlasObservers(PluginConfig pluginConfig, BaseAtlasMetricObserver atlasMetricObserver, PushManager pushManager) {
         this.atlasMetricObserver = atlasMetricObserver;
         this.pushManager = pushManager;
-        this.observers = ImmutableList.of(
-                createAtlas(pluginConfig, atlasMetricObserver),
-                createAtlasCW(pluginConfig, pushManager),
-                createFileMetrics(pluginConfig, pushManager));
+        final long expire = Pollers.getPollingIntervals().get(0);
+        this.dispatcher = new AsyncDispatcher(PluginConfigs.extend(pluginConfig).getAsyncQueueSize(), expire);
+        createAtlas(dispatcher, pluginConfig, atlasMetricObserver);
+        createAtlasCW(dispatcher, pluginConfig, pushManager);
+        createFileMetrics(dispatcher, pluginConfig, pushManager);
     }
 
-    private static MetricObserver createAtlas(final PluginConfig config,
-                                              final BaseAtlasMetricObserver observer) {
+    private static void createAtlas(AsyncDispatcher dispatcher, final PluginConfig config,
+                                    final BaseAtlasMetricObserver observer) {
         final Predicate atlasEnabled = new Predicate() {
             @Override
             public boolean apply() {
                 return config.isEnabled();
             }
         };
-        return condAsync("atlas", atlasEnabled, observer);
+        condAsync(dispatcher, "atlas", atlasEnabled, observer);
     }
 
-    private static MetricObserver createAtlasCW(final PluginConfig config, final PushManager pushManager) {
+    private static void createAtlasCW(AsyncDispatcher dispatcher, final PluginConfig config,
+                                      final PushManager pushManager) {
         final Predicate atlasCloudWatchEnabled = new Predicate() {
             @Override
             public boolean apply() {
@@ -65,31 +63,30 @@ final class AtlasObservers implements MetricObserver {
 
         };
 
-        return condAsync("atlasCloudWatch", atlasCloudWatchEnabled,
+        condAsync(dispatcher, "atlasCloudWatch", atlasCloudWatchEnabled,
                 new CloudWatchObserver(config, pushManager));
     }
 
-    private static MetricObserver createFileMetrics(final PluginConfig config, final PushManager pushManager) {
+    private static void createFileMetrics(AsyncDispatcher dispatcher, final PluginConfig config,
+                                          final PushManager pushManager) {
         final Predicate fileObserverEnabled = new Predicate() {
             @Override
             public boolean apply() {
                 return config.isFileMetricsEnabled();
             }
         };
-        return condAsync("fileMetrics", fileObserverEnabled,
+        condAsync(dispatcher, "fileMetrics", fileObserverEnabled,
                 new FileMetricObserver(config, pushManager));
     }
 
     /**
-     * Create a new observer that will only receive updates if the
-     * predicate is true. The updates will be processed asynchronously.
+     * Register an observer that will only receive updates if the predicate is true. The
+     * updates will be processed asynchronously, and the predicate is checked on the thread
+     * of the observer.
      */
-    public static MetricObserver condAsync(String name, Predicate p,
-                                           MetricObserver observer) {
-        final long expire = Pollers.getPollingIntervals().get(0);
-        final MetricObserver asyncObserver = new AsyncMetricObserver(
-                name, observer, ASYNC_QUEUE_SIZE, expire);
-        return new ConditionalObserver(p, asyncObserver);
+    static void condAsync(AsyncDispatcher dispatcher, String name, Predicate p,
+                          MetricObserver observer) {
+        dispatcher.register(name, new ConditionalObserver(p, observer));
     }
 
     @Override
@@ -99,10 +96,8 @@ final class AtlasObservers implements MetricObserver {
             return;
         }
 
-        for (MetricObserver observer : observers) {
-            LOGGER.debug("Forwarding {} metrics to {}", metrics.size(), observer.getName());
-            observer.update(metrics);
-        }
+        LOGGER.debug("Forwarding {} metrics to {}", metrics.size(), dispatcher);
+        dispatcher.publish(metrics);
 
         pushManager.reset();
     }
@@ -116,4 +111,9 @@ final class AtlasObservers implements MetricObserver {
         pushManager.save(metrics); // save pushed metrics so they can be used later
         atlasMetricObserver.push(metrics);
     }
+
+    void push(String key, List<Metric> metrics) {
+        pushManager.save(metrics); // save pushed metrics so they can be used later
+        atlasMetricObserver.push(key, metrics);
+    }
 }
@@ -164,6 +164,19 @@ public class AtlasPlugin {
         atlasObserver.push(metrics); // send immediately to the atlas backend
     }
 
+    /**
+     * Push metrics to Atlas asynchronously like {@link #pushMetrics(List)}. The metrics pushed
+     * with the same key are sent in the order they were pushed, so a key can be used for
+     * sources that need their updates to be sent in order.
+     *
+     * @param key     Key used to select the queue for the metrics, or null to spread the
+     *                metrics over the queues by series.
+     * @param metrics List of metrics to send.
+     */
+    public void pushMetrics(String key, List<Metric> metrics) {
+        atlasObserver.push(key, metrics);
+    }
+
     /**
      * Shutdown the plugin by terminating tasks.
      */
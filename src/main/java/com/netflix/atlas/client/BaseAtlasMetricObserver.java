@@ -16,6 +16,8 @@
 
 package com.netflix.atlas.client;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
 import com.netflix.atlas.client.util.NetflixTagKey;
@@ -41,12 +43,14 @@ import io.reactivex.netty.protocol.http.client.HttpClientResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Func0;
 import rx.functions.Func1;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Observer that forwards metrics to atlas. In addition to being MetricObserver, it also supports
@@ -57,12 +61,49 @@ abstract class BaseAtlasMetricObserver implements MetricObserver {
     private static final Logger LOGGER = LoggerFactory.getLogger(BaseAtlasMetricObserver.class);
     private static final Tag ATLAS_COUNTER_TAG = new BasicTag("atlas.dstype", "counter");
     private static final Tag ATLAS_GAUGE_TAG = new BasicTag("atlas.dstype", "gauge");
-    private static final UpdateTasks NO_TASKS = new UpdateTasks(0, null, -1L);
+    private static final UpdateTasks NO_TASKS = new UpdateTasks(0, BasicTagList.EMPTY,
+            Collections.<MetricBatch>emptyList(), -1L);
     private static final int HTTP_OK = 200;
     private static final int PERCENTAGE = 100;
     private static final int MAX_PERC_TO_SEND = 90;
-    private final PluginConfig config;
+    // rough size of the timestamp, value and framing for a metric in the smile payload
+    private static final int METRIC_OVERHEAD_BYTES = 24;
+    private static final int TAG_OVERHEAD_BYTES = 4;
+    private static final double MIN_COMPRESSION_RATIO = 0.01;
+
+    private static final Function<MonitorConfig, MonitorConfig> IDENTIFY_DS_TYPES =
+            new Function<MonitorConfig, MonitorConfig>() {
+                @Override
+                public MonitorConfig apply(MonitorConfig config) {
+                    // since we never generate atlas.dstype = counter we can do the following:
+                    return isRate(config) ? config : asGauge(config);
+                }
+            };
+
+    private static final Function<MonitorConfig, MonitorConfig> IDENTIFY_COUNTERS_FOR_PUSH =
+            new Function<MonitorConfig, MonitorConfig>() {
+                @Override
+                public MonitorConfig apply(MonitorConfig config) {
+                    if (isCounter(config)) {
+                        return asCounter(config);
+                    } else if (isGauge(config)) {
+                        return asGauge(config);
+                    }
+                    return config;
+                }
+            };
+
+    private static final Function<MonitorConfig, MonitorConfig> TO_VALID_CONFIG =
+            new Function<MonitorConfig, MonitorConfig>() {
+                @Override
+                public MonitorConfig apply(MonitorConfig config) {
+                    return ValidCharacters.toValidConfig(config);
+                }
+            };
+
+    private final ExtendedPluginConfig config;
     private final RollupPolicy rollupPolicy;
+    private final RxHttp rxHttp;
     private final long sendTimeoutMs; // in milliseconds
     private final long stepMs; // in milliseconds
     private final Counter numMetricsTotal = Monitors.newCounter("numMetricsTotal");
@@ -76,70 +117,89 @@ abstract class BaseAtlasMetricObserver implements MetricObserver {
     private final Counter numMetricsDroppedHttpErr = newCounter("numMetricsDropped",
             "httpError");
     private final Counter numMetricsSent = Monitors.newCounter("numMetricsSent");
+    private final Counter numBatches = Servo.getCounter("atlas.batch.count");
+    private final Timer sendBatchTimer = Servo.getTimer("atlas.batch", "phase", "send");
     private final TagList commonTags;
-    private final BlockingQueue<UpdateTasks> pushQueue;
+    // the same series show up every cycle, so keep the rewritten configs around
+    private final MonitorConfigCache dsTypeConfigs;
+    private final MonitorConfigCache pushConfigs;
+    private final MonitorConfigCache validConfigs;
+    // one queue and worker per lane, a series is always pushed through the same lane
+    private final PushCoalescer[] pushLanes;
     @SuppressWarnings("UnusedDeclaration")
     private final Gauge<Integer> pushQueueSize = new BasicGauge<>(
             MonitorConfig.builder("pushQueue").build(), new Callable<Integer>() {
         @Override
         public Integer call() throws Exception {
-            return pushQueue.size();
+            int size = 0;
+            for (PushCoalescer lane : pushLanes) {
+                size += lane.size();
+            }
+            return size;
+        }
+    });
+    @SuppressWarnings("UnusedDeclaration")
+    private final Gauge<Long> pushQueueBytes = new BasicGauge<>(
+            MonitorConfig.builder("pushQueueBytes").build(), new Callable<Long>() {
+        @Override
+        public Long call() throws Exception {
+            long bytes = 0L;
+            for (PushCoalescer lane : pushLanes) {
+                bytes += lane.bytes();
+            }
+            return bytes;
         }
     });
 
     BaseAtlasMetricObserver(PluginConfig config, RollupConfigurator rollupConfigurator, int pollerIdx) {
-        this.config = config;
+        this.config = PluginConfigs.extend(config);
         this.stepMs = Pollers.getPollingIntervals().get(pollerIdx);
         this.sendTimeoutMs = stepMs * MAX_PERC_TO_SEND / PERCENTAGE;
         commonTags = createCommonTagListFromEnvironment();
-        pushQueue = new LinkedBlockingQueue<>(config.getPushQueueSize());
-        rollupPolicy = new RollupPolicy(rollupConfigurator);
-        final Thread pushThread = new Thread(new PushProcessor(), "BaseAtlasMetricObserver-Push");
-        pushThread.setDaemon(true);
-        pushThread.start();
+        final long cacheSize = this.config.getConfigCacheSize();
+        dsTypeConfigs = new MonitorConfigCache("atlas.configCache.dsType", cacheSize, IDENTIFY_DS_TYPES);
+        pushConfigs = new MonitorConfigCache("atlas.configCache.push", cacheSize,
+                IDENTIFY_COUNTERS_FOR_PUSH);
+        validConfigs = new MonitorConfigCache("atlas.configCache.valid", cacheSize, TO_VALID_CONFIG);
+        rollupPolicy = new RollupPolicy(rollupConfigurator, this.config.getConfigCacheSize());
+        rxHttp = new RxHttp(config);
+        pushLanes = new PushCoalescer[Math.max(1, this.config.getPushWorkers())];
+        for (int i = 0; i < pushLanes.length; ++i) {
+            pushLanes[i] = new PushCoalescer(i);
+            final Thread pushThread = new Thread(new PushProcessor(pushLanes[i]),
+                    "BaseAtlasMetricObserver-Push-" + i);
+            pushThread.setDaemon(true);
+            pushThread.start();
+        }
     }
 
     protected static Counter newCounter(String name, String err) {
         return new BasicCounter(MonitorConfig.builder(name).withTag("error", err).build());
     }
 
-    private static Metric asGauge(Metric m) {
-        return new Metric(m.getConfig().withAdditionalTag(ATLAS_GAUGE_TAG),
-                m.getTimestamp(), m.getValue());
+    private static MonitorConfig asGauge(MonitorConfig config) {
+        return config.withAdditionalTag(ATLAS_GAUGE_TAG);
     }
 
-    private static Metric asCounter(Metric m) {
-        return new Metric(m.getConfig().withAdditionalTag(ATLAS_COUNTER_TAG),
-                m.getTimestamp(), m.getValue());
+    private static MonitorConfig asCounter(MonitorConfig config) {
+        return config.withAdditionalTag(ATLAS_COUNTER_TAG);
     }
 
-    private static boolean isCounter(Metric m) {
-        final TagList tags = m.getConfig().getTags();
-        final String value = tags.getValue(DataSourceType.KEY);
+    private static boolean isCounter(MonitorConfig config) {
+        final String value = config.getTags().getValue(DataSourceType.KEY);
         return value != null && value.equals(DataSourceType.COUNTER.name());
     }
 
-    private static boolean isGauge(Metric m) {
-        final TagList tags = m.getConfig().getTags();
-        final String value = tags.getValue(DataSourceType.KEY);
+    private static boolean isGauge(MonitorConfig config) {
+        final String value = config.getTags().getValue(DataSourceType.KEY);
         return value != null && value.equals(DataSourceType.GAUGE.name());
     }
 
-    private static boolean isRate(Metric m) {
-        final TagList tags = m.getConfig().getTags();
-        final String value = tags.getValue(DataSourceType.KEY);
+    private static boolean isRate(MonitorConfig config) {
+        final String value = config.getTags().getValue(DataSourceType.KEY);
         return value != null && value.equals(DataSourceType.RATE.name());
     }
 
-    private static List<Metric> identifyDsTypes(List<Metric> metrics) {
-        List<Metric> result = Lists.newArrayListWithCapacity(metrics.size());
-        for (Metric m : metrics) {
-            // since we never generate atlas.dstype = counter we can do the following:
-            result.add(isRate(m) ? m : asGauge(m));
-        }
-        return result;
-    }
-
     /**
      * Get the number of milliseconds for the step size.
      */
@@ -154,8 +214,17 @@ abstract class BaseAtlasMetricObserver implements MetricObserver {
         return config;
     }
 
+    /**
+     * Get the http client used for both the regular updates and the pushed metrics.
+     */
+    RxHttp getRxHttp() {
+        return rxHttp;
+    }
+
     private TagList createCommonTagListFromEnvironment() {
-        return BasicTagList.copyOf(NetflixTagKey.tagsFromEnvironment());
+        // sanitized once here instead of for every request
+        return ValidCharacters.toValidTagList(
+                BasicTagList.copyOf(NetflixTagKey.tagsFromEnvironment()));
     }
 
     @Override
@@ -163,50 +232,90 @@ abstract class BaseAtlasMetricObserver implements MetricObserver {
         return "atlas";
     }
 
-    private List<Metric> identifyCountersForPush(List<Metric> metrics) {
-        List<Metric> transformed = Lists.newArrayListWithCapacity(metrics.size());
-        for (Metric m : metrics) {
-            Metric toAdd = m;
-            if (isCounter(m)) {
-                toAdd = asCounter(m);
-            } else if (isGauge(m)) {
-                toAdd = asGauge(m);
-            }
-            transformed.add(toAdd);
-        }
-        return transformed;
-    }
-
     /**
-     * Immediately send metrics to the backend.
+     * Send metrics to the backend as soon as possible. Pushes that are queued close together
+     * are merged and sent in the same requests. The metrics are spread over the push lanes
+     * based on the series, so the updates for a series are always sent in order.
      *
      * @param rawMetrics Metrics to be sent. The names are sanitized,
      *                   and rollup policies
      *                   applied before sending them to the backend publish cluster.
      */
     public void push(List<Metric> rawMetrics) {
-        List<Metric> metricsWithValidValues = ValidCharacters.toValidValues(filter(rawMetrics));
-        List<Metric> rolledUp = rollupPolicy.rollup(metricsWithValidValues);
-        LOGGER.debug("Scheduling push of {} metrics", rolledUp.size());
-        final UpdateTasks tasks = getUpdateTasks(BasicTagList.EMPTY,
-                identifyCountersForPush(rolledUp));
-        final int maxAttempts = 5;
-        int attempts = 0;
-        while (!pushQueue.offer(tasks) && ++attempts < maxAttempts) {
-            final UpdateTasks droppedTasks = pushQueue.remove();
-            LOGGER.warn("Removing old push task due to queue full. Dropping {} metrics.",
-                    droppedTasks.numMetrics);
-            numMetricsDroppedQueueFull.increment(droppedTasks.numMetrics);
+        final MetricBatch batch = prepareForPush(rawMetrics);
+        if (batch.isEmpty()) {
+            return;
+        } else if (pushLanes.length == 1) {
+            offer(pushLanes[0], batch);
+            return;
+        }
+
+        final MetricBatch.Builder[] builders = new MetricBatch.Builder[pushLanes.length];
+        for (int i = 0; i < builders.length; ++i) {
+            builders[i] = new MetricBatch.Builder(batch.size() / builders.length + 1);
+        }
+        // the lane only depends on the config, so compute it once per distinct config
+        final int[] lanes = new int[batch.numConfigs()];
+        Arrays.fill(lanes, -1);
+        for (int i = 0; i < batch.size(); ++i) {
+            final int id = batch.id(i);
+            if (lanes[id] < 0) {
+                lanes[id] = getLane(batch.configForId(id).hashCode());
+            }
+            builders[lanes[id]].add(batch.config(i), batch.timestamp(i), batch.value(i));
+        }
+        for (int i = 0; i < builders.length; ++i) {
+            if (builders[i].size() > 0) {
+                offer(pushLanes[i], builders[i].build());
+            }
+        }
+    }
+
+    /**
+     * Send metrics to the backend as soon as possible using the lane for a key. All the
+     * metrics pushed with the same key are sent in order, for example the key could be the
+     * source of the metrics. Pushing the same series with different keys, or also without a
+     * key, can reorder the updates for that series.
+     *
+     * @param key        Key used to select the lane. If null the metrics are spread over the
+     *                   lanes based on the series like {@link #push(List)}.
+     * @param rawMetrics Metrics to be sent.
+     */
+    public void push(String key, List<Metric> rawMetrics) {
+        if (key == null) {
+            push(rawMetrics);
+            return;
+        }
+        final MetricBatch batch = prepareForPush(rawMetrics);
+        if (!batch.isEmpty()) {
+            offer(pushLanes[getLane(key.hashCode())], batch);
         }
-        if (attempts >= maxAttempts) {
-            LOGGER.error("Unable to push update of {}", tasks);
-            numMetricsDroppedQueueFull.increment(tasks.numMetrics);
-        } else {
-            LOGGER.debug("Queued push of {}", tasks);
+    }
+
+    private MetricBatch prepareForPush(List<Metric> rawMetrics) {
+        MetricBatch metricsWithValidValues = filter(rawMetrics).mapConfigs(validConfigs);
+        MetricBatch rolledUp = rollupPolicy.rollup(metricsWithValidValues);
+        LOGGER.debug("Scheduling push of {} metrics", rolledUp.size());
+        return rolledUp.mapConfigs(pushConfigs);
+    }
+
+    private int getLane(int hash) {
+        return (hash & Integer.MAX_VALUE) % pushLanes.length;
+    }
+
+    private void offer(PushCoalescer lane, MetricBatch batch) {
+        // the bounds are for all the lanes together
+        final long maxBytes = config.getPushQueueMaxBytes() / pushLanes.length;
+        final int maxSize = Math.max(1, config.getPushQueueSize() / pushLanes.length);
+        final int dropped = lane.offer(batch, estimateSize(batch), maxBytes, maxSize);
+        if (dropped > 0) {
+            LOGGER.warn("Removing old pushes due to queue full. Dropping {} metrics.", dropped);
+            numMetricsDroppedQueueFull.increment(dropped * getNumberOfCopies());
         }
+        LOGGER.debug("Queued push of {} metrics, {}", batch.size(), lane);
     }
 
-    private void sendNow(UpdateTasks updateTasks) {
+    private void sendNow(final UpdateTasks updateTasks) {
         if (updateTasks.numMetrics == 0) {
             return;
         }
@@ -216,7 +325,17 @@ abstract class BaseAtlasMetricObserver implements MetricObserver {
         final Stopwatch s = updateTimer.start();
         int totalSent = 0;
         try {
-            totalSent = RxHttp.sendAll(updateTasks.tasks, updateTasks.numMetrics, sendTimeoutMs);
+            // senders are created lazily as the previous ones are subscribed, so encoding
+            // the next batch overlaps with the batches already in flight
+            final long deadline = System.currentTimeMillis() + sendTimeoutMs;
+            final List<Observable<Integer>> senders = Lists.transform(updateTasks.batches,
+                    new Function<MetricBatch, Observable<Integer>>() {
+                        @Override
+                        public Observable<Integer> apply(MetricBatch batch) {
+                            return timed(getSenderObservable(updateTasks.tags, batch, deadline));
+                        }
+                    });
+            totalSent = rxHttp.sendAll(senders, updateTasks.numMetrics, deadline);
             LOGGER.debug("Sent {}/{} metrics to atlas", totalSent, updateTasks.numMetrics);
         } finally {
             s.stop();
@@ -232,62 +351,129 @@ abstract class BaseAtlasMetricObserver implements MetricObserver {
     /**
      * Return metrics to be sent to the main atlas deployment.
      * Metrics will be sent if their publishing policy matches atlas and if they
-     * will *not* be sent to the aggregation cluster.
+     * will *not* be sent to the aggregation cluster. Only metrics with a number
+     * value can be included in the returned batch.
      */
-    protected List<Metric> filter(List<Metric> metrics) {
-        final List<Metric> filtered = Lists.newArrayListWithExpectedSize(metrics.size());
+    protected MetricBatch filter(List<Metric> metrics) {
+        final MetricBatch.Builder filtered = new MetricBatch.Builder(metrics.size());
         for (Metric metric : metrics) {
-            if (shouldIncludeMetric(metric)) {
-                filtered.add(metric);
+            if (shouldIncludeMetric(metric) && metric.hasNumberValue()) {
+                filtered.add(metric.getConfig(), metric.getTimestamp(),
+                        metric.getNumberValue().doubleValue());
             }
         }
         LOGGER.debug("Filter: input {} metrics, output {} metrics",
                 metrics.size(), filtered.size());
-        return filtered;
+        return filtered.build();
     }
 
     @Override
     public void update(List<Metric> metrics) {
-        List<Metric> rolledUp = rollupPolicy.rollup(identifyDsTypes(filter(metrics)));
+        MetricBatch rolledUp = rollupPolicy.rollup(filter(metrics).mapConfigs(dsTypeConfigs));
         sendNow(getUpdateTasks(commonTags, rolledUp));
     }
 
-    private UpdateTasks getUpdateTasks(TagList tags, List<Metric> metrics) {
+    private UpdateTasks getUpdateTasks(TagList tags, MetricBatch metrics) {
         if (metrics.isEmpty()) {
             LOGGER.debug("metrics list is empty, no data being sent to server");
             return NO_TASKS;
         }
 
         final int numMetrics = metrics.size();
-        final Metric[] atlasMetrics = new Metric[metrics.size()];
-        metrics.toArray(atlasMetrics);
-
         numMetricsTotal.increment(numMetrics);
-        final List<rx.Observable<Integer>> tasks = Lists.newArrayList();
-        final String uri = config.getPublishUri();
-        LOGGER.debug("writing {} metrics to atlas ({})", numMetrics, uri);
-        int i = 0;
-        while (i < numMetrics) {
-            final int remaining = numMetrics - i;
-            final int batchSize = Math.min(remaining, config.getBatchSize());
-            final Metric[] batch = new Metric[batchSize];
-            System.arraycopy(atlasMetrics, i, batch, 0, batchSize);
-            final rx.Observable<Integer> sender = getSenderObservable(tags, batch);
-            tasks.add(sender);
-            i += batchSize;
+        LOGGER.debug("writing {} metrics to atlas ({})", numMetrics, config.getPublishUri());
+
+        final long maxBytes = getMaxBatchBytes();
+        final int maxSize = config.getBatchSize();
+
+        // the estimate only depends on the config, so compute it once per distinct config
+        final int[] sizes = new int[metrics.numConfigs()];
+        final List<MetricBatch> batches = Lists.newArrayList();
+        int start = 0;
+        long batchBytes = 0L;
+        for (int i = 0; i < numMetrics; ++i) {
+            final int id = metrics.id(i);
+            if (sizes[id] == 0) {
+                sizes[id] = estimateSize(metrics.configForId(id));
+            }
+            final int size = sizes[id];
+            if (i > start && (i - start >= maxSize || batchBytes + size > maxBytes)) {
+                batches.add(metrics.slice(start, i));
+                start = i;
+                batchBytes = 0L;
+            }
+            batchBytes += size;
         }
-        assert (i == numMetrics);
-        LOGGER.debug("succeeded in creating {} observable(s) to send metrics with total size {}",
-                tasks.size(), numMetrics);
+        batches.add(metrics.slice(start, numMetrics));
+        numBatches.increment(batches.size());
+        LOGGER.debug("split {} metrics into {} batch(es)", numMetrics, batches.size());
 
-        return new UpdateTasks(numMetrics * getNumberOfCopies(), tasks, System.currentTimeMillis());
+        return new UpdateTasks(numMetrics * getNumberOfCopies(), tags, batches,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Max estimated size of the uncompressed metrics in one batch. The budget is for the
+     * compressed payload, so it is scaled using the ratio observed for the previous payloads.
+     */
+    private long getMaxBatchBytes() {
+        final double ratio = Math.max(rxHttp.getCompressionRatio(), MIN_COMPRESSION_RATIO);
+        return (long) (config.getBatchMaxBytes() / ratio);
+    }
+
+    /**
+     * Rough estimate of the number of bytes needed to encode a batch before compression.
+     */
+    private static long estimateSize(MetricBatch metrics) {
+        final int[] sizes = new int[metrics.numConfigs()];
+        long total = 0L;
+        for (int i = 0; i < metrics.size(); ++i) {
+            final int id = metrics.id(i);
+            if (sizes[id] == 0) {
+                sizes[id] = estimateSize(metrics.configForId(id));
+            }
+            total += sizes[id];
+        }
+        return total;
+    }
+
+    /**
+     * Rough estimate of the number of bytes needed to encode a metric before compression.
+     */
+    @VisibleForTesting
+    static int estimateSize(MonitorConfig config) {
+        int size = METRIC_OVERHEAD_BYTES + config.getName().length();
+        for (Tag tag : config.getTags()) {
+            size += TAG_OVERHEAD_BYTES + tag.getKey().length() + tag.getValue().length();
+        }
+        return size;
+    }
+
+    private Observable<Integer> timed(final Observable<Integer> sender) {
+        return Observable.defer(new Func0<Observable<Integer>>() {
+            @Override
+            public Observable<Integer> call() {
+                final Stopwatch s = sendBatchTimer.start();
+                return sender.finallyDo(new Action0() {
+                    @Override
+                    public void call() {
+                        s.stop();
+                    }
+                });
+            }
+        });
     }
 
     protected int getNumberOfCopies() {
         return 1;
     }
 
-    abstract rx.Observable<Integer> getSenderObservable(TagList tags, Metric[] batch);
+    /**
+     * Create an observable that will send the batch when subscribed. Retries will not be
+     * attempted if they cannot complete before the deadline.
+     */
+    abstract rx.Observable<Integer> getSenderObservable(TagList tags, MetricBatch batch,
+                                                        long deadlineMs);
 
     /**
      * Utility function to map an Observable&lt;ByteBuf> to an Observable&lt;Integer> while also
@@ -313,35 +499,44 @@ abstract class BaseAtlasMetricObserver implements MetricObserver {
 
     private static class UpdateTasks {
         private final int numMetrics;
-        private final List<Observable<Integer>> tasks;
+        private final TagList tags;
+        private final List<MetricBatch> batches;
         private final long timestamp;
 
-        UpdateTasks(int numMetrics, List<Observable<Integer>> tasks, long timestamp) {
+        UpdateTasks(int numMetrics, TagList tags, List<MetricBatch> batches, long timestamp) {
             this.numMetrics = numMetrics;
-            this.tasks = tasks;
+            this.tags = tags;
+            this.batches = batches;
             this.timestamp = timestamp;
         }
 
         @Override
         public String toString() {
-            final int tasksSize = (tasks != null) ? tasks.size() : 0;
             return Objects.toStringHelper(this).
                     add("numMetrics", numMetrics).
-                    add("tasks.size", tasksSize).
+                    add("batches.size", batches.size()).
                     add("timestamp", timestamp).
                     toString();
         }
     }
 
     private class PushProcessor implements Runnable {
+        private final PushCoalescer pushQueue;
+
+        PushProcessor(PushCoalescer pushQueue) {
+            this.pushQueue = pushQueue;
+        }
+
         @Override
         public void run() {
             boolean interrupted = false;
             while (!interrupted) {
                 try {
-                    sendNow(pushQueue.take());
+                    final MetricBatch batch = pushQueue.take(config.getPushLingerMs(),
+                            getMaxBatchBytes());
+                    sendNow(getUpdateTasks(BasicTagList.EMPTY, batch));
                 } catch (InterruptedException e) {
-                    LOGGER.debug("Interrupted trying to get next UpdateTask to push");
+                    LOGGER.debug("Interrupted trying to get next batch to push");
                     interrupted = true;
                 } catch (Throwable t) {
                     LOGGER.info("Caught unexpected exception pushing metrics", t);
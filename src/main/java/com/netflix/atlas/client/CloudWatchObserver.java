@@ -25,10 +25,14 @@ import com.netflix.atlas.client.interpreter.Context;
 import com.netflix.atlas.client.interpreter.Interpreter;
 import com.netflix.atlas.client.interpreter.LabeledResult;
 import com.netflix.atlas.client.interpreter.ListValueExpression;
+import com.netflix.atlas.client.interpreter.ParallelEvaluator;
 import com.netflix.atlas.client.util.NetflixEnvironment;
 import com.netflix.atlas.client.util.NetflixTagKey;
 import com.netflix.atlas.client.util.Strings;
 import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Stopwatch;
+import com.netflix.servo.monitor.Timer;
 import com.netflix.servo.publish.MetricObserver;
 import com.netflix.servo.publish.cloudwatch.CloudWatchMetricObserver;
 import com.netflix.servo.tag.BasicTagList;
@@ -38,6 +42,7 @@ import org.slf4j.LoggerFactory;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Forward native atlas metrics to cloudwatch.
@@ -45,20 +50,27 @@ import java.util.concurrent.atomic.AtomicInteger;
 public final class CloudWatchObserver implements MetricObserver {
     private static final Logger LOGGER = LoggerFactory.getLogger(CloudWatchObserver.class);
 
-    private final PluginConfig config;
+    private final ExtendedPluginConfig config;
     private final CloudWatchMetricObserver cloudWatchMetricObserver;
     private final String asgFromEnv = NetflixTagKey.tagsFromEnvironment().get(NetflixTagKey.ASG);
     private final String asg = Strings.isNotEmpty(asgFromEnv) ? asgFromEnv : "unknown";
 
     private final BasicTagList tags = BasicTagList.of("AutoScalingGroupName", asg);
     private final AtomicInteger lastSent = Servo.getNumberGauge("atlas.cloudwatch.sent", new AtomicInteger(0));
+    private final AtomicInteger lastGroups =
+            Servo.getNumberGauge("atlas.cloudwatch.groups", new AtomicInteger(0));
+    private final AtomicLong stateSize = Servo.getNumberGauge("atlas.cloudwatch.stateSize", new AtomicLong(0L));
+    private final Counter compileCount = Servo.getCounter("atlas.cloudwatch.compile");
+    private final Timer compileTimer = Servo.getTimer("atlas.cloudwatch.compileTime");
     private final PushManager pushManager;
+    private volatile CompiledExpression compiled;
+    private volatile ParallelEvaluator evaluator;
 
     /**
      * Create the observer with a given configuration.
      */
     public CloudWatchObserver(PluginConfig config, PushManager pushManager) {
-        this.config = config;
+        this.config = PluginConfigs.extend(config);
         this.pushManager = pushManager;
         final AWSCredentialsProvider credentialsProvider = new DefaultAWSCredentialsProviderChain();
         final AmazonCloudWatchClient cloudWatchClient =
@@ -76,12 +88,64 @@ public final class CloudWatchObserver implements MetricObserver {
         return new Metric(result.getLabel(), tags, timestamp, result.getValue());
     }
 
-    List<Metric> getCloudwatchMetrics(List<Metric> metrics, long now) {
-        final Context context = Context.newDefaultContext();
+    /**
+     * Return the compiled expression for the current value of the cloudwatch expression
+     * property. The expression is only compiled again when the property changes, so the state
+     * kept in the context, for example by rolling counts, is preserved across updates.
+     */
+    ListValueExpression getExpression() {
+        return getCompiled().expression;
+    }
 
-        final List<Object> program = Interpreter.getTokens(config.getCloudwatchExpr());
-        final ListValueExpression expression = context.getListExpression(program);
-        final Map<List<String>, LabeledResult> data = expression.apply(metrics);
+    private CompiledExpression getCompiled() {
+        final String expr = config.getCloudwatchExpr();
+        CompiledExpression current = compiled;
+        if (current == null || !current.expr.equals(expr)) {
+            final Stopwatch s = compileTimer.start();
+            try {
+                final Context context = Context.newDefaultContext();
+                final List<Object> program = Interpreter.getTokens(expr);
+                current = new CompiledExpression(expr, context, context.getListExpression(program));
+            } finally {
+                s.stop();
+            }
+            compiled = current;
+            compileCount.increment();
+            LOGGER.debug("Compiled cloudwatch expression: {}", expr);
+        }
+        return current;
+    }
+
+    /**
+     * Return the evaluator to use if parallel evaluation is enabled, or null if the
+     * expression should be evaluated on the calling thread. The evaluator is recreated when
+     * the settings change.
+     */
+    private ParallelEvaluator getEvaluator() {
+        final int parallelism = config.getEvalParallelism();
+        final int threshold = config.getEvalParallelThreshold();
+        ParallelEvaluator current = evaluator;
+        if (current != null
+                && (current.getParallelism() != parallelism || current.getThreshold() != threshold)) {
+            current.shutdown();
+            current = null;
+        }
+        if (current == null && parallelism > 0 && threshold > 0) {
+            current = new ParallelEvaluator(parallelism, threshold);
+        }
+        evaluator = current;
+        return current;
+    }
+
+    List<Metric> getCloudwatchMetrics(List<Metric> metrics, long now) {
+        final CompiledExpression current = getCompiled();
+        final ListValueExpression expression = current.expression;
+        final ParallelEvaluator parallelEvaluator = getEvaluator();
+        final Map<List<String>, LabeledResult> data = (parallelEvaluator == null)
+                ? expression.apply(metrics)
+                : parallelEvaluator.apply(expression, metrics);
+        lastGroups.set(data.size());
+        stateSize.set(current.context.stateSize());
         final List<Metric> cwMetrics = Lists.newArrayList();
         for (LabeledResult entry : data.values()) {
             if (!Double.isNaN(entry.getValue())) {
@@ -120,4 +184,20 @@ public final class CloudWatchObserver implements MetricObserver {
     public String getName() {
         return "cloudwatch";
     }
+
+    /**
+     * An expression along with the string and the context it was compiled with. Stateful
+     * operators keep their state in the context, so it lives as long as the expression.
+     */
+    private static final class CompiledExpression {
+        private final String expr;
+        private final Context context;
+        private final ListValueExpression expression;
+
+        CompiledExpression(String expr, Context context, ListValueExpression expression) {
+            this.expr = expr;
+            this.context = context;
+            this.expression = expression;
+        }
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.netflix.servo.monitor.MonitorConfig;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense integer ids to distinct configs. Uses open addressing over an int table so
+ * looking up an existing config does not allocate. Not thread safe.
+ */
+final class ConfigIndex {
+    private static final int MIN_CAPACITY = 16;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+    private MonitorConfig[] configs;
+    // id + 1 of the config stored in each slot, 0 for an empty slot
+    private int[] table;
+    private int size;
+
+    /**
+     * Create an index that can hold the expected number of configs without resizing.
+     */
+    ConfigIndex(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        table = new int[capacity];
+        configs = new MonitorConfig[Math.max(MIN_CAPACITY, expectedSize)];
+    }
+
+    private static int slot(int hash, int mask) {
+        final int h = hash * GOLDEN_RATIO;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Return the id for the config, assigning the next id if it has not been seen before.
+     */
+    int intern(MonitorConfig config) {
+        final int mask = table.length - 1;
+        int i = slot(config.hashCode(), mask);
+        while (true) {
+            final int entry = table[i];
+            if (entry == 0) {
+                return insert(config, i);
+            } else if (configs[entry - 1].equals(config)) {
+                return entry - 1;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private int insert(MonitorConfig config, int i) {
+        final int id = size++;
+        if (id == configs.length) {
+            configs = Arrays.copyOf(configs, id * 2);
+        }
+        configs[id] = config;
+        table[i] = id + 1;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        final int[] newTable = new int[table.length * 2];
+        final int mask = newTable.length - 1;
+        for (int id = 0; id < size; ++id) {
+            int i = slot(configs[id].hashCode(), mask);
+            while (newTable[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            newTable[i] = id + 1;
+        }
+        table = newTable;
+    }
+
+    /**
+     * Number of distinct configs in the index.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Return the config with the given id.
+     */
+    MonitorConfig get(int id) {
+        return configs[id];
+    }
+
+    /**
+     * Return an array with the configs indexed by id.
+     */
+    MonitorConfig[] toArray() {
+        return Arrays.copyOf(configs, size);
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.netflix.servo.Metric;
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.MonitorConfig;
+
+import java.util.Arrays;
+
+/**
+ * Converts the cumulative values of counters to rates using the value seen for the previous
+ * interval. Entries are kept in columns indexed by a dense series id, with an open addressing
+ * table over the ids for lookups, so updating a series that is already known does not
+ * allocate. The config with the rate tag is computed once when a series is added.
+ *
+ * <p>Entries are expired with a time wheel that has one bucket per step. A series is added to
+ * the bucket of the step when it is updated, and when the wheel comes back to a bucket the
+ * series that were not updated since are removed. Expiring is proportional to the number of
+ * series updated during the step instead of requiring a scan of all entries.</p>
+ *
+ * <p>Not thread safe.</p>
+ */
+final class CounterRateCache {
+    private static final int MIN_CAPACITY = 16;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    // series that were not updated for this many steps are removed
+    private static final int EXPIRE_STEPS = 3;
+
+    private final long stepMs;
+
+    // id + 1 of the series stored in each slot, 0 for an empty slot
+    private int[] table;
+
+    // columns indexed by id, the config is null for ids that are free
+    private MonitorConfig[] configs;
+    private MonitorConfig[] rateConfigs;
+    private int[] hashes;
+    private long[] timestamps;
+    private double[] values;
+    private long[] lastSteps;
+
+    private int[] freeIds = new int[MIN_CAPACITY];
+    private int numFree;
+    private int numIds;
+    private int size;
+
+    // ids updated during each step, indexed by step % EXPIRE_STEPS
+    private final int[][] wheel = new int[EXPIRE_STEPS][MIN_CAPACITY];
+    private final int[] wheelSizes = new int[EXPIRE_STEPS];
+    private long currentStep;
+
+    /**
+     * Create a new cache.
+     *
+     * @param stepMs Step size in milliseconds. This is also the interval used for the rate of
+     *               the first value seen for a counter.
+     */
+    CounterRateCache(long stepMs) {
+        Preconditions.checkArgument(stepMs > 0L, "stepMs must be > 0");
+        this.stepMs = stepMs;
+        table = new int[MIN_CAPACITY * 2];
+        configs = new MonitorConfig[MIN_CAPACITY];
+        rateConfigs = new MonitorConfig[MIN_CAPACITY];
+        hashes = new int[MIN_CAPACITY];
+        timestamps = new long[MIN_CAPACITY];
+        values = new double[MIN_CAPACITY];
+        lastSteps = new long[MIN_CAPACITY];
+    }
+
+    @VisibleForTesting
+    static int slot(int hash, int mask) {
+        final int h = hash * GOLDEN_RATIO;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static double rate(long durationMillis, double delta) {
+        final double duration = durationMillis / MILLIS_PER_SECOND;
+        return (duration <= 0.0 || delta <= 0.0) ? 0.0 : delta / duration;
+    }
+
+    /**
+     * Move the wheel to the step for the current time, removing the series that have not been
+     * updated recently. Should be called before the updates for an interval.
+     */
+    void advance(long nowMs) {
+        final long step = nowMs / stepMs;
+        if (step <= currentStep) {
+            return;
+        }
+        // each bucket only needs to be processed once, for the most recent step it maps to
+        for (long s = Math.max(currentStep + 1, step - EXPIRE_STEPS + 1); s <= step; ++s) {
+            expire(s);
+        }
+        currentStep = step;
+    }
+
+    private void expire(long step) {
+        final int b = (int) (step % EXPIRE_STEPS);
+        final int[] ids = wheel[b];
+        for (int i = 0; i < wheelSizes[b]; ++i) {
+            final int id = ids[i];
+            // an id can be in the bucket more than once or may have been updated since, only
+            // remove it if the last update is the one that put it in this bucket
+            if (configs[id] != null && lastSteps[id] <= step - EXPIRE_STEPS) {
+                remove(id);
+            }
+        }
+        wheelSizes[b] = 0;
+    }
+
+    /**
+     * Return a metric with the rate for a counter. The config of the returned metric has the
+     * rate data source type. The first time a series is seen, the rate is computed as if the
+     * previous value had been 0 one step before.
+     */
+    Metric toRate(Metric m) {
+        final MonitorConfig config = m.getConfig();
+        final long timestamp = m.getTimestamp();
+        final double value = m.getNumberValue().doubleValue();
+
+        final int hash = config.hashCode();
+        final int mask = table.length - 1;
+        int i = slot(hash, mask);
+        while (true) {
+            final int entry = table[i];
+            if (entry == 0) {
+                final int id = insert(config, hash, i);
+                update(id, timestamp, value);
+                return new Metric(rateConfigs[id], timestamp, rate(stepMs, value));
+            } else if (hashes[entry - 1] == hash && configs[entry - 1].equals(config)) {
+                final int id = entry - 1;
+                final double r = rate(timestamp - timestamps[id], value - values[id]);
+                update(id, timestamp, value);
+                return new Metric(rateConfigs[id], timestamp, r);
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void update(int id, long timestamp, double value) {
+        timestamps[id] = timestamp;
+        values[id] = value;
+        if (lastSteps[id] != currentStep) {
+            lastSteps[id] = currentStep;
+            final int b = (int) (currentStep % EXPIRE_STEPS);
+            if (wheelSizes[b] == wheel[b].length) {
+                wheel[b] = Arrays.copyOf(wheel[b], wheelSizes[b] * 2);
+            }
+            wheel[b][wheelSizes[b]++] = id;
+        }
+    }
+
+    private int insert(MonitorConfig config, int hash, int i) {
+        final int id = (numFree > 0) ? freeIds[--numFree] : newId();
+        configs[id] = config;
+        rateConfigs[id] = config.withAdditionalTag(DataSourceType.RATE);
+        hashes[id] = hash;
+        // forces the series to be added to the wheel on the first update
+        lastSteps[id] = currentStep - 1;
+        table[i] = id + 1;
+        ++size;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private int newId() {
+        final int id = numIds++;
+        if (id == configs.length) {
+            final int capacity = id * 2;
+            configs = Arrays.copyOf(configs, capacity);
+            rateConfigs = Arrays.copyOf(rateConfigs, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+            lastSteps = Arrays.copyOf(lastSteps, capacity);
+        }
+        return id;
+    }
+
+    private void rehash() {
+        final int[] newTable = new int[table.length * 2];
+        final int mask = newTable.length - 1;
+        for (int id = 0; id < numIds; ++id) {
+            if (configs[id] != null) {
+                int i = slot(hashes[id], mask);
+                while (newTable[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                newTable[i] = id + 1;
+            }
+        }
+        table = newTable;
+    }
+
+    /**
+     * Remove a series. The following entries of the probe sequence are shifted back so
+     * lookups do not need tombstones.
+     */
+    private void remove(int id) {
+        final int mask = table.length - 1;
+        int i = slot(hashes[id], mask);
+        while (table[i] != id + 1) {
+            i = (i + 1) & mask;
+        }
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            final int entry = table[j];
+            if (entry == 0) {
+                break;
+            }
+            // the entry can move to the hole unless its home slot is cyclically in (i, j]
+            final int home = slot(hashes[entry - 1], mask);
+            final boolean inRange = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+            if (!inRange) {
+                table[i] = entry;
+                i = j;
+            }
+        }
+        table[i] = 0;
+
+        configs[id] = null;
+        rateConfigs[id] = null;
+        if (numFree == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, numFree * 2);
+        }
+        freeIds[numFree++] = id;
+        --size;
+    }
+
+    /**
+     * Number of series in the cache.
+     */
+    int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("size", size)
+                .add("capacity", table.length)
+                .add("step", currentStep)
+                .toString();
+    }
+}
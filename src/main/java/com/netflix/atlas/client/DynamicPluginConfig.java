@@ -21,6 +21,7 @@ import com.netflix.atlas.client.interpreter.Queries;
 import com.netflix.atlas.client.interpreter.Query;
 import com.netflix.config.DynamicBooleanProperty;
 import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
 import com.netflix.config.DynamicPropertyFactory;
 import com.netflix.config.DynamicStringProperty;
 import org.slf4j.Logger;
@@ -32,7 +33,7 @@ import java.util.concurrent.atomic.AtomicReference;
 /**
  * A {@code PluginConfig} driven by {@link com.netflix.config.DynamicProperty} properties.
  */
-public class DynamicPluginConfig implements PluginConfig {
+public class DynamicPluginConfig implements ExtendedPluginConfig {
     private static final Logger LOGGER = LoggerFactory.getLogger(DynamicPluginConfig.class);
     private static final DynamicPropertyFactory PROP_FACTORY = DynamicPropertyFactory.getInstance();
 
@@ -52,8 +53,32 @@ public class DynamicPluginConfig implements PluginConfig {
             new QueryProperty(PREFIX + "filterExpr", "level,DEBUG,:eq,:not");
     private static final DynamicIntProperty PUSH_QUEUE_SIZE =
             PROP_FACTORY.getIntProperty(PREFIX + "pushQueueSize", 1000);
+    private static final DynamicLongProperty PUSH_QUEUE_MAX_BYTES =
+            PROP_FACTORY.getLongProperty(PREFIX + "pushQueueMaxBytes", 32L * 1024 * 1024);
+    private static final DynamicLongProperty PUSH_LINGER_MS =
+            PROP_FACTORY.getLongProperty(PREFIX + "pushLingerMs", 100L);
+    private static final DynamicIntProperty PUSH_WORKERS =
+            PROP_FACTORY.getIntProperty(PREFIX + "pushWorkers", 2);
+    private static final DynamicIntProperty ASYNC_QUEUE_SIZE =
+            PROP_FACTORY.getIntProperty(PREFIX + "asyncQueueSize", 16);
     private static final DynamicIntProperty BATCH_SIZE =
             PROP_FACTORY.getIntProperty(PREFIX + "batchSize", 10000);
+    private static final DynamicIntProperty BATCH_MAX_BYTES =
+            PROP_FACTORY.getIntProperty(PREFIX + "batchMaxBytes", 512 * 1024);
+    private static final DynamicLongProperty CONFIG_CACHE_SIZE =
+            PROP_FACTORY.getLongProperty(PREFIX + "configCacheSize", 100000L);
+    private static final DynamicIntProperty MAX_CONNECTIONS =
+            PROP_FACTORY.getIntProperty(PREFIX + "maxConnections", 10);
+    private static final DynamicLongProperty IDLE_CONNECTION_TIMEOUT_MS =
+            PROP_FACTORY.getLongProperty(PREFIX + "idleConnectionTimeoutMs", 60000L);
+    private static final DynamicIntProperty MAX_IN_FLIGHT =
+            PROP_FACTORY.getIntProperty(PREFIX + "maxInFlight", 10);
+    private static final DynamicLongProperty TARGET_LATENCY_MS =
+            PROP_FACTORY.getLongProperty(PREFIX + "targetLatencyMs", 2000L);
+    private static final DynamicIntProperty EVAL_PARALLELISM =
+            PROP_FACTORY.getIntProperty(PREFIX + "evalParallelism", 0);
+    private static final DynamicIntProperty EVAL_PARALLEL_THRESHOLD =
+            PROP_FACTORY.getIntProperty(PREFIX + "evalParallelThreshold", 50000);
     private static final RollupConfigProperty ROLLUP_CONFIG =
             new RollupConfigProperty(PREFIX + "rollupConfig", null);
     private static final DynamicStringProperty PUBLISH_URI =
@@ -85,6 +110,26 @@ public class DynamicPluginConfig implements PluginConfig {
         return PUSH_QUEUE_SIZE.get();
     }
 
+    @Override
+    public long getPushQueueMaxBytes() {
+        return PUSH_QUEUE_MAX_BYTES.get();
+    }
+
+    @Override
+    public long getPushLingerMs() {
+        return PUSH_LINGER_MS.get();
+    }
+
+    @Override
+    public int getPushWorkers() {
+        return PUSH_WORKERS.get();
+    }
+
+    @Override
+    public int getAsyncQueueSize() {
+        return ASYNC_QUEUE_SIZE.get();
+    }
+
     @Override
     public String getPublishUri() {
         return PUBLISH_URI.get();
@@ -95,6 +140,36 @@ public class DynamicPluginConfig implements PluginConfig {
         return BATCH_SIZE.get();
     }
 
+    @Override
+    public int getBatchMaxBytes() {
+        return BATCH_MAX_BYTES.get();
+    }
+
+    @Override
+    public long getConfigCacheSize() {
+        return CONFIG_CACHE_SIZE.get();
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return MAX_CONNECTIONS.get();
+    }
+
+    @Override
+    public long getIdleConnectionTimeoutMs() {
+        return IDLE_CONNECTION_TIMEOUT_MS.get();
+    }
+
+    @Override
+    public int getMaxInFlight() {
+        return MAX_IN_FLIGHT.get();
+    }
+
+    @Override
+    public long getTargetLatencyMs() {
+        return TARGET_LATENCY_MS.get();
+    }
+
     @Override
     public Callable<Query> getFilterExpr() {
         return FILTER_EXPR;
@@ -110,6 +185,16 @@ public class DynamicPluginConfig implements PluginConfig {
         return CW_NAMESPACE.get();
     }
 
+    @Override
+    public int getEvalParallelism() {
+        return EVAL_PARALLELISM.get();
+    }
+
+    @Override
+    public int getEvalParallelThreshold() {
+        return EVAL_PARALLEL_THRESHOLD.get();
+    }
+
     @Override
     public RollupConfig getRollupConfig() {
         return ROLLUP_CONFIG.get();
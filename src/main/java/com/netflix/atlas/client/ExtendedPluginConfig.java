@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+/**
+ * Tuning options for the publish pipeline that are not part of the public
+ * {@link PluginConfig}. Configs supplied by users are adapted with
+ * {@link PluginConfigs#extend(PluginConfig)}, which reads these options from the dynamic
+ * properties.
+ */
+interface ExtendedPluginConfig extends PluginConfig {
+    /**
+     * Max estimated size in bytes of the uncompressed metrics waiting to be pushed. When a new
+     * push does not fit, the oldest pending pushes are dropped. {@link #getPushQueueSize()}
+     * is a safety limit on the number of pushes for many empty pushes.
+     */
+    long getPushQueueMaxBytes();
+
+    /**
+     * Number of milliseconds to wait for more pushes after the first one before sending, so
+     * that pushes arriving close together are merged into the same requests.
+     */
+    long getPushLingerMs();
+
+    /**
+     * Number of threads sending the pushed metrics. Each thread has its own queue, and a
+     * series is always sent by the same thread. Only read when the observers are created.
+     */
+    int getPushWorkers();
+
+    /**
+     * Number of updates that can be pending for the asynchronous observers. The updates are
+     * kept in a ring shared by the observers, an observer that falls further behind drops the
+     * oldest updates. Only read when the observers are created.
+     */
+    int getAsyncQueueSize();
+
+    /**
+     * Target size in bytes of the compressed payload sent in one batch. Batches are closed
+     * when either this size or the batch size is reached.
+     */
+    int getBatchMaxBytes();
+
+    /**
+     * Max number of entries for each of the caches of rewritten configs (sanitized names,
+     * data source types). Only read when the observers are created.
+     */
+    long getConfigCacheSize();
+
+    /**
+     * Maximum number of connections to keep open to each publish server.
+     */
+    int getMaxConnections();
+
+    /**
+     * Number of milliseconds a pooled connection can remain idle before it gets closed.
+     */
+    long getIdleConnectionTimeoutMs();
+
+    /**
+     * Max number of batches being sent concurrently. The actual limit adapts between 1
+     * and this value based on the latency and throttling responses from the server.
+     */
+    int getMaxInFlight();
+
+    /**
+     * Latency in milliseconds above which a request is treated as a sign of overload
+     * and the number of concurrent requests is reduced.
+     */
+    long getTargetLatencyMs();
+
+    /**
+     * Number of threads used to evaluate the cloudwatch expression. If 0 the expression is
+     * evaluated on the observer thread.
+     */
+    int getEvalParallelism();
+
+    /**
+     * Number of metrics per task when evaluating in parallel. Inputs with at most this many
+     * metrics are evaluated on the calling thread.
+     */
+    int getEvalParallelThreshold();
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar batch of metrics with number values. Each distinct config is stored once and
+ * rows refer to it by an id that is local to the batch. Timestamps and values are kept in
+ * primitive arrays, so building, rolling up and encoding a batch does not need any per metric
+ * objects. Batches are immutable once built and slices share the underlying arrays.
+ */
+final class MetricBatch {
+    private final MonitorConfig[] configs;
+    private final int[] ids;
+    private final long[] timestamps;
+    private final double[] values;
+    private final int offset;
+    private final int size;
+
+    private MetricBatch(MonitorConfig[] configs, int[] ids, long[] timestamps, double[] values,
+                        int offset, int size) {
+        this.configs = configs;
+        this.ids = ids;
+        this.timestamps = timestamps;
+        this.values = values;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    /**
+     * Create a batch from a list of metrics. Metrics without a number value are ignored.
+     */
+    static MetricBatch from(List<Metric> metrics) {
+        final Builder builder = new Builder(metrics.size());
+        for (Metric m : metrics) {
+            if (m.hasNumberValue()) {
+                builder.add(m.getConfig(), m.getTimestamp(), m.getNumberValue().doubleValue());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Create a batch with the rows of all the batches in order. Configs that are shared by
+     * several of the batches are stored once in the result.
+     */
+    static MetricBatch concat(List<MetricBatch> batches) {
+        if (batches.size() == 1) {
+            return batches.get(0);
+        }
+        int total = 0;
+        for (MetricBatch batch : batches) {
+            total += batch.size;
+        }
+        final Builder builder = new Builder(total);
+        for (MetricBatch batch : batches) {
+            for (int i = 0; i < batch.size; ++i) {
+                builder.add(batch.config(i), batch.timestamp(i), batch.value(i));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Number of rows in the batch.
+     */
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Number of distinct configs referenced by the batch. For slices this includes the configs
+     * of the rows that are outside of the slice.
+     */
+    int numConfigs() {
+        return configs.length;
+    }
+
+    /**
+     * Return the config with the given id.
+     */
+    MonitorConfig configForId(int id) {
+        return configs[id];
+    }
+
+    /**
+     * Return the config id for row {@code i}.
+     */
+    int id(int i) {
+        return ids[offset + i];
+    }
+
+    /**
+     * Return the config for row {@code i}.
+     */
+    MonitorConfig config(int i) {
+        return configs[ids[offset + i]];
+    }
+
+    /**
+     * Return the timestamp for row {@code i}.
+     */
+    long timestamp(int i) {
+        return timestamps[offset + i];
+    }
+
+    /**
+     * Return the value for row {@code i}.
+     */
+    double value(int i) {
+        return values[offset + i];
+    }
+
+    /**
+     * Return a view of the rows from {@code start} (inclusive) to {@code end} (exclusive).
+     */
+    MetricBatch slice(int start, int end) {
+        Preconditions.checkPositionIndexes(start, end, size);
+        return new MetricBatch(configs, ids, timestamps, values, offset + start, end - start);
+    }
+
+    /**
+     * Return a batch with the same rows where the configs have been transformed with the
+     * function. The function is applied once per distinct config rather than once per row.
+     */
+    MetricBatch mapConfigs(Function<MonitorConfig, MonitorConfig> f) {
+        final MonitorConfig[] mapped = new MonitorConfig[configs.length];
+        for (int i = 0; i < configs.length; ++i) {
+            mapped[i] = f.apply(configs[i]);
+        }
+        return new MetricBatch(mapped, ids, timestamps, values, offset, size);
+    }
+
+    /**
+     * Convert the batch to a list of metrics.
+     */
+    List<Metric> toList() {
+        final List<Metric> metrics = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; ++i) {
+            metrics.add(new Metric(config(i), timestamp(i), value(i)));
+        }
+        return metrics;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof MetricBatch)) {
+            return false;
+        }
+        final MetricBatch other = (MetricBatch) obj;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; ++i) {
+            if (!config(i).equals(other.config(i))
+                    || timestamp(i) != other.timestamp(i)
+                    || Double.compare(value(i), other.value(i)) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = size;
+        for (int i = 0; i < size; ++i) {
+            hash = 31 * hash + Objects.hashCode(config(i), timestamp(i), value(i));
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("size", size)
+                .add("numConfigs", configs.length)
+                .toString();
+    }
+
+    /**
+     * Helper for creating a batch.
+     */
+    static final class Builder {
+        private final ConfigIndex index;
+        private int[] ids;
+        private long[] timestamps;
+        private double[] values;
+        private int size;
+
+        /**
+         * Create a builder with room for the expected number of rows.
+         */
+        Builder(int expectedSize) {
+            index = new ConfigIndex(expectedSize);
+            ids = new int[expectedSize];
+            timestamps = new long[expectedSize];
+            values = new double[expectedSize];
+        }
+
+        /**
+         * Add a row to the batch.
+         */
+        Builder add(MonitorConfig config, long timestamp, double value) {
+            if (size == ids.length) {
+                final int capacity = Math.max(1, size * 2);
+                ids = Arrays.copyOf(ids, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            ids[size] = index.intern(config);
+            timestamps[size] = timestamp;
+            values[size] = value;
+            ++size;
+            return this;
+        }
+
+        /**
+         * Number of rows added so far.
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Create the batch. The builder should not be used after calling this method.
+         */
+        MetricBatch build() {
+            return new MetricBatch(index.toArray(), ids, timestamps, values, 0, size);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.ForwardingCache;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Maps;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Bounded cache for the result of transforming a config. The same series are reported on
+ * every polling cycle, so caching lets the transformed configs be reused instead of rebuilt
+ * for every metric. The transform must be a pure function of the config. The hit, miss and
+ * eviction counts for the cache are exported. The monitor is registered once per name and
+ * reports the stats of the most recently created cache with that name, so replacing the
+ * owner of a cache does not register a new monitor or keep the old cache reachable.
+ */
+final class MonitorConfigCache implements Function<MonitorConfig, MonitorConfig> {
+    private static final ConcurrentMap<String, AtomicReference<Cache<MonitorConfig, MonitorConfig>>> CURRENT =
+            Maps.newConcurrentMap();
+
+    private final LoadingCache<MonitorConfig, MonitorConfig> cache;
+
+    /**
+     * Create a new cache.
+     *
+     * @param name      Name used for the monitor of the cache stats.
+     * @param maxSize   Max number of configs to keep.
+     * @param transform Function used to compute the value for configs that are not cached.
+     */
+    MonitorConfigCache(String name, long maxSize, Function<MonitorConfig, MonitorConfig> transform) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build(CacheLoader.from(transform));
+        register(name, cache);
+    }
+
+    /**
+     * Make the cache the current one for the name, registering the monitor for the name the
+     * first time.
+     */
+    private static void register(String name, Cache<MonitorConfig, MonitorConfig> cache) {
+        final AtomicReference<Cache<MonitorConfig, MonitorConfig>> ref = new AtomicReference<>(cache);
+        final AtomicReference<Cache<MonitorConfig, MonitorConfig>> prev = CURRENT.putIfAbsent(name, ref);
+        if (prev != null) {
+            prev.set(cache);
+            return;
+        }
+        final Cache<MonitorConfig, MonitorConfig> current = new ForwardingCache<MonitorConfig, MonitorConfig>() {
+            @Override
+            protected Cache<MonitorConfig, MonitorConfig> delegate() {
+                return ref.get();
+            }
+        };
+        DefaultMonitorRegistry.getInstance().register(Monitors.newCacheMonitor(name, current));
+    }
+
+    /**
+     * Return the cache whose stats are reported under the given name.
+     */
+    @VisibleForTesting
+    static Cache<MonitorConfig, MonitorConfig> current(String name) {
+        final AtomicReference<Cache<MonitorConfig, MonitorConfig>> ref = CURRENT.get(name);
+        return ref == null ? null : ref.get();
+    }
+
+    @Override
+    public MonitorConfig apply(MonitorConfig config) {
+        return cache.getUnchecked(config);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.netflix.atlas.client.interpreter.Query;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Helper functions for working with {@link PluginConfig}.
+ */
+final class PluginConfigs {
+    private PluginConfigs() {
+    }
+
+    /**
+     * Return a config with the tuning options of {@link ExtendedPluginConfig}. If the config
+     * does not provide them, the public options are read from the config and the tuning
+     * options from the dynamic properties used by {@link DynamicPluginConfig}.
+     */
+    static ExtendedPluginConfig extend(PluginConfig config) {
+        if (config instanceof ExtendedPluginConfig) {
+            return (ExtendedPluginConfig) config;
+        }
+        return new DefaultTuning(config);
+    }
+
+    private static final class DefaultTuning implements ExtendedPluginConfig {
+        private final PluginConfig config;
+        private final ExtendedPluginConfig tuning = new DynamicPluginConfig();
+
+        DefaultTuning(PluginConfig config) {
+            this.config = config;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return config.isEnabled();
+        }
+
+        @Override
+        public boolean isFileMetricsEnabled() {
+            return config.isFileMetricsEnabled();
+        }
+
+        @Override
+        public String getMetricsDir() {
+            return config.getMetricsDir();
+        }
+
+        @Override
+        public boolean isCloudwatchEnabled() {
+            return config.isCloudwatchEnabled();
+        }
+
+        @Override
+        public int getPushQueueSize() {
+            return config.getPushQueueSize();
+        }
+
+        @Override
+        public String getPublishUri() {
+            return config.getPublishUri();
+        }
+
+        @Override
+        public int getBatchSize() {
+            return config.getBatchSize();
+        }
+
+        @Override
+        public Callable<Query> getFilterExpr() {
+            return config.getFilterExpr();
+        }
+
+        @Override
+        public String getCloudwatchExpr() {
+            return config.getCloudwatchExpr();
+        }
+
+        @Override
+        public String getCloudwatchNamespace() {
+            return config.getCloudwatchNamespace();
+        }
+
+        @Override
+        public RollupConfig getRollupConfig() {
+            return config.getRollupConfig();
+        }
+
+        @Override
+        public boolean isDropByDefault() {
+            return config.isDropByDefault();
+        }
+
+        @Override
+        public long getPushQueueMaxBytes() {
+            return tuning.getPushQueueMaxBytes();
+        }
+
+        @Override
+        public long getPushLingerMs() {
+            return tuning.getPushLingerMs();
+        }
+
+        @Override
+        public int getPushWorkers() {
+            return tuning.getPushWorkers();
+        }
+
+        @Override
+        public int getAsyncQueueSize() {
+            return tuning.getAsyncQueueSize();
+        }
+
+        @Override
+        public int getBatchMaxBytes() {
+            return tuning.getBatchMaxBytes();
+        }
+
+        @Override
+        public long getConfigCacheSize() {
+            return tuning.getConfigCacheSize();
+        }
+
+        @Override
+        public int getMaxConnections() {
+            return tuning.getMaxConnections();
+        }
+
+        @Override
+        public long getIdleConnectionTimeoutMs() {
+            return tuning.getIdleConnectionTimeoutMs();
+        }
+
+        @Override
+        public int getMaxInFlight() {
+            return tuning.getMaxInFlight();
+        }
+
+        @Override
+        public long getTargetLatencyMs() {
+            return tuning.getTargetLatencyMs();
+        }
+
+        @Override
+        public int getEvalParallelism() {
+            return tuning.getEvalParallelism();
+        }
+
+        @Override
+        public int getEvalParallelThreshold() {
+            return tuning.getEvalParallelThreshold();
+        }
+    }
+}
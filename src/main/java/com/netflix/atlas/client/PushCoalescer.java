@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AtomicDouble;
+import com.netflix.servo.monitor.BucketConfig;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Timer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue for the pushed metrics that merges the pending pushes so they can be sent together.
+ * After the first push arrives the consumer lingers for a while, or until enough bytes are
+ * pending to fill a request, so a burst of small pushes results in a few large requests
+ * instead of one request per push. The queue is bounded by the estimated size of the pending
+ * metrics rather than by the number of pushes. When a push does not fit, the oldest pending
+ * pushes are dropped to make room for it.
+ */
+final class PushCoalescer {
+    // upper bounds of the buckets for the time a push waits in the queue
+    private static final long[] QUEUE_WAIT_BUCKETS_MS = {
+        10L, 50L, 100L, 250L, 500L, 1000L, 2500L, 5000L, 10000L, 30000L
+    };
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pushed = lock.newCondition();
+    private final Deque<Entry> pending = new ArrayDeque<>();
+    private long pendingBytes;
+
+    // the metrics are tagged with the lane so the queues of a pool do not share a gauge
+    private final Counter numPushes;
+    private final Counter numSends;
+    private final AtomicDouble coalesceRatio;
+    private final Timer lingerTimer;
+    private final Timer queueWaitTimer;
+
+    /**
+     * Create a new queue.
+     *
+     * @param lane Index of the lane the queue is used for, used to tag the metrics.
+     */
+    PushCoalescer(int lane) {
+        final String laneTag = Integer.toString(lane);
+        numPushes = Servo.getCounter("atlas.push.count", "lane", laneTag);
+        numSends = Servo.getCounter("atlas.push.sends", "lane", laneTag);
+        coalesceRatio = Servo.getNumberGauge(MonitorConfig.builder("atlas.push.coalesceRatio")
+                .withTag("lane", laneTag).build(), new AtomicDouble());
+        lingerTimer = Servo.getTimer("atlas.push", "phase", "linger", "lane", laneTag);
+        queueWaitTimer = Servo.getBucketTimer(
+                MonitorConfig.builder("atlas.push")
+                        .withTag("phase", "queueWait")
+                        .withTag("lane", laneTag)
+                        .build(),
+                new BucketConfig.Builder()
+                        .withTimeUnit(TimeUnit.MILLISECONDS)
+                        .withBuckets(QUEUE_WAIT_BUCKETS_MS)
+                        .build());
+    }
+
+    /**
+     * Add a push to the queue.
+     *
+     * @param batch    Metrics that were pushed.
+     * @param bytes    Estimated size of the metrics.
+     * @param maxBytes Max number of bytes that can be pending. A push larger than the bound
+     *                 is still accepted if nothing else is pending.
+     * @param maxSize  Max number of pushes that can be pending.
+     * @return Number of metrics that were dropped to make room for the push.
+     */
+    int offer(MetricBatch batch, long bytes, long maxBytes, int maxSize) {
+        Preconditions.checkArgument(bytes >= 0L, "bytes must be >= 0");
+        numPushes.increment();
+        int dropped = 0;
+        lock.lock();
+        try {
+            while (!pending.isEmpty()
+                    && (pendingBytes + bytes > maxBytes || pending.size() >= maxSize)) {
+                final Entry oldest = pending.removeFirst();
+                pendingBytes -= oldest.bytes;
+                dropped += oldest.batch.size();
+            }
+            pending.addLast(new Entry(batch, bytes, System.nanoTime()));
+            pendingBytes += bytes;
+            pushed.signal();
+        } finally {
+            lock.unlock();
+        }
+        return dropped;
+    }
+
+    /**
+     * Wait for at least one push, then for the linger time to expire or the flush size to be
+     * reached, and remove all the pending pushes. The result is a single batch with the rows
+     * of all the removed pushes in the order they were added.
+     *
+     * @param lingerMs   Max number of milliseconds to wait for more pushes after the first one.
+     * @param flushBytes Number of pending bytes that ends the wait early.
+     */
+    MetricBatch take(long lingerMs, long flushBytes) throws InterruptedException {
+        final List<MetricBatch> batches = Lists.newArrayList();
+        final List<Long> enqueued = Lists.newArrayList();
+        final long oldestNanos;
+        lock.lockInterruptibly();
+        try {
+            while (pending.isEmpty()) {
+                pushed.await();
+            }
+            oldestNanos = pending.peekFirst().enqueuedNanos;
+            final long deadline = oldestNanos + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+            long remaining = deadline - System.nanoTime();
+            while (remaining > 0L && pendingBytes < flushBytes) {
+                remaining = pushed.awaitNanos(remaining);
+            }
+            for (Entry entry : pending) {
+                batches.add(entry.batch);
+                enqueued.add(entry.enqueuedNanos);
+            }
+            pending.clear();
+            pendingBytes = 0L;
+        } finally {
+            lock.unlock();
+        }
+        final long now = System.nanoTime();
+        lingerTimer.record(now - oldestNanos, TimeUnit.NANOSECONDS);
+        for (long t : enqueued) {
+            queueWaitTimer.record(now - t, TimeUnit.NANOSECONDS);
+        }
+        numSends.increment();
+        coalesceRatio.set(batches.size());
+        return MetricBatch.concat(batches);
+    }
+
+    /**
+     * Number of pushes that are pending.
+     */
+    int size() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Estimated size in bytes of the pending pushes.
+     */
+    long bytes() {
+        lock.lock();
+        try {
+            return pendingBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("size", size())
+                .add("bytes", bytes())
+                .toString();
+    }
+
+    private static final class Entry {
+        private final MetricBatch batch;
+        private final long bytes;
+        private final long enqueuedNanos;
+
+        Entry(MetricBatch batch, long bytes, long enqueuedNanos) {
+            this.batch = batch;
+            this.bytes = bytes;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.netflix.atlas.client;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.netflix.atlas.client.util.NetflixTagKey;
@@ -29,20 +31,45 @@ import com.netflix.servo.tag.TagList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the metrics pushed by the application so they can be included in the next update of
+ * the observers. Pushed metrics are aggregated per series: only the latest value is kept for
+ * each config, gauges report their last value and counters carry a cumulative value that is
+ * converted to a rate using the value of the previous interval. The memory used is bounded by
+ * the number of series rather than the number of push calls.
+ *
+ * <p>Saving only takes the shared side of a read/write lock, so application threads pushing
+ * metrics do not contend with each other. {@link #reset()} takes the exclusive side while it
+ * swaps the buffer with an empty one, so a save cannot write into a retired buffer.</p>
+ */
 final class PushManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(PushManager.class);
     private static final long POLLING_INTERVAL_MS = Pollers.getPollingIntervals().get(0);
-    private static final Tag RATE_TAG = DataSourceType.RATE;
     private static final List<Metric> EMPTY = ImmutableList.of();
+    private static final int MAX_CONFIG_CACHE_SIZE = 100000;
 
     private final Counter pushedCount = Servo.getCounter("metrics.pushed");
-    private final CounterCache cache = new CounterCache();
-    private List<Metric> pushedMetrics = Lists.newArrayList();
-    private List<Metric> lastPushed = pushedMetrics;
+    private final AtomicInteger seriesCount = Servo.getNumberGauge("metrics.pushedSeries", new AtomicInteger(0));
+    private final CounterRateCache cache = new CounterRateCache(POLLING_INTERVAL_MS);
+    private final Function<MonitorConfig, MonitorConfig> stripCommonTags = new MonitorConfigCache(
+            "pushConfigCache", MAX_CONFIG_CACHE_SIZE, new StripCommonTags(NetflixTagKey.tagsFromEnvironment()));
+    private final AtomicReference<ConcurrentMap<MonitorConfig, Metric>> pushedMetrics =
+            new AtomicReference<>(newBuffer());
+    private volatile ConcurrentMap<MonitorConfig, Metric> lastPushed = pushedMetrics.get();
+    private final ReadWriteLock bufferLock = new ReentrantReadWriteLock();
+
+    private static ConcurrentMap<MonitorConfig, Metric> newBuffer() {
+        return new ConcurrentHashMap<>();
+    }
 
     private boolean isCounter(Metric m) {
         final TagList tags = m.getConfig().getTags();
@@ -50,140 +77,122 @@ final class PushManager {
         return "COUNTER".equals(value);
     }
 
-    private MonitorConfig toRateConfig(MonitorConfig config) {
-        return config.withAdditionalTag(RATE_TAG);
-    }
-
     private List<Metric> countersToRate(List<Metric> metrics) {
-        List<Metric> newMetrics = Lists.newArrayList();
+        cache.advance(System.currentTimeMillis());
+        List<Metric> newMetrics = Lists.newArrayListWithCapacity(metrics.size());
         for (Metric m : metrics) {
-            if (isCounter(m)) {
-                final MonitorConfig rateConfig = toRateConfig(m.getConfig());
-                final CounterValue prev = cache.get(rateConfig);
-                if (prev != null) {
-                    final double rate = prev.computeRate(m);
-                    newMetrics.add(new Metric(rateConfig, m.getTimestamp(), rate));
-                } else {
-                    CounterValue current = new CounterValue(m);
-                    cache.put(rateConfig, current);
-                    final double delta = m.getNumberValue().doubleValue();
-                    final double rate = current.computeRate(POLLING_INTERVAL_MS, delta);
-                    newMetrics.add(new Metric(rateConfig, m.getTimestamp(), rate));
-                }
-            } else {
-                newMetrics.add(m);
-            }
+            newMetrics.add(isCounter(m) ? cache.toRate(m) : m);
         }
+        LOGGER.debug("Counter rates: {}", cache);
         return newMetrics;
     }
 
-    synchronized List<Metric> getMetrics() {
-        return pushedMetrics;
+    List<Metric> getMetrics() {
+        return ImmutableList.copyOf(pushedMetrics.get().values());
     }
 
+    // the counter cache is not thread safe
     synchronized List<Metric> getMetricsAsRates() {
-        if (pushedMetrics.isEmpty()) {
+        final List<Metric> pushed = getMetrics();
+        if (pushed.isEmpty()) {
             return EMPTY;
         } else {
-            List<Metric> metrics = countersToRate(pushedMetrics);
+            List<Metric> metrics = countersToRate(pushed);
             LOGGER.debug("Got {} metrics from our push queue", metrics.size());
             return metrics;
         }
     }
 
-    private List<Metric> stripCommonTags(List<Metric> metrics) {
-        Map<String, String> commonTags = NetflixTagKey.tagsFromEnvironment();
-        List<Metric> result = Lists.newArrayListWithCapacity(metrics.size());
+    void save(List<Metric> rawMetrics) {
+        pushedCount.increment(rawMetrics.size());
+        final List<Metric> stripped = Lists.newArrayListWithCapacity(rawMetrics.size());
+        for (Metric metric : rawMetrics) {
+            final MonitorConfig config = stripCommonTags.apply(metric.getConfig());
+            stripped.add(new Metric(config, metric.getTimestamp(), metric.getValue()));
+        }
 
-        for (Metric metric : metrics) {
-            TagList origTags = metric.getConfig().getTags();
-            MonitorConfig.Builder builder = MonitorConfig.builder(metric.getConfig().getName());
-            for (Tag tag : origTags) {
-                if (!commonTags.containsKey(tag.getKey())) {
-                    builder.withTag(tag);
-                }
+        // the buffer cannot be swapped while the shared lock is held
+        final int size;
+        bufferLock.readLock().lock();
+        try {
+            final ConcurrentMap<MonitorConfig, Metric> buffer = pushedMetrics.get();
+            for (Metric metric : stripped) {
+                update(buffer, metric);
             }
-            Metric noCommonTags = new Metric(builder.build(), metric.getTimestamp(), metric.getValue());
-            result.add(noCommonTags);
+            size = buffer.size();
+        } finally {
+            bufferLock.readLock().unlock();
         }
-        return result;
+        seriesCount.set(size);
+        LOGGER.debug("Got {} metrics pushed. Current size of push buffer: {}",
+                rawMetrics.size(), size);
     }
 
-    synchronized void save(List<Metric> rawMetrics) {
-        pushedCount.increment(rawMetrics.size());
-        pushedMetrics.addAll(stripCommonTags(rawMetrics));
-        LOGGER.debug("Got {} metrics pushed. Current size of push buffer: {}",
-                rawMetrics.size(), pushedMetrics.size());
+    /**
+     * Store the metric unless the buffer already has a more recent value for the series.
+     * Keeping the latest sample is also right for counters: the value of a pushed counter is
+     * its cumulative count, so the latest sample already includes the increments of the
+     * earlier ones. The delta is computed against the previous interval when converting to a
+     * rate, and summing the samples would count the same increments several times.
+     */
+    private static void update(ConcurrentMap<MonitorConfig, Metric> buffer, Metric metric) {
+        final MonitorConfig config = metric.getConfig();
+        Metric prev = buffer.putIfAbsent(config, metric);
+        while (prev != null && prev.getTimestamp() <= metric.getTimestamp()) {
+            if (buffer.replace(config, prev, metric)) {
+                return;
+            }
+            prev = buffer.putIfAbsent(config, metric);
+        }
+    }
+
+    void reset() {
+        bufferLock.writeLock().lock();
+        try {
+            lastPushed = pushedMetrics.getAndSet(newBuffer());
+        } finally {
+            bufferLock.writeLock().unlock();
+        }
     }
 
-    synchronized void reset() {
-        lastPushed = pushedMetrics;
-        pushedMetrics = Lists.newArrayList();
+    List<Metric> getLatestPushedMetrics() {
+        final ConcurrentMap<MonitorConfig, Metric> current = pushedMetrics.get();
+        final ConcurrentMap<MonitorConfig, Metric> last = lastPushed;
+        LOGGER.debug("pushedMetrics = {} - lastPushed = {}", current.size(), last.size());
+        return ImmutableList.copyOf(current.isEmpty() ? last.values() : current.values());
     }
 
-    synchronized List<Metric> getLatestPushedMetrics() {
-        LOGGER.debug("pushedMetrics = {} - lastPushed = {}", pushedMetrics.size(), lastPushed.size());
-        return pushedMetrics.isEmpty() ? lastPushed : pushedMetrics;
+    /**
+     * Get the metrics of the buffer retired by the last {@link #reset()}.
+     */
+    @VisibleForTesting
+    List<Metric> getLastPushedMetrics() {
+        return ImmutableList.copyOf(lastPushed.values());
     }
 
     synchronized List<Metric> getLatestPushedMetricsAsRates() {
         return countersToRate(getLatestPushedMetrics());
     }
 
-    private static class CounterCache extends LinkedHashMap<MonitorConfig, CounterValue> {
-        //CHECKSTYLE IGNORE MagicNumber
-        CounterCache() {
-            super(16, 0.75f, true);
+    /**
+     * Removes the tags that are common to all metrics of the instance.
+     */
+    private static final class StripCommonTags implements Function<MonitorConfig, MonitorConfig> {
+        private final Map<String, String> commonTags;
+
+        StripCommonTags(Map<String, String> commonTags) {
+            this.commonTags = commonTags;
         }
-        //CHECKSTYLE END IGNORE
 
         @Override
-        protected boolean removeEldestEntry(Map.Entry<MonitorConfig, CounterValue> eldest) {
-            final long now = System.currentTimeMillis();
-            final long lastMod = eldest.getValue().getTimestamp();
-            final boolean expired = (now - lastMod > (2 * POLLING_INTERVAL_MS));
-            if (expired) {
-                LOGGER.debug("heartbeat interval exceeded, expiring {}", eldest.getKey());
+        public MonitorConfig apply(MonitorConfig config) {
+            MonitorConfig.Builder builder = MonitorConfig.builder(config.getName());
+            for (Tag tag : config.getTags()) {
+                if (!commonTags.containsKey(tag.getKey())) {
+                    builder.withTag(tag);
+                }
             }
-            return expired;
-        }
-    }
-
-    private static class CounterValue {
-        private long timestamp;
-        private double value;
-
-        public CounterValue(long timestamp, double value) {
-            this.timestamp = timestamp;
-            this.value = value;
-        }
-
-        public CounterValue(Metric m) {
-            this(m.getTimestamp(), m.getNumberValue().doubleValue());
+            return builder.build();
         }
-
-        public long getTimestamp() {
-            return timestamp;
-        }
-
-        public double computeRate(Metric m) {
-            final long currentTimestamp = m.getTimestamp();
-            final double currentValue = m.getNumberValue().doubleValue();
-
-            final long durationMillis = currentTimestamp - timestamp;
-            final double delta = currentValue - value;
-
-            timestamp = currentTimestamp;
-            value = currentValue;
-
-            return computeRate(durationMillis, delta);
-        }
-
-        public double computeRate(long durationMillis, double delta) {
-            final double millisPerSecond = 1000.0;
-            final double duration = durationMillis / millisPerSecond;
-            return (duration <= 0.0 || delta <= 0.0) ? 0.0 : delta / duration;
-        }
-
     }
 }
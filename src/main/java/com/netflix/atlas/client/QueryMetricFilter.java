@@ -16,18 +16,29 @@
 
 package com.netflix.atlas.client;
 
+import com.netflix.atlas.client.interpreter.Queries;
 import com.netflix.atlas.client.interpreter.Query;
+import com.netflix.atlas.client.interpreter.TagView;
 import com.netflix.servo.monitor.MonitorConfig;
 import com.netflix.servo.publish.MetricFilter;
 
 import java.util.concurrent.Callable;
 
 /**
- * A filter to restrict the set of metrics that are polled.
+ * A filter to restrict the set of metrics that are polled. The query is optimized and its top
+ * level or clauses are indexed, so only the clauses that could match a metric are evaluated.
+ * The index is rebuilt when the callable returns a query that is not equal to the previous
+ * one. The tags are read through a {@link TagView}, so the keys checked by several clauses
+ * are only looked up once.
  */
 public class QueryMetricFilter implements MetricFilter {
 
     private final Callable<Query> query;
+    private volatile IndexedQuery current;
+
+    // the view only caches the values for the config being checked, it is reused to avoid
+    // allocating a new one for every metric
+    private final ThreadLocal<TagView> tagViews = new ThreadLocal<>();
 
     /**
      * Creates a {@link MetricFilter} using the given query.
@@ -39,9 +50,44 @@ public class QueryMetricFilter implements MetricFilter {
     @Override
     public boolean matches(MonitorConfig config) {
         try {
-            return query.call().apply(config);
+            return Queries.matches(getIndexedQuery(query.call()), tagView(config));
         } catch (Exception e) {
             return false;
         }
     }
+
+    private TagView tagView(MonitorConfig config) {
+        TagView tags = tagViews.get();
+        if (tags == null) {
+            tags = new TagView(config);
+            tagViews.set(tags);
+        } else {
+            tags.reset(config);
+        }
+        return tags;
+    }
+
+    /**
+     * Return the indexed version of the query. The index is kept while the callable returns an
+     * equal query, the identity check avoids comparing the whole query when it returns the
+     * same instance every time.
+     */
+    private Query getIndexedQuery(Query q) {
+        IndexedQuery indexed = current;
+        if (indexed == null || (indexed.source != q && !indexed.source.equals(q))) {
+            indexed = new IndexedQuery(q, Queries.indexed(Queries.optimize(q)));
+            current = indexed;
+        }
+        return indexed.query;
+    }
+
+    private static final class IndexedQuery {
+        private final Query source;
+        private final Query query;
+
+        IndexedQuery(Query source, Query query) {
+            this.source = source;
+            this.query = query;
+        }
+    }
 }
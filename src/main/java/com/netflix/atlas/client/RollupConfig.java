@@ -19,13 +19,13 @@ package com.netflix.atlas.client;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import com.netflix.atlas.client.interpreter.FalseQuery;
 import com.netflix.atlas.client.interpreter.Queries;
 import com.netflix.atlas.client.interpreter.Query;
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.map.ObjectMapper;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -36,12 +36,23 @@ import java.util.List;
 public class RollupConfig {
     private static final ObjectMapper MAPPER = new ObjectMapper();
     private final List<Rule> rules;
+    private final Query filter;
 
     /**
      * Create a rollup config from a list of {@link Rule}.
      */
     public RollupConfig(List<Rule> rules) {
-        this.rules = Preconditions.checkNotNull(rules);
+        // the rules are copied so the filter built from them cannot get out of date
+        this.rules = ImmutableList.copyOf(Preconditions.checkNotNull(rules));
+        this.filter = buildFilter(this.rules);
+    }
+
+    private static Query buildFilter(List<Rule> rules) {
+        final List<Query> queries = new ArrayList<>(rules.size());
+        for (Rule rule : rules) {
+            queries.add(Queries.optimize(rule.getQuery()));
+        }
+        return Queries.anyOf(queries);
     }
 
     /**
@@ -146,24 +157,14 @@ public class RollupConfig {
 
     /**
      * Get a {@link com.netflix.atlas.client.interpreter.Query}
-     * that will match any metrics relevant to this rollup config.
+     * that will match any metrics relevant to this rollup config. The queries of the rules
+     * are optimized and indexed so only the ones that could match a given metric are evaluated.
+     * The query is built once when the config is created.
      *
      * @return An atlas query.
      */
     public Query getFilter() {
-        if (rules.isEmpty()) {
-            return FalseQuery.INSTANCE;
-        }
-        if (rules.size() == 1) {
-            return rules.get(0).getQuery();
-        }
-
-        Query result = rules.get(0).getQuery();
-
-        for (int i = 1; i < rules.size(); ++i) {
-            result = Queries.or(result, rules.get(i).getQuery());
-        }
-        return result;
+        return filter;
     }
 
     /**
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+import com.netflix.atlas.client.interpreter.Queries;
+import com.netflix.atlas.client.interpreter.QueryIndex;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.SmallTagMap;
+import com.netflix.servo.tag.Tag;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link RollupConfig} compiled for matching configs against the rules. The tag sets of the
+ * rules are computed once, and the rule queries are kept in a {@link QueryIndex} so only the
+ * candidate rules are evaluated for a config. The matched rule and the rewritten config are
+ * memoized per input config, so for the series that are seen on every cycle matching is a
+ * single cache lookup.
+ */
+final class RollupEngine {
+    /** Rule index used for configs that do not match any rule. */
+    static final int NO_RULE = -1;
+
+    private final RollupConfig rollupConfig;
+    private final List<RollupConfig.Rule> rules;
+    private final Set<String>[] tagSets;
+    private final QueryIndex<Integer> index;
+    private final LoadingCache<MonitorConfig, Match> matches;
+
+    /**
+     * Compile the rules of a rollup config.
+     *
+     * @param rollupConfig Config to compile.
+     * @param maxMemoSize  Max number of input configs for which the match is memoized.
+     */
+    @SuppressWarnings("unchecked")
+    RollupEngine(RollupConfig rollupConfig, long maxMemoSize) {
+        this.rollupConfig = rollupConfig;
+        this.rules = rollupConfig.getRules();
+
+        tagSets = new Set[rules.size()];
+        final QueryIndex.Builder<Integer> builder = QueryIndex.builder();
+        for (int i = 0; i < rules.size(); ++i) {
+            final RollupConfig.Rule rule = rules.get(i);
+            tagSets[i] = ImmutableSet.copyOf(rule.getTags());
+            builder.add(Queries.optimize(rule.getQuery()), i);
+        }
+        index = builder.build();
+
+        matches = CacheBuilder.newBuilder()
+                .maximumSize(maxMemoSize)
+                .build(new CacheLoader<MonitorConfig, Match>() {
+                    @Override
+                    public Match load(MonitorConfig config) {
+                        return computeMatch(config);
+                    }
+                });
+    }
+
+    /**
+     * The config that was compiled.
+     */
+    RollupConfig getRollupConfig() {
+        return rollupConfig;
+    }
+
+    /**
+     * Return the first rule matching the config along with the rewritten config.
+     */
+    Match match(MonitorConfig config) {
+        return matches.getUnchecked(config);
+    }
+
+    private Match computeMatch(MonitorConfig config) {
+        final Integer i = index.findFirstMatch(config);
+        if (i == null) {
+            return new Match(NO_RULE, config);
+        }
+        final MonitorConfig newConfig = rules.get(i).isKeep()
+                ? keepTags(config, tagSets[i])
+                : dropTags(config, tagSets[i]);
+        return new Match(i, newConfig);
+    }
+
+    private static MonitorConfig keepTags(MonitorConfig monitorConfig, Set<String> tags) {
+        boolean droppedSomeTags = false;
+
+        SmallTagMap.Builder newTags = SmallTagMap.builder();
+        for (Tag tag : monitorConfig.getTags()) {
+            String tagName = tag.getKey();
+            if (tags.contains(tagName)) {
+                newTags.add(tag);
+            } else {
+                droppedSomeTags = true;
+            }
+        }
+
+        if (droppedSomeTags) {
+            return MonitorConfig.builder(monitorConfig.getName())
+                    .withTags(newTags)
+                    .withPublishingPolicy(monitorConfig.getPublishingPolicy())
+                    .build();
+        } else {
+            // avoid creating extra objects if we don't have to
+            return monitorConfig;
+        }
+    }
+
+    private static MonitorConfig dropTags(MonitorConfig monitorConfig, Set<String> tagsToDrop) {
+        SmallTagMap.Builder newTags = SmallTagMap.builder();
+        boolean droppedSomeTags = false;
+        for (Tag tag : monitorConfig.getTags()) {
+            String tagName = tag.getKey();
+            if (!tagsToDrop.contains(tagName)) {
+                newTags.add(tag);
+            } else {
+                droppedSomeTags = true;
+            }
+        }
+
+        if (droppedSomeTags) {
+            return MonitorConfig.builder(monitorConfig.getName())
+                    .withTags(newTags)
+                    .withPublishingPolicy(monitorConfig.getPublishingPolicy())
+                    .build();
+        } else {
+            // avoid creating extra objects if we don't have to
+            return monitorConfig;
+        }
+    }
+
+    /**
+     * Result of matching a config against the rules.
+     */
+    static final class Match {
+        private final int rule;
+        private final MonitorConfig config;
+
+        Match(int rule, MonitorConfig config) {
+            this.rule = rule;
+            this.config = config;
+        }
+
+        /**
+         * Index of the matching rule, or {@link #NO_RULE} if no rule matched.
+         */
+        int getRule() {
+            return rule;
+        }
+
+        /**
+         * Config after applying the tag rewrites of the rule.
+         */
+        MonitorConfig getConfig() {
+            return config;
+        }
+    }
+}
@@ -16,32 +16,31 @@
 
 package com.netflix.atlas.client;
 
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.netflix.atlas.client.interpreter.Query;
 import com.netflix.servo.Metric;
 import com.netflix.servo.monitor.Counter;
 import com.netflix.servo.monitor.MonitorConfig;
 import com.netflix.servo.monitor.Monitors;
-import com.netflix.servo.tag.SmallTagMap;
-import com.netflix.servo.tag.Tag;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * A rollup policy.
  */
 public class RollupPolicy {
     private static final Logger LOGGER = LoggerFactory.getLogger(RollupPolicy.class);
+    private static final long DEFAULT_MEMO_SIZE = 100000L;
+    private static final int INITIAL_REDUCED_SIZE = 1024;
     private final RollupConfigurator configurator;
+    private final long maxMemoSize;
+    private volatile RollupEngine engine;
 
     private final Counter metricsRaw = Monitors.newCounter("metricsRaw");
     private final Counter metricsProcessed = Monitors.newCounter("metricsProcessed");
+    private final Counter numCompiled = Monitors.newCounter("rollupCompiled");
 
     /**
      * Creates a new instance of a rollup policy with a given configurator.
@@ -49,205 +48,185 @@ public class RollupPolicy {
      *                     the configuration for this policy.
      */
     public RollupPolicy(RollupConfigurator configurator) {
+        this(configurator, DEFAULT_MEMO_SIZE);
+    }
+
+    /**
+     * Creates a new instance of a rollup policy with a given configurator.
+     * @param configurator A {@link RollupConfigurator} used to get
+     *                     the configuration for this policy.
+     * @param maxMemoSize  Max number of configs for which the result of matching
+     *                     the rules is remembered.
+     */
+    public RollupPolicy(RollupConfigurator configurator, long maxMemoSize) {
         this.configurator = configurator;
+        this.maxMemoSize = maxMemoSize;
     }
 
-    private static double sum(List<Metric> values) {
-        double res = 0.0;
-        for (Metric m : values) {
-            res += m.getNumberValue().doubleValue(); // NaN?
+    /**
+     * Get the compiled engine for the config, the rules are only compiled again
+     * when the configurator returns a different config.
+     */
+    private RollupEngine getEngine(RollupConfig rollupConfig) {
+        RollupEngine current = engine;
+        if (current == null || current.getRollupConfig() != rollupConfig) {
+            current = new RollupEngine(rollupConfig, maxMemoSize);
+            engine = current;
+            numCompiled.increment();
         }
-        return res;
+        return current;
     }
 
-    private static double avg(List<Metric> values) {
-        return sum(values) / values.size(); // rewrite if we do ops aware of NaN
+    /**
+     * Apply this policy to a given {@link java.util.List} of metrics.
+     * @param metrics {@link java.util.List} of metrics. Metrics without a number value
+     *                are ignored.
+     * @return The resulting metrics after applying this policy.
+     */
+    public List<Metric> rollup(List<Metric> metrics) {
+        return rollup(MetricBatch.from(metrics)).toList();
     }
 
-    private static double count(List<Metric> values) {
-        return values.size();
-    }
+    /**
+     * Apply this policy to a batch of metrics.
+     * @param metrics Batch of metrics.
+     * @return The resulting metrics after applying this policy.
+     */
+    MetricBatch rollup(MetricBatch metrics) {
+        RollupConfig rollupConfig = configurator.getRollupConfig();
 
-    private static double min(List<Metric> values) {
-        double res = Double.MAX_VALUE;
-        for (Metric m : values) {
-            res = Math.min(m.getNumberValue().doubleValue(), res);
+        final int size = metrics.size();
+        metricsRaw.increment(size);
+        if (rollupConfig == null) {
+            // no policy, therefore raw == processed
+            LOGGER.debug("No rollup policy - no change for {} metrics", size);
+            metricsProcessed.increment(size);
+            return metrics;
+        } else {
+            LOGGER.debug("Applying policy {} to {} metrics", rollupConfig, size);
         }
-        return Double.compare(res, Double.MAX_VALUE) == 0 ? Double.NaN : res;
-    }
 
-    private static double max(List<Metric> values) {
-        double res = Double.MIN_VALUE;
-        for (Metric m : values) {
-            res = Math.max(m.getNumberValue().doubleValue(), res);
+        // match the rules once per distinct config, rules.size() is used for unmatched configs
+        final RollupEngine rollupEngine = getEngine(rollupConfig);
+        List<RollupConfig.Rule> rules = rollupConfig.getRules();
+        final int unmatched = rules.size();
+        final int numConfigs = metrics.numConfigs();
+        final int[] ruleForConfig = new int[numConfigs];
+        final MonitorConfig[] newConfigs = new MonitorConfig[numConfigs];
+        for (int id = 0; id < numConfigs; ++id) {
+            final RollupEngine.Match match = rollupEngine.match(metrics.configForId(id));
+            ruleForConfig[id] = (match.getRule() == RollupEngine.NO_RULE) ? unmatched : match.getRule();
+            newConfigs[id] = match.getConfig();
         }
-        return Double.compare(res, Double.MIN_VALUE) == 0 ? Double.NaN : res;
-    }
-
-    private MonitorConfig keepTags(MonitorConfig monitorConfig, Set<String> tags) {
-        boolean droppedSomeTags = false;
 
-        SmallTagMap.Builder newTags = SmallTagMap.builder();
-        for (Tag tag : monitorConfig.getTags()) {
-            String tagName = tag.getKey();
-            if (tags.contains(tagName)) {
-                newTags.add(tag);
-            } else {
-                droppedSomeTags = true;
+        // initialize with the unmatched metrics, the matched ones are folded into the
+        // accumulator for their rule as we go
+        final MetricBatch.Builder reduced = new MetricBatch.Builder(Math.min(size, INITIAL_REDUCED_SIZE));
+        final RuleAccumulator[] accumulators = new RuleAccumulator[rules.size()];
+        for (int i = 0; i < size; ++i) {
+            final int id = metrics.id(i);
+            final int rule = ruleForConfig[id];
+            if (rule == unmatched) {
+                if (!configurator.isDropByDefault()) {
+                    reduced.add(metrics.config(i), metrics.timestamp(i), metrics.value(i));
+                }
+                continue;
             }
-        }
 
-        if (droppedSomeTags) {
-            return MonitorConfig.builder(monitorConfig.getName())
-                    .withTags(newTags)
-                    .withPublishingPolicy(monitorConfig.getPublishingPolicy())
-                    .build();
-        } else {
-            // avoid creating extra objects if we don't have to
-            return monitorConfig;
+            final RollupConfig.Aggr aggr = rules.get(rule).getAggr();
+            if (aggr == RollupConfig.Aggr.DROP) {
+                continue;
+            }
+            if (accumulators[rule] == null) {
+                accumulators[rule] = new RuleAccumulator(aggr);
+            }
+            accumulators[rule].add(newConfigs[id], metrics.timestamp(i), metrics.value(i));
         }
-    }
 
-    private MonitorConfig dropTags(MonitorConfig monitorConfig, Set<String> tagsToDrop) {
-        SmallTagMap.Builder newTags = SmallTagMap.builder();
-        boolean droppedSomeTags = false;
-        for (Tag tag : monitorConfig.getTags()) {
-            String tagName = tag.getKey();
-            if (!tagsToDrop.contains(tagName)) {
-                newTags.add(tag);
-            } else {
-                droppedSomeTags = true;
+        // reduce
+        for (RuleAccumulator accumulator : accumulators) {
+            if (accumulator != null) {
+                accumulator.addTo(reduced);
             }
         }
 
-        if (droppedSomeTags) {
-            return MonitorConfig.builder(monitorConfig.getName())
-                    .withTags(newTags)
-                    .withPublishingPolicy(monitorConfig.getPublishingPolicy())
-                    .build();
-        } else {
-            // avoid creating extra objects if we don't have to
-            return monitorConfig;
-        }
+        metricsProcessed.increment(reduced.size());
+        LOGGER.debug("Got {} input metrics - reduced to {} metrics", size, reduced.size());
+        return reduced.build();
     }
 
-    private Metric aggregate(RollupConfig.Aggr aggr, List<Metric> values) {
-        assert (!values.isEmpty());
-        if (aggr == RollupConfig.Aggr.DROP) {
-            return null;
-        }
-
-        double res;
-        switch (aggr) {
-            case SUM:
-                res = sum(values);
-                break;
-            case AVG:
-                res = avg(values);
-                break;
-            case COUNT:
-                res = count(values);
-                break;
-            case MAX:
-                res = max(values);
-                break;
-            case MIN:
-                res = min(values);
-                break;
-            default:
-                throw new IllegalArgumentException("Unknown aggregate: " + aggr);
-        }
-
-        final Metric sample = values.get(0);
-        return new Metric(sample.getConfig(), sample.getTimestamp(), res);
+    Query getFilter() {
+        return configurator.getRollupConfig().getFilter();
     }
 
     /**
-     * Apply this policy to a given {@link java.util.List} of metrics.
-     * @param metrics {@link java.util.List} of metrics.
-     * @return The resulting metrics after applying this policy.
+     * Folds the values for each group of a rule into primitive accumulators, so the values
+     * never need to be stored. Groups keep the timestamp of the first value that was seen.
+     * Not thread safe.
      */
-    public List<Metric> rollup(List<Metric> metrics) {
-        RollupConfig rollupConfig = configurator.getRollupConfig();
+    private static final class RuleAccumulator {
+        private static final int INITIAL_CAPACITY = 16;
 
-        metricsRaw.increment(metrics.size());
-        if (rollupConfig == null) {
-            // no policy, therefore raw == processed
-            LOGGER.debug("No rollup policy - no change for {} metrics", metrics.size());
-            metricsProcessed.increment(metrics.size());
-            return metrics;
-        } else {
-            LOGGER.debug("Applying policy {} to {} metrics", rollupConfig, metrics.size());
-        }
+        private final RollupConfig.Aggr aggr;
+        private final ConfigIndex groups = new ConfigIndex(INITIAL_CAPACITY);
+        private long[] timestamps = new long[INITIAL_CAPACITY];
+        private double[] values = new double[INITIAL_CAPACITY];
+        private int[] counts = new int[INITIAL_CAPACITY];
 
-        List<RollupConfig.Rule> rules = rollupConfig.getRules();
-        @SuppressWarnings("unchecked") List<Metric>[] metricsRules = new List[rules.size() + 1];
-        // metricRules[rules.size()] will contain unmatched metrics
-        for (int i = 0; i <= rules.size(); ++i) {
-            metricsRules[i] = Lists.newArrayList();
+        RuleAccumulator(RollupConfig.Aggr aggr) {
+            this.aggr = aggr;
         }
 
-        for (Metric metric : metrics) {
-            // we only look at metrics with number values
-            if (!metric.hasNumberValue()) {
-                continue;
+        void add(MonitorConfig config, long timestamp, double value) {
+            final int numGroups = groups.size();
+            final int group = groups.intern(config);
+            if (group == numGroups) {
+                if (group == values.length) {
+                    final int capacity = group * 2;
+                    timestamps = Arrays.copyOf(timestamps, capacity);
+                    values = Arrays.copyOf(values, capacity);
+                    counts = Arrays.copyOf(counts, capacity);
+                }
+                timestamps[group] = timestamp;
+                values[group] = (aggr == RollupConfig.Aggr.SUM || aggr == RollupConfig.Aggr.AVG)
+                        ? 0.0 : value;
             }
 
-            boolean matched = false;
-            for (int i = 0; i < rules.size(); i++) {
-                RollupConfig.Rule rule = rules.get(i);
-                Set<String> tags = ImmutableSet.copyOf(rule.getTags());
-                MonitorConfig metricConfig = metric.getConfig();
-                if (rule.getQuery().apply(metricConfig)) {
-                    MonitorConfig newConfig = rule.isKeep()
-                            ? keepTags(metricConfig, tags)
-                            : dropTags(metricConfig, tags);
-                    // only create a new metric if we got a different config
-                    Metric newMetric = newConfig == metricConfig ? metric
-                            : new Metric(newConfig, metric.getTimestamp(), metric.getValue());
-                    metricsRules[i].add(newMetric);
-                    matched = true;
+            switch (aggr) {
+                case SUM:
+                case AVG:
+                    values[group] += value; // NaN?
                     break;
-                }
-            }
-            if (!matched && !configurator.isDropByDefault()) {
-                metricsRules[rules.size()].add(metric);
+                case MAX:
+                    values[group] = Math.max(values[group], value);
+                    break;
+                case MIN:
+                    values[group] = Math.min(values[group], value);
+                    break;
+                case COUNT:
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown aggregate: " + aggr);
             }
+            ++counts[group];
         }
 
-        // initialize with the unmatched metrics
-        List<Metric> reduced = Lists.newArrayList(metricsRules[rules.size()]);
-
-        // process the list of metrics matched by each rule
-        for (int ruleIdx = 0; ruleIdx < rules.size(); ruleIdx++) {
-            List<Metric> mapped = metricsRules[ruleIdx];
-            Map<MonitorConfig, List<Metric>> configMetrics = Maps.newHashMap();
-            for (Metric m : mapped) {
-                List<Metric> listMetrics = configMetrics.get(m.getConfig());
-                if (listMetrics == null) {
-                    listMetrics = Lists.newArrayList();
-                    configMetrics.put(m.getConfig(), listMetrics);
-                }
-                listMetrics.add(m);
-            }
-
-
-            // reduce
-            for (Map.Entry<MonitorConfig, List<Metric>> entry : configMetrics.entrySet()) {
-                Metric aggregated = aggregate(rules.get(ruleIdx).getAggr(), entry.getValue());
-                if (aggregated != null) {
-                    reduced.add(aggregated);
+        void addTo(MetricBatch.Builder builder) {
+            for (int group = 0; group < groups.size(); ++group) {
+                final double value;
+                switch (aggr) {
+                    case AVG:
+                        value = values[group] / counts[group]; // rewrite if we do ops aware of NaN
+                        break;
+                    case COUNT:
+                        value = counts[group];
+                        break;
+                    default:
+                        value = values[group];
+                        break;
                 }
+                builder.add(groups.get(group), timestamps[group], value);
             }
         }
-
-        metricsProcessed.increment(reduced.size());
-        LOGGER.debug("Got {} input metrics - reduced to {} metrics",
-                metrics.size(), reduced.size());
-        return reduced;
-    }
-
-    Query getFilter() {
-        return configurator.getRollupConfig().getFilter();
     }
 }
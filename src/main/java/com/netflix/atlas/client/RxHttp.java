@@ -16,47 +16,49 @@
 
 package com.netflix.atlas.client;
 
-import com.google.common.base.Throwables;
+import com.google.common.annotations.VisibleForTesting;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.util.Clock;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelOption;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.timeout.ReadTimeoutException;
 import io.reactivex.netty.RxNetty;
+import io.reactivex.netty.metrics.HttpClientMetricEventsListener;
 import io.reactivex.netty.pipeline.PipelineConfigurators;
 import io.reactivex.netty.pipeline.ssl.DefaultFactories;
 import io.reactivex.netty.protocol.http.client.HttpClient;
 import io.reactivex.netty.protocol.http.client.HttpClientBuilder;
 import io.reactivex.netty.protocol.http.client.HttpClientRequest;
 import io.reactivex.netty.protocol.http.client.HttpClientResponse;
-import org.codehaus.jackson.JsonEncoding;
-import org.codehaus.jackson.JsonFactory;
-import org.codehaus.jackson.JsonGenerator;
-import org.codehaus.jackson.smile.SmileFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Observable;
-import rx.Subscription;
 import rx.exceptions.CompositeException;
 import rx.functions.Action0;
 import rx.functions.Action1;
+import rx.functions.Func0;
 import rx.functions.Func1;
-import rx.schedulers.Schedulers;
+import rx.subscriptions.CompositeSubscription;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.URI;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPOutputStream;
 
 final class RxHttp {
-    private static final JsonFactory SMILE_FACTORY = new SmileFactory();
     private static final Logger LOGGER = LoggerFactory.getLogger(RxHttp.class);
     private static final long RETRY_DELAY_MS = 500;
     private static final double NUM_RETRIES = 3;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
     private static final int HTTP_TOO_MANY = 429;
     private static final int HTTP_SERVICE_UNAVAILABLE = 503;
     private static final int HTTPS_PORT = 443;
@@ -68,27 +70,90 @@ final class RxHttp {
     private static final int CONNECT_TIMEOUT_MS = 2000;
     private static final String USER_AGENT = "AtlasRxHttp";
 
-    private RxHttp() {
+    private final ExtendedPluginConfig config;
+    private final ConcurrentMap<Server, PooledClient> clients = new ConcurrentHashMap<>();
+    private final SmileEncoder encoder;
+    private final AimdLimiter limiter;
+    private final Clock clock;
+
+    /**
+     * Create a new instance. Connections to each server are pooled and reused across
+     * requests using the limits specified in the given config.
+     */
+    RxHttp(PluginConfig config) {
+        this(config, Clock.WALL, new SmileEncoder());
     }
 
-    static rx.Observable<HttpClientResponse<ByteBuf>>
-    postSmile(String uriStr, JsonPayload payload) {
-        byte[] entity = toByteArray(SMILE_FACTORY, payload);
-        URI uri = URI.create(uriStr);
-        return post(uri, "application/x-jackson-smile", entity);
+    /**
+     * Create a new instance using the clock to decide if a retry can complete before the
+     * deadline and the encoder for the smile payloads.
+     */
+    @VisibleForTesting
+    RxHttp(PluginConfig config, Clock clock, SmileEncoder encoder) {
+        this.config = PluginConfigs.extend(config);
+        this.limiter = new AimdLimiter(this.config);
+        this.clock = clock;
+        this.encoder = encoder;
     }
 
-    static byte[] toByteArray(JsonFactory factory, JsonPayload payload) {
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            JsonGenerator gen = factory.createJsonGenerator(baos, JsonEncoding.UTF8);
-            payload.toJson(gen);
-            gen.close();
-            baos.close();
-            return baos.toByteArray();
-        } catch (IOException e) {
-            throw Throwables.propagate(e);
-        }
+    rx.Observable<HttpClientResponse<ByteBuf>>
+    postSmile(final String uriStr, final JsonPayload payload, final long deadlineMs) {
+        // encoding is deferred until subscription so the buffer only lives while the
+        // request is being processed
+        return Observable.defer(new Func0<Observable<HttpClientResponse<ByteBuf>>>() {
+            @Override
+            public Observable<HttpClientResponse<ByteBuf>> call() {
+                final ByteBuf entity = encoder.encode(payload);
+                final Action0 release = releaseOnce(entity);
+                final URI uri = URI.create(uriStr);
+                final HttpClientRequest<ByteBuf> req = HttpClientRequest.createPost(relative(uri))
+                        .withHeader(HttpHeaders.Names.CONTENT_TYPE, "application/x-jackson-smile")
+                        .withHeader(HttpHeaders.Names.CONTENT_ENCODING, HttpHeaders.Values.GZIP)
+                        .withHeader(HttpHeaders.Names.CONTENT_LENGTH,
+                                String.valueOf(entity.readableBytes()))
+                        .withContentSource(Observable.defer(new Func0<Observable<ByteBuf>>() {
+                            @Override
+                            public Observable<ByteBuf> call() {
+                                // every attempt writes (and releases) its own view of the payload
+                                return Observable.just(entity.duplicate().retain());
+                            }
+                        }));
+                return execute(getServerForUri(uri), req, deadlineMs)
+                        .finallyDo(release)
+                        .doOnUnsubscribe(release);
+            }
+        });
+    }
+
+    private static Action0 releaseOnce(final ByteBuf buf) {
+        return onceAction(new Action0() {
+            @Override
+            public void call() {
+                buf.release();
+            }
+        });
+    }
+
+    /**
+     * Wrap an action so that only the first invocation has any effect.
+     */
+    private static Action0 onceAction(final Action0 action) {
+        final AtomicBoolean invoked = new AtomicBoolean(false);
+        return new Action0() {
+            @Override
+            public void call() {
+                if (invoked.compareAndSet(false, true)) {
+                    action.call();
+                }
+            }
+        };
+    }
+
+    /**
+     * Ratio between the compressed and raw sizes of the last encoded payload.
+     */
+    double getCompressionRatio() {
+        return encoder.getCompressionRatio();
     }
 
     private static void logErr(String prefix, Throwable e, int sent, int total) {
@@ -108,43 +173,66 @@ final class RxHttp {
         }
     }
 
-    static int sendAll(Iterable<Observable<Integer>> batches, final int numMetrics, long timeoutMillis) {
+    /**
+     * Send all batches, blocking until they have completed or the deadline expires. Batches are
+     * started in order and the number in flight at any time is bounded by the adaptive limiter.
+     *
+     * @return Number of metrics that were sent.
+     */
+    int sendAll(Iterable<Observable<Integer>> batches, final int numMetrics, long deadline) {
         final AtomicBoolean err = new AtomicBoolean(false);
         final AtomicInteger updated = new AtomicInteger(0);
-        LOGGER.debug("Got {} ms to send {} metrics", timeoutMillis, numMetrics);
+        LOGGER.debug("Got {} ms to send {} metrics", deadline - System.currentTimeMillis(), numMetrics);
+        final CompositeSubscription subscriptions = new CompositeSubscription();
         try {
-            final CountDownLatch completed = new CountDownLatch(1);
-            final Subscription s = Observable.mergeDelayError(Observable.from(batches))
-                    .timeout(timeoutMillis, TimeUnit.MILLISECONDS)
-                    .subscribeOn(Schedulers.immediate())
-                    .subscribe(new Action1<Integer>() {
-                        @Override
-                        public void call(Integer batchSize) {
-                            updated.addAndGet(batchSize);
-                        }
-                    }, new Action1<Throwable>() {
-                        @Override
-                        public void call(Throwable exc) {
-                            logErr("onError caught", exc, updated.get(), numMetrics);
-                            err.set(true);
-                            completed.countDown();
-                        }
-                    }, new Action0() {
-                        @Override
-                        public void call() {
-                            completed.countDown();
-                        }
-                    });
+            final Semaphore completed = new Semaphore(0);
+            int started = 0;
+            for (Observable<Integer> batch : batches) {
+                if (!limiter.acquire(deadline)) {
+                    err.set(true);
+                    LOGGER.warn("Timed out waiting to send batch. {}/{} sent", updated.get(), numMetrics);
+                    break;
+                }
+                final Action0 done = onceAction(new Action0() {
+                    @Override
+                    public void call() {
+                        limiter.release();
+                        completed.release();
+                    }
+                });
+                ++started;
+                subscriptions.add(batch
+                        .finallyDo(done)
+                        .doOnUnsubscribe(done)
+                        .subscribe(new Action1<Integer>() {
+                            @Override
+                            public void call(Integer batchSize) {
+                                updated.addAndGet(batchSize);
+                            }
+                        }, new Action1<Throwable>() {
+                            @Override
+                            public void call(Throwable exc) {
+                                logErr("onError caught", exc, updated.get(), numMetrics);
+                                err.set(true);
+                            }
+                        }));
+            }
+            final long remaining = Math.max(0L, deadline - System.currentTimeMillis());
             try {
-                completed.await(timeoutMillis, TimeUnit.MILLISECONDS);
+                if (!completed.tryAcquire(started, remaining, TimeUnit.MILLISECONDS)) {
+                    err.set(true);
+                    LOGGER.warn("Timed out sending metrics. {}/{} sent", updated.get(), numMetrics);
+                }
             } catch (InterruptedException interrupted) {
                 err.set(true);
-                s.unsubscribe();
-                LOGGER.warn("Timed out sending metrics. {}/{} sent", updated.get(), numMetrics);
+                LOGGER.warn("Interrupted sending metrics. {}/{} sent", updated.get(), numMetrics);
             }
         } catch (Exception e) {
             err.set(true);
             logErr("Unexpected ", e, updated.get(), numMetrics);
+        } finally {
+            // cancels any batches that are still in flight
+            subscriptions.unsubscribe();
         }
 
         if (updated.get() < numMetrics && !err.get()) {
@@ -197,53 +285,127 @@ final class RxHttp {
         return req;
     }
 
-    /**
-     * Execute an HTTP request.
-     *
-     * @param server Server to send the request to.
-     * @param req    Request to execute.
-     * @return Observable with the response of the request.
-     */
-    private static Observable<HttpClientResponse<ByteBuf>>
-    executeSingle(Server server, HttpClientRequest<ByteBuf> req) {
-        HttpClient.HttpClientConfig config = new HttpClient.HttpClientConfig.Builder()
+    private static HttpClient<ByteBuf, ByteBuf> newClient(Server server, int maxConnections,
+                                                         long idleTimeoutMs) {
+        HttpClient.HttpClientConfig clientConfig = new HttpClient.HttpClientConfig.Builder()
                 .readTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
                 .userAgent(USER_AGENT)
                 .build();
 
-
         HttpClientBuilder<ByteBuf, ByteBuf> builder =
                 RxNetty.<ByteBuf, ByteBuf>newHttpClientBuilder(server.host(), server.port())
                         .pipelineConfigurator(PipelineConfigurators.<ByteBuf, ByteBuf>httpClientConfigurator())
-                        .config(config)
-                        .channelOption(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MS);
+                        .config(clientConfig)
+                        .channelOption(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MS)
+                        .withMaxConnections(maxConnections)
+                        .withIdleConnectionsTimeoutMillis(idleTimeoutMs);
 
         if (server.isSecure()) {
             builder.withSslEngineFactory(DefaultFactories.trustAll());
         }
 
         final HttpClient<ByteBuf, ByteBuf> client = builder.build();
-        return client.submit(req)
-                .doOnNext(new Action1<HttpClientResponse<ByteBuf>>() {
-                    @Override
-                    public void call(HttpClientResponse<ByteBuf> res) {
-                        LOGGER.debug("Got response: {}", res.getStatus().code());
-                    }
-                })
-                .doOnError(new Action1<Throwable>() {
-                    @Override
-                    public void call(Throwable throwable) {
-                        LOGGER.info("Error sending metrics: {}/{}",
-                                throwable.getClass().getSimpleName(),
-                                throwable.getMessage());
-                    }
-                })
-                .doOnTerminate(new Action0() {
+        client.subscribe(new PoolMetricsListener());
+        LOGGER.info("Created connection pool for {} with maxConnections={} idleTimeoutMs={}",
+                server, maxConnections, idleTimeoutMs);
+        return client;
+    }
+
+    /**
+     * Get the pooled client for a given server and register a request on it. The request must
+     * be released with {@link PooledClient#release()} when it is done. A new client is created
+     * the first time a server is used, or when the pool settings in the config have changed.
+     */
+    @VisibleForTesting
+    PooledClient acquireClient(Server server) {
+        while (true) {
+            final PooledClient pooled = getClient(server);
+            if (pooled.acquire()) {
+                return pooled;
+            }
+            // retired between the lookup and the acquire, the replacement is already installed
+        }
+    }
+
+    private PooledClient getClient(Server server) {
+        final int maxConnections = config.getMaxConnections();
+        final long idleTimeoutMs = config.getIdleConnectionTimeoutMs();
+        while (true) {
+            final PooledClient current = clients.get(server);
+            if (current != null && current.hasSettings(maxConnections, idleTimeoutMs)) {
+                return current;
+            }
+
+            final PooledClient fresh = new PooledClient(
+                    newClient(server, maxConnections, idleTimeoutMs), maxConnections, idleTimeoutMs);
+            final boolean installed = (current == null)
+                    ? clients.putIfAbsent(server, fresh) == null
+                    : clients.replace(server, current, fresh);
+            if (installed) {
+                if (current != null) {
+                    // requests in flight on the old pool are allowed to complete
+                    current.retire();
+                }
+                return fresh;
+            }
+            // lost the race against another thread, use the client it installed
+            fresh.retire();
+        }
+    }
+
+    /**
+     * Shutdown all the connection pools. Requests that are in flight are allowed to complete.
+     */
+    void shutdown() {
+        for (PooledClient pooled : clients.values()) {
+            pooled.retire();
+        }
+        clients.clear();
+    }
+
+    /**
+     * Execute an HTTP request.
+     *
+     * @param server Server to send the request to.
+     * @param req    Request to execute.
+     * @return Observable with the response of the request.
+     */
+    private Observable<HttpClientResponse<ByteBuf>>
+    executeSingle(final Server server, final HttpClientRequest<ByteBuf> req) {
+        return Observable.defer(new Func0<Observable<HttpClientResponse<ByteBuf>>>() {
+            @Override
+            public Observable<HttpClientResponse<ByteBuf>> call() {
+                final long start = System.nanoTime();
+                final PooledClient pooled = acquireClient(server);
+                final Action0 release = onceAction(new Action0() {
                     @Override
                     public void call() {
-                        client.shutdown();
+                        pooled.release();
                     }
                 });
+                return pooled.client.submit(req)
+                        .doOnNext(new Action1<HttpClientResponse<ByteBuf>>() {
+                            @Override
+                            public void call(HttpClientResponse<ByteBuf> res) {
+                                final int code = res.getStatus().code();
+                                LOGGER.debug("Got response: {}", code);
+                                limiter.onResponse(start,
+                                        code == HTTP_TOO_MANY || code == HTTP_SERVICE_UNAVAILABLE);
+                            }
+                        })
+                        .doOnError(new Action1<Throwable>() {
+                            @Override
+                            public void call(Throwable throwable) {
+                                LOGGER.info("Error sending metrics: {}/{}",
+                                        throwable.getClass().getSimpleName(),
+                                        throwable.getMessage());
+                                limiter.onResponse(start, true);
+                            }
+                        })
+                        .finallyDo(release)
+                        .doOnUnsubscribe(release);
+            }
+        });
     }
 
     /**
@@ -254,12 +416,12 @@ final class RxHttp {
      * @param entity      Data to send.
      * @return Observable with the response of the request.
      */
-    static Observable<HttpClientResponse<ByteBuf>>
+    Observable<HttpClientResponse<ByteBuf>>
     post(URI uri, String contentType, byte[] entity) {
         Server server = getServerForUri(uri);
         HttpClientRequest<ByteBuf> req = HttpClientRequest.createPost(relative(uri))
                 .withHeader(HttpHeaders.Names.CONTENT_TYPE, contentType);
-        return execute(server, compress(req, entity));
+        return execute(server, compress(req, entity), NO_DEADLINE);
     }
 
     private static long getRetryDelay(HttpClientResponse<ByteBuf> res, long dflt) {
@@ -280,63 +442,234 @@ final class RxHttp {
     /**
      * Execute an HTTP request.
      *
-     * @param server Server to use. The request will be retried a max of 3 times until a successful
-     *               response or a non-retriable error occurs. For status codes 429 and 503 the
-     *               {@code Retry-After} header is honored. Otherwise an exponential back-off will
-     *               be used.
-     * @param req    Request to execute.
+     * @param server     Server to use. The request will be retried a max of 3 times until a
+     *                   successful response or a non-retriable error occurs. For status codes 429
+     *                   and 503 the {@code Retry-After} header is honored. Otherwise a jittered
+     *                   exponential back-off will be used.
+     * @param req        Request to execute.
+     * @param deadlineMs Wall clock time in milliseconds by which the request should be done.
+     *                   Retries that could not complete before the deadline are skipped and the
+     *                   last response or error is returned instead.
      * @return Observable with the response of the request.
      */
-    static Observable<HttpClientResponse<ByteBuf>>
-    execute(final Server server, final HttpClientRequest<ByteBuf> req) {
+    Observable<HttpClientResponse<ByteBuf>>
+    execute(final Server server, final HttpClientRequest<ByteBuf> req, long deadlineMs) {
         req.withHeader(HttpHeaders.Names.ACCEPT_ENCODING, HttpHeaders.Values.GZIP);
+        return attempt(server, req, 1, deadlineMs);
+    }
 
-        final long backoffMillis = RETRY_DELAY_MS;
-        Observable<HttpClientResponse<ByteBuf>> observable = executeSingle(server, req);
-        for (int i = 1; i < NUM_RETRIES; ++i) {
-            final long delay = backoffMillis << (i - 1);
-            observable = observable
-                    .flatMap(new Func1<HttpClientResponse<ByteBuf>, Observable<HttpClientResponse<ByteBuf>>>() {
-                        @Override
-                        public Observable<HttpClientResponse<ByteBuf>> call(HttpClientResponse<ByteBuf> res) {
-                            final int code = res.getStatus().code();
-                            Observable<HttpClientResponse<ByteBuf>> resObs;
-                            if (code == HTTP_TOO_MANY || code == HTTP_SERVICE_UNAVAILABLE) {
-                                final long retryDelay = getRetryDelay(res, delay);
-                                res.getContent().subscribe();
-                                resObs = executeSingle(server, req);
-                                if (retryDelay > 0) {
-                                    resObs = resObs.delaySubscription(retryDelay, TimeUnit.MILLISECONDS);
-                                }
-                            } else if (code >= HTTP_SERVER_ERRRORS) {
-                                res.getContent().subscribe();
-                                resObs = executeSingle(server, req);
-                            } else {
-                                resObs = Observable.just(res);
-                            }
-                            return resObs;
+    private Observable<HttpClientResponse<ByteBuf>>
+    attempt(final Server server, final HttpClientRequest<ByteBuf> req, final int attempt,
+            final long deadlineMs) {
+        final Observable<HttpClientResponse<ByteBuf>> observable = executeSingle(server, req);
+        if (attempt >= NUM_RETRIES) {
+            return observable;
+        }
+
+        final long backoff = getBackoffDelay(attempt);
+        return observable
+                .flatMap(new Func1<HttpClientResponse<ByteBuf>, Observable<HttpClientResponse<ByteBuf>>>() {
+                    @Override
+                    public Observable<HttpClientResponse<ByteBuf>> call(HttpClientResponse<ByteBuf> res) {
+                        final int code = res.getStatus().code();
+                        final String cause;
+                        final long delay;
+                        if (code == HTTP_TOO_MANY || code == HTTP_SERVICE_UNAVAILABLE) {
+                            cause = "throttled";
+                            delay = getRetryDelay(res, backoff);
+                        } else if (code >= HTTP_SERVER_ERRRORS) {
+                            cause = "serverError";
+                            delay = backoff;
+                        } else {
+                            return Observable.just(res);
                         }
-                    })
-                    .onErrorResumeNext(new Func1<Throwable, Observable<? extends HttpClientResponse<ByteBuf>>>() {
-                        @Override
-                        public Observable<? extends HttpClientResponse<ByteBuf>> call(Throwable throwable) {
-                            if (throwable instanceof ConnectException
-                                    || throwable instanceof ReadTimeoutException) {
-                                return executeSingle(server, req);
-                            }
-                            return Observable.error(throwable);
+                        res.getContent().subscribe();
+                        return retry(server, req, attempt, deadlineMs, cause, delay, Observable.just(res));
+                    }
+                })
+                .onErrorResumeNext(new Func1<Throwable, Observable<HttpClientResponse<ByteBuf>>>() {
+                    @Override
+                    public Observable<HttpClientResponse<ByteBuf>> call(Throwable throwable) {
+                        final Observable<HttpClientResponse<ByteBuf>> err = Observable.error(throwable);
+                        if (throwable instanceof ConnectException) {
+                            return retry(server, req, attempt, deadlineMs, "connect", backoff, err);
+                        } else if (throwable instanceof ReadTimeoutException) {
+                            return retry(server, req, attempt, deadlineMs, "readTimeout", backoff, err);
                         }
-                    });
+                        return err;
+                    }
+                });
+    }
+
+    /**
+     * Schedule the next attempt after the delay, or return the fallback if the next attempt
+     * would not be able to complete before the deadline. We assume an attempt takes about the
+     * target latency, anything slower is already treated as a sign of overload.
+     */
+    private Observable<HttpClientResponse<ByteBuf>>
+    retry(Server server, HttpClientRequest<ByteBuf> req, int attempt, long deadlineMs,
+          String cause, long delay, Observable<HttpClientResponse<ByteBuf>> fallback) {
+        if (!shouldRetry(attempt, deadlineMs, cause, delay)) {
+            return fallback;
+        }
+        final Observable<HttpClientResponse<ByteBuf>> next = attempt(server, req, attempt + 1, deadlineMs);
+        return (delay > 0) ? next.delaySubscription(delay, TimeUnit.MILLISECONDS) : next;
+    }
+
+    /**
+     * Return true if a retry after the delay is expected to complete before the deadline. The
+     * decision is counted in {@code rxhttp.retries} or {@code rxhttp.retriesSkipped} tagged
+     * with the cause.
+     */
+    @VisibleForTesting
+    boolean shouldRetry(int attempt, long deadlineMs, String cause, long delay) {
+        final long expectedEnd = clock.now() + delay + config.getTargetLatencyMs();
+        if (expectedEnd > deadlineMs) {
+            LOGGER.debug("Skipping retry {} ({}), not enough time left before the deadline",
+                    attempt, cause);
+            Servo.getCounter("rxhttp.retriesSkipped", "cause", cause).increment();
+            return false;
+        }
+        Servo.getCounter("rxhttp.retries", "cause", cause).increment();
+        return true;
+    }
+
+    /**
+     * Exponential back-off for the given attempt with jitter so that all instances that saw a
+     * failure at the same time do not retry in lock step. The delay is picked uniformly from
+     * the upper half of the exponential delay.
+     */
+    @VisibleForTesting
+    static long getBackoffDelay(int attempt) {
+        final long delay = RETRY_DELAY_MS << (attempt - 1);
+        final long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+
+    /**
+     * A client together with the pool settings that were used to create it. When the settings
+     * change the client is retired: it does not accept new requests and it is shut down once
+     * the requests in flight on it are done.
+     */
+    @VisibleForTesting
+    static final class PooledClient {
+        private final HttpClient<ByteBuf, ByteBuf> client;
+        private final int maxConnections;
+        private final long idleTimeoutMs;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicBoolean shutdown = new AtomicBoolean();
+        private volatile boolean retired;
+
+        PooledClient(HttpClient<ByteBuf, ByteBuf> client, int maxConnections, long idleTimeoutMs) {
+            this.client = client;
+            this.maxConnections = maxConnections;
+            this.idleTimeoutMs = idleTimeoutMs;
+        }
+
+        boolean hasSettings(int maxConns, long idleMs) {
+            return maxConnections == maxConns && idleTimeoutMs == idleMs;
+        }
+
+        /**
+         * Register a request. Returns false if the client has been retired.
+         */
+        boolean acquire() {
+            inFlight.incrementAndGet();
+            if (retired) {
+                release();
+                return false;
+            }
+            return true;
+        }
+
+        void release() {
+            if (inFlight.decrementAndGet() == 0 && retired) {
+                shutdownOnce();
+            }
+        }
+
+        /**
+         * Stop accepting requests and shutdown once the ones in flight are done. Either this
+         * sees the count of a request that was acquired, or the acquire sees the flag.
+         */
+        void retire() {
+            retired = true;
+            if (inFlight.get() == 0) {
+                shutdownOnce();
+            }
         }
 
-        return observable;
+        private void shutdownOnce() {
+            if (shutdown.compareAndSet(false, true)) {
+                LOGGER.info("Shutting down retired connection pool");
+                client.shutdown();
+            }
+        }
+
+        @VisibleForTesting
+        boolean isShutdown() {
+            return shutdown.get();
+        }
     }
 
+    /**
+     * Keeps track of connection pool activity for all clients.
+     */
+    private static class PoolMetricsListener extends HttpClientMetricEventsListener {
+        private static final String NAME = "rxhttp.connections";
+        private static final AtomicInteger OPEN_CONNECTIONS =
+                Servo.getNumberGauge("rxhttp.openConnections", new AtomicInteger(0));
+        private final Counter connectSuccess = Servo.getCounter(NAME, "event", "connect");
+        private final Counter connectFailed = Servo.getCounter(NAME, "event", "connectFailed");
+        private final Counter closed = Servo.getCounter(NAME, "event", "close");
+        private final Counter acquired = Servo.getCounter(NAME, "event", "acquire");
+        private final Counter acquireFailed = Servo.getCounter(NAME, "event", "acquireFailed");
+        private final Counter reused = Servo.getCounter(NAME, "event", "reuse");
+        private final Counter evicted = Servo.getCounter(NAME, "event", "eviction");
+
+        @Override
+        protected void onConnectSuccess(long duration, TimeUnit timeUnit) {
+            connectSuccess.increment();
+            OPEN_CONNECTIONS.incrementAndGet();
+        }
+
+        @Override
+        protected void onConnectFailed(long duration, TimeUnit timeUnit, Throwable throwable) {
+            connectFailed.increment();
+        }
+
+        @Override
+        protected void onConnectionCloseSuccess(long duration, TimeUnit timeUnit) {
+            closed.increment();
+            OPEN_CONNECTIONS.decrementAndGet();
+        }
+
+        @Override
+        protected void onPoolAcquireSuccess(long duration, TimeUnit timeUnit) {
+            acquired.increment();
+        }
+
+        @Override
+        protected void onPoolAcquireFailed(long duration, TimeUnit timeUnit, Throwable throwable) {
+            acquireFailed.increment();
+        }
+
+        @Override
+        protected void onPooledConnectionReuse(long duration, TimeUnit timeUnit) {
+            reused.increment();
+        }
+
+        @Override
+        protected void onPooledConnectionEviction() {
+            evicted.increment();
+        }
+    }
 
     /**
      * Represents a server to try and connect to.
      */
-    private static class Server {
+    static final class Server {
         private final String host;
         private final int port;
         private final boolean secure;
@@ -19,6 +19,8 @@ package com.netflix.atlas.client;
 import com.netflix.servo.DefaultMonitorRegistry;
 import com.netflix.servo.monitor.BasicCounter;
 import com.netflix.servo.monitor.BasicTimer;
+import com.netflix.servo.monitor.BucketConfig;
+import com.netflix.servo.monitor.BucketTimer;
 import com.netflix.servo.monitor.Counter;
 import com.netflix.servo.monitor.MonitorConfig;
 import com.netflix.servo.monitor.NumberGauge;
@@ -32,7 +34,7 @@ import java.util.concurrent.TimeUnit;
 final class Servo {
     private static final ConcurrentMap<MonitorConfig, Counter> COUNTERS = new ConcurrentHashMap<>();
     private static final ConcurrentMap<MonitorConfig, Timer> TIMERS = new ConcurrentHashMap<>();
-    private static final ConcurrentMap<MonitorConfig, NumberGauge> GAUGES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<MonitorConfig, Number> GAUGES = new ConcurrentHashMap<>();
 
     private Servo() {
     }
@@ -85,19 +87,41 @@ final class Servo {
         return getTimer(cfgBuilder.build());
     }
 
+    public static Timer getBucketTimer(MonitorConfig config, BucketConfig buckets) {
+        Timer v = TIMERS.get(config);
+        if (v != null) {
+            return v;
+        } else {
+            // durations are converted to the timer unit before picking the bucket
+            Timer timer = new BucketTimer(config, buckets, buckets.getTimeUnit());
+            Timer prevTimer = TIMERS.putIfAbsent(config, timer);
+            if (prevTimer != null) {
+                return prevTimer;
+            } else {
+                DefaultMonitorRegistry.getInstance().register(timer);
+                return timer;
+            }
+        }
+    }
+
+    /**
+     * Get the number backing the gauge with the given config, registering the gauge if needed.
+     * The {@link NumberGauge} only keeps a weak reference to the number, so the number is kept
+     * here as well. Otherwise it could be collected once the object that first registered the
+     * gauge goes away, and later callers would get a NaN instead of the shared number.
+     */
     @SuppressWarnings("unchecked")
     public static <T extends Number> T getNumberGauge(MonitorConfig config, T number) {
-        NumberGauge v = GAUGES.get(config);
+        Number v = GAUGES.get(config);
         if (v != null) {
-            return (T) v.getValue(0);
+            return (T) v;
         } else {
-            NumberGauge gauge = new NumberGauge(config, number);
-            NumberGauge prev = GAUGES.putIfAbsent(config, gauge);
+            Number prev = GAUGES.putIfAbsent(config, number);
             if (prev != null) {
-                return (T) prev.getValue(0);
+                return (T) prev;
             } else {
-                DefaultMonitorRegistry.getInstance().register(gauge);
-                return (T) gauge.getValue(0);
+                DefaultMonitorRegistry.getInstance().register(new NumberGauge(config, number));
+                return number;
             }
         }
     }
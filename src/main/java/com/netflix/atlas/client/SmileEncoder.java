@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.base.Throwables;
+import com.google.common.io.CountingOutputStream;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Stopwatch;
+import com.netflix.servo.monitor.Timer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.smile.SmileFactory;
+
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes payloads as gzip compressed smile. The generator writes through the deflater
+ * straight into a pooled direct buffer, so no intermediate copies of the payload are made
+ * on the heap.
+ */
+final class SmileEncoder {
+    private static final JsonFactory SMILE_FACTORY = new SmileFactory();
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+    private static final String NAME = "rxhttp.encoder";
+
+    private final ByteBufAllocator allocator;
+    private final Counter payloads = Servo.getCounter(NAME + ".payloads");
+    private final Counter rawBytes = Servo.getCounter(NAME + ".bytes", "type", "raw");
+    private final Counter compressedBytes = Servo.getCounter(NAME + ".bytes", "type", "compressed");
+    private final Counter allocatedBytes = Servo.getCounter(NAME + ".bytes", "type", "allocated");
+    private final Counter encodeErrors = Servo.getCounter(NAME + ".errors");
+    private final Timer encodeTimer = Servo.getTimer("atlas.batch", "phase", "encode");
+    private volatile double compressionRatio = 1.0;
+
+    /**
+     * Create an encoder using the default pooled allocator.
+     */
+    SmileEncoder() {
+        this(PooledByteBufAllocator.DEFAULT);
+    }
+
+    SmileEncoder(ByteBufAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    /**
+     * Encode the payload. The caller owns the returned buffer and is responsible for
+     * releasing it.
+     */
+    ByteBuf encode(JsonPayload payload) {
+        final Stopwatch s = encodeTimer.start();
+        final ByteBuf buf = allocator.directBuffer(INITIAL_CAPACITY);
+        boolean ok = false;
+        try {
+            final CountingOutputStream counting;
+            try (GZIPOutputStream gzip = new GZIPOutputStream(new ByteBufOutputStream(buf))) {
+                counting = new CountingOutputStream(gzip);
+                JsonGenerator gen = SMILE_FACTORY.createJsonGenerator(counting, JsonEncoding.UTF8);
+                payload.toJson(gen);
+                gen.close();
+            }
+            ok = true;
+            record(counting.getCount(), buf);
+            return buf;
+        } catch (IOException e) {
+            encodeErrors.increment();
+            throw Throwables.propagate(e);
+        } finally {
+            s.stop();
+            if (!ok) {
+                buf.release();
+            }
+        }
+    }
+
+    private void record(long raw, ByteBuf buf) {
+        final int compressed = buf.readableBytes();
+        payloads.increment();
+        rawBytes.increment(raw);
+        compressedBytes.increment(compressed);
+        allocatedBytes.increment(buf.capacity());
+        if (raw > 0) {
+            compressionRatio = (double) compressed / raw;
+        }
+    }
+
+    /**
+     * Ratio between the compressed and raw sizes of the last payload that was encoded.
+     */
+    double getCompressionRatio() {
+        return compressionRatio;
+    }
+}
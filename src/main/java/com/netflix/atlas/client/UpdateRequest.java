@@ -18,45 +18,37 @@ package com.netflix.atlas.client;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
-import com.netflix.atlas.client.util.ValidCharacters;
-import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
 import com.netflix.servo.tag.Tag;
 import com.netflix.servo.tag.TagList;
 import org.codehaus.jackson.JsonGenerator;
 
 import java.io.IOException;
-import java.util.List;
 
 class UpdateRequest implements JsonPayload {
     private final TagList tags;
-    private final List<BatchMetric> metrics;
-
-    UpdateRequest(TagList tags, Metric[] metrics, int numMetrics, long step) {
-        Preconditions.checkArgument(metrics.length > 0, "metrics array is empty");
-        Preconditions.checkArgument(numMetrics > 0 && numMetrics <= metrics.length,
-                "numMetrics is empty or out of bounds");
-
-        ImmutableList.Builder<BatchMetric> builder = ImmutableList.builder();
-        for (int i = 0; i < numMetrics; ++i) {
-            Metric m = metrics[i];
-            if (m.hasNumberValue()) {
-                builder.add(new BatchMetric(m, step));
-            }
-        }
+    private final MetricBatch metrics;
+    private final long step;
 
+    UpdateRequest(TagList tags, MetricBatch metrics, long step) {
+        Preconditions.checkArgument(!metrics.isEmpty(), "metrics batch is empty");
         this.tags = tags;
-        this.metrics = builder.build();
+        this.metrics = metrics;
+        this.step = step;
     }
 
     TagList getTags() {
         return tags;
     }
 
-    List<BatchMetric> getMetrics() {
+    MetricBatch getMetrics() {
         return metrics;
     }
 
+    long getStep() {
+        return step;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof UpdateRequest)) {
@@ -64,12 +56,13 @@ class UpdateRequest implements JsonPayload {
         }
         UpdateRequest req = (UpdateRequest) obj;
         return tags.equals(req.getTags())
-                && metrics.equals(req.getMetrics());
+                && metrics.equals(req.getMetrics())
+                && step == req.getStep();
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(tags, metrics);
+        return Objects.hashCode(tags, metrics, step);
     }
 
     @Override
@@ -77,6 +70,7 @@ class UpdateRequest implements JsonPayload {
         return Objects.toStringHelper(this)
                 .add("tags", tags)
                 .add("metrics", metrics)
+                .add("step", step)
                 .toString();
     }
 
@@ -84,22 +78,40 @@ class UpdateRequest implements JsonPayload {
     public void toJson(JsonGenerator gen) throws IOException {
         gen.writeStartObject();
 
-        // common tags
+        // common tags, these are expected to be using the valid character set already
         gen.writeObjectFieldStart("tags");
         for (Tag tag : tags) {
-            gen.writeStringField(
-                    ValidCharacters.toValidCharset(tag.getKey()),
-                    ValidCharacters.toValidCharset(tag.getValue()));
+            gen.writeStringField(tag.getKey(), tag.getValue());
         }
         gen.writeEndObject();
 
         gen.writeArrayFieldStart("metrics");
-        for (BatchMetric m : metrics) {
-            m.toJson(gen);
+        for (int i = 0; i < metrics.size(); ++i) {
+            writeMetric(gen, metrics.config(i), metrics.timestamp(i), metrics.value(i));
         }
         gen.writeEndArray();
 
         gen.writeEndObject();
         gen.flush();
     }
+
+    private void writeMetric(JsonGenerator gen, MonitorConfig config, long start, double value)
+            throws IOException {
+        gen.writeStartObject();
+
+        gen.writeObjectFieldStart("tags");
+        gen.writeStringField("name", config.getName());
+        for (Tag tag : config.getTags()) {
+            gen.writeStringField(tag.getKey(), tag.getValue());
+        }
+        gen.writeEndObject();
+
+        gen.writeNumberField("step", step);
+        gen.writeNumberField("start", start);
+        gen.writeArrayFieldStart("values");
+        gen.writeNumber(value);
+        gen.writeEndArray();
+
+        gen.writeEndObject();
+    }
 }
@@ -17,17 +17,22 @@
 package com.netflix.atlas.client.interpreter;
 
 import com.google.common.base.Preconditions;
+import com.netflix.servo.Metric;
 import com.netflix.servo.monitor.MonitorConfig;
 
+import java.util.List;
+
 /**
  * Base class for Aggregate functions.
  */
 abstract class AbstractAf implements ValueExpression {
     private final Query filter;
+    private final Query optimizedFilter;
     private final String label;
 
     AbstractAf(String function, Query filter) {
         this.filter = Preconditions.checkNotNull(filter);
+        this.optimizedFilter = Queries.optimize(filter);
         this.label = String.format("%s(%s)", Preconditions.checkNotNull(function), filter);
     }
 
@@ -36,6 +41,50 @@ abstract class AbstractAf implements ValueExpression {
         return label;
     }
 
+    /**
+     * The query used to select the metrics that will be aggregated.
+     */
+    Query getFilter() {
+        return filter;
+    }
+
+    /**
+     * Equivalent to the filter, but cheaper to evaluate. See {@link Queries#optimize(Query)}.
+     */
+    Query getOptimizedFilter() {
+        return optimizedFilter;
+    }
+
+    /**
+     * Initial value of the aggregate before any value has been added.
+     */
+    abstract double initial();
+
+    /**
+     * Combine the aggregate with a value. The value is never NaN. This is also used to merge
+     * two aggregates that each have at least one value.
+     */
+    abstract double combine(double aggregate, double v);
+
+    /**
+     * Compute the result from the aggregate and the number of values that were combined,
+     * NaN if there were none.
+     */
+    abstract double result(double aggregate, int count);
+
+    @Override
+    public double apply(List<Metric> updates) {
+        double aggregate = initial();
+        int count = 0;
+        for (Metric m : updates) {
+            if (Utils.hasNumber(m) && matches(m.getConfig())) {
+                aggregate = combine(aggregate, m.getNumberValue().doubleValue());
+                ++count;
+            }
+        }
+        return result(aggregate, count);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -60,7 +109,7 @@ abstract class AbstractAf implements ValueExpression {
     }
 
     protected boolean matches(MonitorConfig config) {
-        return Queries.matches(filter, config);
+        return Queries.matches(optimizedFilter, config);
     }
 
     protected Query withFilter(Query query) {
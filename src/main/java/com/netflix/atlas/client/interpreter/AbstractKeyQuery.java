@@ -22,7 +22,7 @@ import com.netflix.servo.monitor.MonitorConfig;
 /**
  * Base class for queries that perform a match against a tag key or name.
  */
-abstract class AbstractKeyQuery implements Query {
+abstract class AbstractKeyQuery implements TagViewQuery {
 
     /**
      * The key.
@@ -34,15 +34,25 @@ abstract class AbstractKeyQuery implements Query {
      */
     private final boolean isNameQuery;
 
+    /**
+     * Slot of the key in a {@link TagView}.
+     */
+    private final int slot;
+
     public AbstractKeyQuery(String key) {
         this.key = Preconditions.checkNotNull(key);
         isNameQuery = "name".equals(key);
+        slot = TagView.slot(key);
     }
 
     protected String getValue(MonitorConfig config) {
         return isNameQuery ? config.getName() : config.getTags().getValue(key);
     }
 
+    protected String getValue(TagView tags) {
+        return tags.get(slot);
+    }
+
     public String getKey() {
         return key;
     }
@@ -605,8 +605,14 @@ public class AlertVocabulary implements Vocabulary {
             double beta = Double.parseDouble((String) context.getStack().pop());
             double alpha = Double.parseDouble((String) context.getStack().pop());
             int trainingSize = Integer.parseInt((String) context.getStack().pop());
-            ValueExpression a = fromObject(context.getStack().pop());
-            context.getStack().push(new Des(a, trainingSize, alpha, beta));
+            Object o = context.getStack().pop();
+            if (o instanceof ListValueExpression) {
+                context.getStack().push(new ListDes(context,
+                        (ListValueExpression) o, trainingSize, alpha, beta));
+            } else {
+                ValueExpression a = fromObject(o);
+                context.getStack().push(new Des(context, a, trainingSize, alpha, beta));
+            }
         }
     }
 
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.netflix.servo.monitor.MonitorConfig;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query that matches if all of a list of queries match. This is equivalent to a chain of
+ * {@link AndQuery}s, but the queries are evaluated in a single loop in the order given.
+ */
+final class AllQuery implements TagViewQuery {
+    private final List<Query> queries;
+    private final Query[] array;
+
+    AllQuery(List<Query> queries) {
+        Preconditions.checkArgument(queries.size() >= 2);
+        this.queries = ImmutableList.copyOf(queries);
+        this.array = this.queries.toArray(new Query[this.queries.size()]);
+    }
+
+    List<Query> getQueries() {
+        return queries;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(array[0]);
+        for (int i = 1; i < array.length; ++i) {
+            builder.append(',').append(array[i]).append(",:and");
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public boolean apply(Map<String, String> tags) {
+        for (Query q : array) {
+            if (!q.apply(tags)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean apply(MonitorConfig config) {
+        for (Query q : array) {
+            if (!q.apply(config)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean apply(TagView tags) {
+        for (Query q : array) {
+            if (!Queries.matches(q, tags)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null || !(obj instanceof AllQuery)) {
+            return false;
+        }
+        AllQuery query = (AllQuery) obj;
+        return queries.equals(query.queries);
+    }
+
+    @Override
+    public int hashCode() {
+        return queries.hashCode();
+    }
+}
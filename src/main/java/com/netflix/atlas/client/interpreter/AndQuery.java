@@ -22,7 +22,7 @@ import com.netflix.servo.monitor.MonitorConfig;
 
 import java.util.Map;
 
-final class AndQuery implements Query {
+final class AndQuery implements TagViewQuery {
     private final Query q1;
     private final Query q2;
 
@@ -31,6 +31,14 @@ final class AndQuery implements Query {
         this.q2 = Preconditions.checkNotNull(q2);
     }
 
+    Query getQ1() {
+        return q1;
+    }
+
+    Query getQ2() {
+        return q2;
+    }
+
     @Override
     public String toString() {
         return q1 + "," + q2 + ",:and";
@@ -46,6 +54,11 @@ final class AndQuery implements Query {
         return q1.apply(config) && q2.apply(config);
     }
 
+    @Override
+    public boolean apply(TagView tags) {
+        return Queries.matches(q1, tags) && Queries.matches(q2, tags);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null || !(obj instanceof AndQuery)) {
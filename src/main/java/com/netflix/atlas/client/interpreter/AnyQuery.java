@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.netflix.servo.monitor.MonitorConfig;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query that matches if any of a list of queries match. This is equivalent to a chain of
+ * {@link OrQuery}s, but uses a {@link QueryIndex} so only the queries that could match a
+ * given config are evaluated.
+ */
+final class AnyQuery implements TagViewQuery {
+    private final List<Query> queries;
+    private final QueryIndex<Query> index;
+
+    AnyQuery(List<Query> queries) {
+        Preconditions.checkArgument(queries.size() >= 2);
+        this.queries = ImmutableList.copyOf(queries);
+        final QueryIndex.Builder<Query> builder = QueryIndex.builder();
+        for (Query q : this.queries) {
+            builder.add(q, q);
+        }
+        this.index = builder.build();
+    }
+
+    List<Query> getQueries() {
+        return queries;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(queries.get(0));
+        for (int i = 1; i < queries.size(); ++i) {
+            builder.append(',').append(queries.get(i)).append(",:or");
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public boolean apply(Map<String, String> tags) {
+        return index.matchesAny(tags);
+    }
+
+    @Override
+    public boolean apply(MonitorConfig config) {
+        return index.matchesAny(config);
+    }
+
+    @Override
+    public boolean apply(TagView tags) {
+        return index.matchesAny(tags);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null || !(obj instanceof AnyQuery)) {
+            return false;
+        }
+        AnyQuery query = (AnyQuery) obj;
+        return queries.equals(query.queries);
+    }
+
+    @Override
+    public int hashCode() {
+        return queries.hashCode();
+    }
+}
@@ -16,10 +16,6 @@
 
 package com.netflix.atlas.client.interpreter;
 
-import com.netflix.servo.Metric;
-
-import java.util.List;
-
 final class AvgAf extends AbstractAf {
 
     AvgAf(Query filter) {
@@ -27,16 +23,18 @@ final class AvgAf extends AbstractAf {
     }
 
     @Override
-    public double apply(List<Metric> updates) {
-        double total = 0.0;
-        int count = 0;
-        for (Metric m : updates) {
-            if (Utils.hasNumber(m) && matches(m.getConfig())) {
-                total += m.getNumberValue().doubleValue();
-                ++count;
-            }
-        }
-        return count > 0 ? total / count : Double.NaN;
+    double initial() {
+        return 0.0;
+    }
+
+    @Override
+    double combine(double aggregate, double v) {
+        return aggregate + v;
+    }
+
+    @Override
+    double result(double aggregate, int count) {
+        return count > 0 ? aggregate / count : Double.NaN;
     }
 
     @Override
@@ -18,6 +18,7 @@ package com.netflix.atlas.client.interpreter;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import com.netflix.servo.Metric;
 
@@ -30,7 +31,7 @@ import java.util.Map;
  * a map from keys to labeled results. It omits the result
  * if the key is not present in both group-by expressions.
  */
-final class ByByRelOp implements ListValueExpression {
+final class ByByRelOp implements ListValueExpression, CompositeExpression<Map<List<String>, LabeledResult>> {
     private final ListValueExpression a;
     private final ListValueExpression b;
     private final BinOp op;
@@ -76,8 +77,18 @@ final class ByByRelOp implements ListValueExpression {
 
     @Override
     public Map<List<String>, LabeledResult> apply(List<Metric> updates) {
-        Map<List<String>, LabeledResult> aResults = a.apply(updates);
-        Map<List<String>, LabeledResult> bResults = b.apply(updates);
+        return apply(Scan.create(this, updates));
+    }
+
+    @Override
+    public List<Expression> getChildren() {
+        return ImmutableList.<Expression>of(a, b);
+    }
+
+    @Override
+    public Map<List<String>, LabeledResult> apply(Scan scan) {
+        Map<List<String>, LabeledResult> aResults = scan.list(a);
+        Map<List<String>, LabeledResult> bResults = scan.list(b);
 
         Map<List<String>, LabeledResult> results = Maps.newHashMapWithExpectedSize(aResults.size());
         for (Map.Entry<List<String>, LabeledResult> entry : aResults.entrySet()) {
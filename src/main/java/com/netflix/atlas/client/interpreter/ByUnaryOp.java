@@ -18,6 +18,7 @@ package com.netflix.atlas.client.interpreter;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import com.netflix.servo.Metric;
 
@@ -27,7 +28,7 @@ import java.util.Map;
 /**
  * Unary operation on a single scalar value.
  */
-final class ByUnaryOp implements ListValueExpression {
+final class ByUnaryOp implements ListValueExpression, CompositeExpression<Map<List<String>, LabeledResult>> {
     private final ListValueExpression a;
     private final UnaryOp op;
     ByUnaryOp(ListValueExpression a, UnaryOp op) {
@@ -41,7 +42,17 @@ final class ByUnaryOp implements ListValueExpression {
 
     @Override
     public Map<List<String>, LabeledResult> apply(List<Metric> updates) {
-        Map<List<String>, LabeledResult> aResults = a.apply(updates);
+        return apply(Scan.create(this, updates));
+    }
+
+    @Override
+    public List<Expression> getChildren() {
+        return ImmutableList.<Expression>of(a);
+    }
+
+    @Override
+    public Map<List<String>, LabeledResult> apply(Scan scan) {
+        Map<List<String>, LabeledResult> aResults = scan.list(a);
         Map<List<String>, LabeledResult> results = Maps.newHashMapWithExpectedSize(aResults.size());
         for (Map.Entry<List<String>, LabeledResult> entry : aResults.entrySet()) {
             LabeledResult aRes = entry.getValue();
@@ -18,6 +18,7 @@ package com.netflix.atlas.client.interpreter;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import com.netflix.servo.Metric;
 
@@ -29,7 +30,7 @@ import java.util.Map;
  * When applied to an update, it returns
  * a map of keys to labeled results.
  */
-final class ByValueRelOp implements ListValueExpression {
+final class ByValueRelOp implements ListValueExpression, CompositeExpression<Map<List<String>, LabeledResult>> {
     private final ListValueExpression a;
     private final ValueExpression b;
     private final BinOp op;
@@ -73,8 +74,18 @@ final class ByValueRelOp implements ListValueExpression {
 
     @Override
     public Map<List<String>, LabeledResult> apply(List<Metric> updates) {
-        Map<List<String>, LabeledResult> aResults = a.apply(updates);
-        double bRes = b.apply(updates);
+        return apply(Scan.create(this, updates));
+    }
+
+    @Override
+    public List<Expression> getChildren() {
+        return ImmutableList.<Expression>of(a, b);
+    }
+
+    @Override
+    public Map<List<String>, LabeledResult> apply(Scan scan) {
+        Map<List<String>, LabeledResult> aResults = scan.list(a);
+        double bRes = scan.value(b);
 
         Map<List<String>, LabeledResult> results = Maps.newHashMapWithExpectedSize(aResults.size());
         for (Map.Entry<List<String>, LabeledResult> entry : aResults.entrySet()) {
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+import java.util.List;
+
+/**
+ * An expression that is computed from the results of other expressions. Composite expressions
+ * are evaluated with a {@link Scan}, so all the aggregates in the tree are computed with a
+ * single pass over the metrics.
+ *
+ * @param <T> Type of the result.
+ */
+interface CompositeExpression<T> extends Expression {
+    /**
+     * The expressions the result is computed from.
+     */
+    List<Expression> getChildren();
+
+    /**
+     * Compute the result, getting the results for the children from the scan.
+     */
+    T apply(Scan scan);
+}
@@ -162,6 +162,20 @@ public final class Context {
         return state.get(uuid, valueLoader);
     }
 
+    /**
+     * Remove the state stored under a given uuid, if any.
+     */
+    public void removeState(String uuid) {
+        state.invalidate(uuid);
+    }
+
+    /**
+     * Return the approximate number of entries in the state.
+     */
+    public long stateSize() {
+        return state.size();
+    }
+
     @VisibleForTesting
     /** Return the current state as a map. Only for testing */
     Map<String, Object> dumpState() {
@@ -16,23 +16,23 @@
 
 package com.netflix.atlas.client.interpreter;
 
-import com.netflix.servo.Metric;
-
-import java.util.List;
-
 final class CountAf extends AbstractAf {
     CountAf(Query filter) {
         super("COUNT", filter);
     }
 
     @Override
-    public double apply(List<Metric> updates) {
-        int count = 0;
-        for (Metric m : updates) {
-            if (Utils.hasNumber(m) && matches(m.getConfig())) {
-                ++count;
-            }
-        }
+    double initial() {
+        return 0.0;
+    }
+
+    @Override
+    double combine(double aggregate, double v) {
+        return aggregate;
+    }
+
+    @Override
+    double result(double aggregate, int count) {
         return count > 0 ? count : Double.NaN;
     }
 
@@ -18,40 +18,98 @@ package com.netflix.atlas.client.interpreter;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.netflix.servo.Metric;
 
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
- * Double exponential smoothing. Not implemented yet.
+ * Double exponential smoothing. Each evaluation adds the current value of the expression to
+ * a smoothed level and trend that are kept in the context state, so every step is O(1) and
+ * only a few primitives are kept per series. The result is the level before the current
+ * value was added, so it can be compared with the current value, and it is NaN until
+ * {@code trainingSize} values have been seen. NaN values do not update the state.
  */
-final class Des implements ValueExpression {
+final class Des implements ValueExpression, CompositeExpression<Double> {
+    private final Context context;
     private final ValueExpression expression;
     private final int trainingSize;
     private final double alpha;
     private final double beta;
     private final String label;
+    private final String stateKey;
 
-    Des(ValueExpression expression, int trainingSize, double alpha, double beta) {
+    Des(Context context, ValueExpression expression, int trainingSize, double alpha, double beta) {
+        this.context = Preconditions.checkNotNull(context);
         this.expression = Preconditions.checkNotNull(expression);
         Preconditions.checkArgument(trainingSize > 0);
 
         this.trainingSize = trainingSize;
         this.alpha = alpha;
         this.beta = beta;
-        this.label = String.format("DES(%s, %d, %.1f, %.1f)",
-                expression.getLabel(), trainingSize, alpha, beta);
+        this.label = label(expression.getLabel(), trainingSize, alpha, beta);
+        this.stateKey = stateKey(expression.toString(), trainingSize, alpha, beta);
+    }
+
+    /**
+     * Label to display for the result. The parameters are rounded, so it should not be used
+     * to identify the state.
+     */
+    static String label(String exprLabel, int trainingSize, double alpha, double beta) {
+        return String.format("DES(%s, %d, %.1f, %.1f)", exprLabel, trainingSize, alpha, beta);
+    }
+
+    /**
+     * Key of the state in the context. It uses the exact parameters, so expressions that only
+     * differ in the smoothing factors have their own state.
+     */
+    static String stateKey(String expr, int trainingSize, double alpha, double beta) {
+        return "DES(" + expr + ", " + trainingSize + ", " + Double.toString(alpha) + ", "
+                + Double.toString(beta) + ")";
+    }
+
+    /**
+     * Get the state stored in the context for a key, creating it if needed.
+     */
+    static State getState(Context context, String key, final int trainingSize,
+                          final double alpha, final double beta) {
+        try {
+            return (State) context.getState(key, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return new State(trainingSize, alpha, beta);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e);
+        }
     }
 
     @Override
     public double apply(List<Metric> updates) {
-        // FIXME
-        return Double.NaN;
+        return apply(Scan.create(this, updates));
+    }
+
+    @Override
+    public List<Expression> getChildren() {
+        return ImmutableList.<Expression>of(expression);
+    }
+
+    @Override
+    public Double apply(Scan scan) {
+        return getState(context, stateKey, trainingSize, alpha, beta).next(scan.value(expression));
+    }
+
+    String getStateKey() {
+        return stateKey;
     }
 
     @Override
     public ValueExpression addFilter(Query query) {
-        return new Des(expression.addFilter(query), trainingSize, alpha, beta);
+        return new Des(context, expression.addFilter(query), trainingSize, alpha, beta);
     }
 
     @Override
@@ -91,4 +149,52 @@ final class Des implements ValueExpression {
                 add("beta", beta).
                 toString();
     }
+
+    /**
+     * Smoothing state for a series.
+     */
+    static final class State {
+        private final int trainingSize;
+        private final double alpha;
+        private final double beta;
+        private double level = Double.NaN;
+        private double trend = Double.NaN;
+        private int samples;
+
+        State(int trainingSize, double alpha, double beta) {
+            this.trainingSize = trainingSize;
+            this.alpha = alpha;
+            this.beta = beta;
+        }
+
+        /**
+         * Add a value and return the level before the update, or NaN if still training.
+         */
+        synchronized double next(double v) {
+            final double result = (samples >= trainingSize) ? level : Double.NaN;
+            if (!Double.isNaN(v)) {
+                if (samples == 0) {
+                    level = v;
+                    trend = 0.0;
+                } else {
+                    final double prevLevel = level;
+                    level = alpha * v + (1.0 - alpha) * (prevLevel + trend);
+                    trend = beta * (level - prevLevel) + (1.0 - beta) * trend;
+                }
+                if (samples < Integer.MAX_VALUE) {
+                    ++samples;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return Objects.toStringHelper(this)
+                    .add("level", level)
+                    .add("trend", trend)
+                    .add("samples", samples)
+                    .toString();
+        }
+    }
 }
@@ -34,6 +34,13 @@ final class EqualQuery extends AbstractKeyQuery {
         this.v = Preconditions.checkNotNull(v);
     }
 
+    /**
+     * The value the key must be equal to.
+     */
+    String getExpectedValue() {
+        return v;
+    }
+
     @Override
     public String toString() {
         return getKey() + "," + v + ",:eq";
@@ -49,6 +56,11 @@ final class EqualQuery extends AbstractKeyQuery {
         return v.equals(getValue(config));
     }
 
+    @Override
+    public boolean apply(TagView tags) {
+        return v.equals(getValue(tags));
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null || !(obj instanceof EqualQuery)) {
@@ -23,7 +23,7 @@ import java.util.Map;
 /**
  * A query that always fails.
  */
-public enum FalseQuery implements Query {
+public enum FalseQuery implements TagViewQuery {
     /** Singleton representing a query that always fails. */
     INSTANCE;
 
@@ -37,6 +37,11 @@ public enum FalseQuery implements Query {
         return false;
     }
 
+    @Override
+    public boolean apply(TagView tags) {
+        return false;
+    }
+
     @Override
     public String toString() {
         return ":false";
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+import java.util.Arrays;
+
+/**
+ * The aggregates of an aggregate function for a set of groups, kept in primitive arrays
+ * indexed by the group id. Not thread safe.
+ */
+final class GroupAggregates {
+    private static final int MIN_CAPACITY = 16;
+
+    private final AbstractAf af;
+    private double[] aggregates = new double[MIN_CAPACITY];
+    private int[] counts = new int[MIN_CAPACITY];
+    private int size;
+
+    GroupAggregates(AbstractAf af) {
+        this.af = af;
+    }
+
+    /**
+     * Make sure there is an aggregate for all group ids up to and including {@code id}.
+     */
+    void ensureGroup(int id) {
+        if (id >= aggregates.length) {
+            final int capacity = Math.max(id + 1, aggregates.length * 2);
+            aggregates = Arrays.copyOf(aggregates, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        while (size <= id) {
+            aggregates[size++] = af.initial();
+        }
+    }
+
+    /**
+     * Add a value to the aggregate of a group. The group must have been created with
+     * {@link #ensureGroup(int)}.
+     */
+    void add(int id, double v) {
+        aggregates[id] = af.combine(aggregates[id], v);
+        ++counts[id];
+    }
+
+    /**
+     * Merge the aggregate of a group from another instance for the same function into the
+     * aggregate of a group. The group must have been created with {@link #ensureGroup(int)}.
+     */
+    void merge(int id, GroupAggregates other, int otherId) {
+        final int otherCount = other.counts[otherId];
+        if (otherCount > 0) {
+            aggregates[id] = (counts[id] > 0)
+                    ? af.combine(aggregates[id], other.aggregates[otherId])
+                    : other.aggregates[otherId];
+            counts[id] += otherCount;
+        }
+    }
+
+    /**
+     * Number of groups.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * The result of the aggregate function for a group.
+     */
+    double result(int id) {
+        return af.result(aggregates[id], counts[id]);
+    }
+}
@@ -19,11 +19,9 @@ package com.netflix.atlas.client.interpreter;
 import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.netflix.servo.Metric;
-import com.netflix.servo.tag.Tag;
 
 import java.util.List;
 import java.util.Map;
@@ -38,6 +36,8 @@ class GroupBy implements ListValueExpression {
     private final List<String> keys;
     private final ValueExpression expression;
     private final Context context;
+    private final String[] commonValues;
+    private final int[] slots;
 
     public GroupBy(Context context, List<?> keys, ValueExpression expression) {
         this.expression = Preconditions.checkNotNull(expression);
@@ -51,6 +51,15 @@ class GroupBy implements ListValueExpression {
             builder.add((String) k);
         }
         this.keys = builder.build();
+
+        // the values for common tags do not depend on the metric
+        commonValues = new String[this.keys.size()];
+        slots = new int[this.keys.size()];
+        for (int i = 0; i < commonValues.length; ++i) {
+            final String key = this.keys.get(i);
+            commonValues[i] = context.isCommonTag(key) ? context.getCommonTagValue(key) : null;
+            slots[i] = TagView.slot(key);
+        }
     }
 
     @Override
@@ -58,58 +67,46 @@ class GroupBy implements ListValueExpression {
         return keys;
     }
 
-    private String getValue(Metric m, String key) {
-        if (context.isCommonTag(key)) {
-            return context.getCommonTagValue(key);
-        } else if (key.equals("name")) {
-            return m.getConfig().getName();
-        } else {
-            Tag tag = m.getConfig().getTags().getTag(key);
-            if (tag != null) {
-                return tag.getValue();
-            } else {
-                return null;
-            }
-        }
+    /**
+     * The expression that is applied to the metrics of each group.
+     */
+    ValueExpression getExpression() {
+        return expression;
     }
 
-    @Override
-    public Map<List<String>, LabeledResult> apply(List<Metric> updates) {
-        // group metrics by keys
-        Map<List<String>, List<Metric>> grouped = Maps.newHashMap();
-        for (Metric metric : updates) {
-            boolean shouldKeep = true;
-            List<String> groupByValues = Lists.newArrayListWithCapacity(keys.size());
-            for (String key : keys) {
-                String value = getValue(metric, key);
-                if (value != null) {
-                    groupByValues.add(value);
-                } else {
-                    // ignore this metric
-                    shouldKeep = false;
-                    break;
+    /**
+     * Fill the array with the values of the group by keys for the tags of a view. Returns false
+     * if the config is missing one of the keys.
+     */
+    boolean getGroupValues(TagView tags, String[] values) {
+        for (int i = 0; i < values.length; ++i) {
+            String value = commonValues[i];
+            if (value == null) {
+                value = tags.get(slots[i]);
+                if (value == null) {
+                    return false;
                 }
             }
+            values[i] = value;
+        }
+        return true;
+    }
 
-            if (shouldKeep) {
-                List<Metric> valuesForKeys = grouped.get(groupByValues);
-                if (valuesForKeys == null) {
-                    valuesForKeys = Lists.newArrayList();
-                    grouped.put(groupByValues, valuesForKeys);
-                }
-                valuesForKeys.add(metric);
+    /**
+     * Create the result for a group. The label is only formatted if it is used.
+     */
+    LabeledResult newResult(final GroupKey groupKey, double value) {
+        return new LabeledResult(new Supplier<String>() {
+            @Override
+            public String get() {
+                return "GroupBy([" + JOINER.join(groupKey) + "], " + expression.getLabel() + ")";
             }
-        }
+        }, value);
+    }
 
-        Map<List<String>, LabeledResult> results = Maps.newHashMapWithExpectedSize(grouped.size());
-        for (Map.Entry<List<String>, List<Metric>> entry : grouped.entrySet()) {
-            List<String> k = entry.getKey();
-            List<Metric> v = entry.getValue();
-            String label = String.format("GroupBy([%s], %s)",
-                    JOINER.join(k), expression.getLabel());
-            results.put(k, new LabeledResult(label, expression.apply(v)));
-        }
-        return results;
+    @Override
+    public Map<List<String>, LabeledResult> apply(List<Metric> updates) {
+        return Scan.create(this, updates).list(this);
     }
 
     @Override
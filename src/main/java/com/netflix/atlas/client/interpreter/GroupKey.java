@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list with the values of the group by keys for a group. The hash code follows the
+ * {@link java.util.List} contract so keys can be compared with other lists, but it is only
+ * computed once. Instances are created by {@link GroupKeys}.
+ */
+final class GroupKey extends AbstractList<String> implements RandomAccess {
+    private final String[] values;
+    private final int hash;
+
+    GroupKey(String[] values, int hash) {
+        this.values = values;
+        this.hash = hash;
+    }
+
+    /**
+     * Compute the hash code for a list with the given values.
+     */
+    static int hash(String[] values) {
+        int h = 1;
+        for (String v : values) {
+            h = 31 * h + v.hashCode();
+        }
+        return h;
+    }
+
+    /**
+     * Returns true if this key has the given values.
+     */
+    boolean hasValues(String[] other, int otherHash) {
+        return hash == otherHash && Arrays.equals(values, other);
+    }
+
+    @Override
+    public String get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        } else if (o instanceof GroupKey) {
+            return ((GroupKey) o).hasValues(values, hash);
+        }
+        return super.equals(o);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense integer ids to the distinct group keys seen during an evaluation. Lookups take
+ * the values in an array that can be reused by the caller, so finding the id of an existing
+ * group does not allocate. Not thread safe.
+ */
+final class GroupKeys {
+    private static final int MIN_CAPACITY = 16;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+    private GroupKey[] keys = new GroupKey[MIN_CAPACITY];
+    // id + 1 of the key stored in each slot, 0 for an empty slot
+    private int[] table = new int[MIN_CAPACITY * 2];
+    private int size;
+
+    private static int slot(int hash, int mask) {
+        final int h = hash * GOLDEN_RATIO;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Return the id for the values, creating a new key if they have not been seen before.
+     * The array is copied when a key is created, so it can be modified afterwards.
+     */
+    int intern(String[] values) {
+        final int hash = GroupKey.hash(values);
+        final int mask = table.length - 1;
+        int i = slot(hash, mask);
+        while (true) {
+            final int entry = table[i];
+            if (entry == 0) {
+                return insert(new GroupKey(values.clone(), hash), i);
+            } else if (keys[entry - 1].hasValues(values, hash)) {
+                return entry - 1;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Return the id for a key created by another instance, adding it if needed.
+     */
+    int intern(GroupKey key) {
+        final int mask = table.length - 1;
+        int i = slot(key.hashCode(), mask);
+        while (true) {
+            final int entry = table[i];
+            if (entry == 0) {
+                return insert(key, i);
+            } else if (keys[entry - 1].equals(key)) {
+                return entry - 1;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private int insert(GroupKey key, int i) {
+        final int id = size++;
+        if (id == keys.length) {
+            keys = Arrays.copyOf(keys, id * 2);
+        }
+        keys[id] = key;
+        table[i] = id + 1;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        final int[] newTable = new int[table.length * 2];
+        final int mask = newTable.length - 1;
+        for (int id = 0; id < size; ++id) {
+            int i = slot(keys[id].hashCode(), mask);
+            while (newTable[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            newTable[i] = id + 1;
+        }
+        table = newTable;
+    }
+
+    /**
+     * Number of distinct keys.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Return the key with the given id.
+     */
+    GroupKey get(int id) {
+        return keys[id];
+    }
+}
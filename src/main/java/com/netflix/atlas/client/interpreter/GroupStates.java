@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per group state of an expression applied to each group of a {@link ListValueExpression}. A
+ * group that has been missing for a full eviction period is removed and the listener is
+ * notified so it can release the state kept for it, for example in the context. The sweep is
+ * done once per period, so its cost is amortized to O(1) per group and step.
+ *
+ * @param <T> Type of the state kept for each group.
+ */
+final class GroupStates<T> {
+
+    /**
+     * Notified when the state of a group is evicted.
+     */
+    interface EvictionListener<T> {
+        void evicted(T state);
+    }
+
+    private final Map<List<String>, Group<T>> groups = Maps.newHashMap();
+    private final int period;
+    private final EvictionListener<T> listener;
+    private long step;
+
+    /**
+     * Create a new instance.
+     *
+     * @param period   Number of steps a group can be missing before it is evicted.
+     * @param listener Notified for the groups that are evicted.
+     */
+    GroupStates(int period, EvictionListener<T> listener) {
+        Preconditions.checkArgument(period > 0);
+        this.period = period;
+        this.listener = Preconditions.checkNotNull(listener);
+    }
+
+    /**
+     * Start a new step. The groups that are not accessed before {@link #endStep()} is called are
+     * missing for that step.
+     */
+    void startStep() {
+        ++step;
+    }
+
+    /**
+     * End the current step and evict the groups that have been missing for a full period.
+     */
+    void endStep() {
+        if (step % period == 0) {
+            evictMissingGroups();
+        }
+    }
+
+    /**
+     * Return the state of a group and mark it as present for the current step, or null if
+     * there is no state for the group.
+     */
+    T get(List<String> keys) {
+        final Group<T> group = groups.get(keys);
+        if (group == null) {
+            return null;
+        }
+        group.lastStep = step;
+        return group.state;
+    }
+
+    /**
+     * Set the state of a group and mark it as present for the current step.
+     */
+    void put(List<String> keys, T state) {
+        final Group<T> group = new Group<>(state);
+        group.lastStep = step;
+        groups.put(keys, group);
+    }
+
+    private void evictMissingGroups() {
+        final Iterator<Group<T>> it = groups.values().iterator();
+        while (it.hasNext()) {
+            final Group<T> group = it.next();
+            if (step - group.lastStep >= period) {
+                listener.evicted(group.state);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Number of groups with a state.
+     */
+    int size() {
+        return groups.size();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof GroupStates && groups.equals(((GroupStates<?>) o).groups);
+    }
+
+    @Override
+    public int hashCode() {
+        return groups.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return groups.toString();
+    }
+
+    /**
+     * State for a group along with the last step where the group was present.
+     */
+    private static final class Group<T> {
+        private final T state;
+        private long lastStep;
+
+        Group(T state) {
+            this.state = state;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Group && state.equals(((Group<?>) o).state);
+        }
+
+        @Override
+        public int hashCode() {
+            return state.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return state.toString();
+        }
+    }
+}
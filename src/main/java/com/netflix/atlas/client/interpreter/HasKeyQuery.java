@@ -44,6 +44,11 @@ final class HasKeyQuery extends AbstractKeyQuery {
         return isNameQuery() || config.getTags().containsKey(getKey());
     }
 
+    @Override
+    public boolean apply(TagView tags) {
+        return isNameQuery() || getValue(tags) != null;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null || !(obj instanceof HasKeyQuery)) {
@@ -38,6 +38,13 @@ final class InQuery extends AbstractKeyQuery {
         Preconditions.checkArgument(values.size() >= 1);
     }
 
+    /**
+     * The set of values that will match.
+     */
+    Set<String> getValues() {
+        return values;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
@@ -61,6 +68,12 @@ final class InQuery extends AbstractKeyQuery {
         return (v != null) && values.contains(v);
     }
 
+    @Override
+    public boolean apply(TagView tags) {
+        final String v = getValue(tags);
+        return (v != null) && values.contains(v);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null || !(obj instanceof InQuery)) {
@@ -37,17 +37,41 @@ public class Interpreter {
     }
 
     /**
-     * Tokenize the given expression.
+     * Tokenize the given expression. Tokens are separated by commas, whitespace around the
+     * tokens is ignored and empty tokens are dropped. The expression is processed in a single
+     * pass without using regular expressions.
      */
     public static List<Object> getTokens(String expr) {
-        String[] tokens = expr.trim().split("\\s*,\\s*");
-        List<Object> nonEmpty = Lists.newArrayListWithCapacity(tokens.length);
-        for (String t : tokens) {
-            if (!t.isEmpty()) {
-                nonEmpty.add(t);
+        final String trimmed = expr.trim();
+        final int length = trimmed.length();
+        final List<Object> tokens = Lists.newArrayList();
+        int start = 0;
+        while (start <= length) {
+            int end = trimmed.indexOf(',', start);
+            if (end < 0) {
+                end = length;
             }
+            int tokenStart = start;
+            int tokenEnd = end;
+            while (tokenStart < tokenEnd && isSpace(trimmed.charAt(tokenStart))) {
+                ++tokenStart;
+            }
+            while (tokenEnd > tokenStart && isSpace(trimmed.charAt(tokenEnd - 1))) {
+                --tokenEnd;
+            }
+            if (tokenStart < tokenEnd) {
+                tokens.add(trimmed.substring(tokenStart, tokenEnd));
+            }
+            start = end + 1;
         }
-        return nonEmpty;
+        return tokens;
+    }
+
+    /**
+     * Same characters as the {@code \s} class of a regular expression.
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
     @SuppressWarnings("unchecked")
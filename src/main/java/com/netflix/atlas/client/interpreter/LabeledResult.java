@@ -18,24 +18,43 @@ package com.netflix.atlas.client.interpreter;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 
 /**
  * A result for an operation, with a label describing it.
  */
 public final class LabeledResult {
-    private final String label;
+    private final Supplier<String> labelSupplier;
     private final double value;
+    private String label;
 
     /**
      * Create a new result for an operation using a particular label.
      */
     public LabeledResult(String label, double value) {
+        this.labelSupplier = null;
         this.label = Preconditions.checkNotNull(label);
         this.value = value;
     }
 
+    /**
+     * Create a new result where the label is only computed when it is first needed. Results
+     * for many groups are often discarded or relabeled, so this avoids formatting labels that
+     * are never used.
+     */
+    LabeledResult(Supplier<String> labelSupplier, double value) {
+        this.labelSupplier = Preconditions.checkNotNull(labelSupplier);
+        this.value = value;
+    }
+
     public String getLabel() {
-        return label;
+        // racy but idempotent, strings are safe to publish without synchronization
+        String l = label;
+        if (l == null) {
+            l = Preconditions.checkNotNull(labelSupplier.get());
+            label = l;
+        }
+        return l;
     }
 
     public double getValue() {
@@ -52,18 +71,18 @@ public final class LabeledResult {
         }
 
         LabeledResult labeledResult = (LabeledResult) o;
-        return Double.compare(labeledResult.value, value) == 0 && label.equals(labeledResult.label);
+        return Double.compare(labeledResult.value, value) == 0 && getLabel().equals(labeledResult.getLabel());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(label, value);
+        return Objects.hashCode(getLabel(), value);
     }
 
     @Override
     public String toString() {
         return Objects.toStringHelper(this).
-                add("label", label).
+                add("label", getLabel()).
                 add("value", value).
                 toString();
     }
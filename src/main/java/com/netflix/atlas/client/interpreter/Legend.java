@@ -18,6 +18,7 @@ package com.netflix.atlas.client.interpreter;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import com.netflix.atlas.client.util.Variables;
 import com.netflix.servo.Metric;
@@ -30,7 +31,7 @@ import java.util.Map;
 /**
  * Set a legend.
  */
-final class Legend implements ListValueExpression {
+final class Legend implements ListValueExpression, CompositeExpression<Map<List<String>, LabeledResult>> {
     private static final Logger LOGGER = LoggerFactory.getLogger(Legend.class);
     private final Context context;
     private final ListValueExpression listExpression;
@@ -57,8 +58,18 @@ final class Legend implements ListValueExpression {
 
     @Override
     public Map<List<String>, LabeledResult> apply(List<Metric> updates) {
+        return apply(Scan.create(this, updates));
+    }
+
+    @Override
+    public List<Expression> getChildren() {
+        return ImmutableList.<Expression>of(listExpression);
+    }
+
+    @Override
+    public Map<List<String>, LabeledResult> apply(Scan scan) {
         Map<List<String>, LabeledResult> resultMap = Maps.newHashMap();
-        Map<List<String>, LabeledResult> underlyingResults = listExpression.apply(updates);
+        Map<List<String>, LabeledResult> underlyingResults = scan.list(listExpression);
         for (Map.Entry<List<String>, LabeledResult> entry : underlyingResults.entrySet()) {
             List<String> keys = entry.getKey();
             LabeledResult labeledResult = entry.getValue();
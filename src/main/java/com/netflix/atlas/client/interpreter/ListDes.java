@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.netflix.servo.Metric;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Double exponential smoothing applied to each group of a {@link ListValueExpression}. The
+ * smoothing state of each group is kept in the context under a key made of the expression,
+ * the values of the group and the exact parameters. A group that has been missing for the
+ * eviction period, at least the training size, is evicted and its state is removed from the
+ * context. If the group comes back it is trained again like a new series.
+ */
+final class ListDes implements ListValueExpression, CompositeExpression<Map<List<String>, LabeledResult>> {
+    /**
+     * Minimum number of steps a group can be missing before its state is evicted.
+     */
+    static final int MIN_EVICTION_PERIOD = 10;
+
+    private final Context context;
+    private final ListValueExpression listExpression;
+    private final int trainingSize;
+    private final double alpha;
+    private final double beta;
+    private final GroupStates<String> stateKeys;
+
+    ListDes(final Context context, ListValueExpression listExpression, int trainingSize,
+            double alpha, double beta) {
+        this.context = Preconditions.checkNotNull(context);
+        this.listExpression = Preconditions.checkNotNull(listExpression);
+        Preconditions.checkArgument(trainingSize > 0);
+
+        this.trainingSize = trainingSize;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.stateKeys = new GroupStates<>(Math.max(trainingSize, MIN_EVICTION_PERIOD),
+                new GroupStates.EvictionListener<String>() {
+                    @Override
+                    public void evicted(String key) {
+                        context.removeState(key);
+                    }
+                });
+    }
+
+    @Override
+    public Map<List<String>, LabeledResult> apply(List<Metric> updates) {
+        return apply(Scan.create(this, updates));
+    }
+
+    @Override
+    public List<Expression> getChildren() {
+        return ImmutableList.<Expression>of(listExpression);
+    }
+
+    @Override
+    public Map<List<String>, LabeledResult> apply(Scan scan) {
+        Map<List<String>, LabeledResult> resultMap = Maps.newHashMap();
+        Map<List<String>, LabeledResult> underlyingResults = scan.list(listExpression);
+        stateKeys.startStep();
+        for (Map.Entry<List<String>, LabeledResult> entry : underlyingResults.entrySet()) {
+            String label = Des.label(entry.getValue().getLabel(), trainingSize, alpha, beta);
+            String key = stateKeys.get(entry.getKey());
+            if (key == null) {
+                key = Des.stateKey(listExpression + " " + entry.getKey(), trainingSize, alpha, beta);
+                stateKeys.put(entry.getKey(), key);
+            }
+            Des.State state = Des.getState(context, key, trainingSize, alpha, beta);
+            resultMap.put(entry.getKey(), new LabeledResult(label, state.next(entry.getValue().getValue())));
+        }
+        stateKeys.endStep();
+        return resultMap;
+    }
+
+    @VisibleForTesting
+    int size() {
+        return stateKeys.size();
+    }
+
+    @Override
+    public ListValueExpression addFilter(Query query) {
+        return new ListDes(context, listExpression.addFilter(query), trainingSize, alpha, beta);
+    }
+
+    @Override
+    public List<String> getKeys() {
+        return listExpression.getKeys();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        ListDes that = (ListDes) o;
+        return listExpression.equals(that.listExpression)
+                && trainingSize == that.trainingSize
+                && Double.compare(alpha, that.alpha) == 0
+                && Double.compare(beta, that.beta) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(listExpression, trainingSize, alpha, beta);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).
+                add("listExpression", listExpression).
+                add("trainingSize", trainingSize).
+                add("alpha", alpha).
+                add("beta", beta).
+                toString();
+    }
+}
@@ -16,45 +16,75 @@
 
 package com.netflix.atlas.client.interpreter;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import com.netflix.servo.Metric;
 
 import java.util.List;
 import java.util.Map;
 
-final class ListRollingCount implements ListValueExpression {
+/**
+ * Rolling count applied to each group of a {@link ListValueExpression}. A group that has been
+ * missing for a full period is evicted along with its state, so the state does not keep growing
+ * when the set of groups changes over time. If the group comes back the count starts again
+ * from zero, which is the same value it would have if the missing steps counted as false.
+ */
+final class ListRollingCount implements ListValueExpression, CompositeExpression<Map<List<String>, LabeledResult>> {
     private final ListValueExpression listExpression;
-    private final Map<List<String>, RollingCount> rollingCountMap;
+    private final GroupStates<RollingCount> rollingCountMap;
     private final int period;
     private final Context context;
 
     ListRollingCount(Context context, ListValueExpression listExpression, int period) {
         this.context = Preconditions.checkNotNull(context);
         this.listExpression = Preconditions.checkNotNull(listExpression);
-        this.rollingCountMap = Maps.newHashMap();
         Preconditions.checkArgument(period > 0);
         this.period = period;
+        this.rollingCountMap = new GroupStates<>(period, new GroupStates.EvictionListener<RollingCount>() {
+            @Override
+            public void evicted(RollingCount count) {
+                count.clear();
+            }
+        });
     }
 
     @Override
     public Map<List<String>, LabeledResult> apply(List<Metric> updates) {
+        return apply(Scan.create(this, updates));
+    }
+
+    @Override
+    public List<Expression> getChildren() {
+        return ImmutableList.<Expression>of(listExpression);
+    }
+
+    @Override
+    public Map<List<String>, LabeledResult> apply(Scan scan) {
         Map<List<String>, LabeledResult> resultMap = Maps.newHashMap();
-        Map<List<String>, LabeledResult> underlyingResults = listExpression.apply(updates);
+        Map<List<String>, LabeledResult> underlyingResults = scan.list(listExpression);
+        rollingCountMap.startStep();
         for (Map.Entry<List<String>, LabeledResult> entry : underlyingResults.entrySet()) {
             List<String> keys = entry.getKey();
-            RollingCount currentCounts = rollingCountMap.get(keys);
-            if (currentCounts == null) {
-                currentCounts = new RollingCount(context, entry.getValue().getLabel(), period);
-                rollingCountMap.put(keys, currentCounts);
+            RollingCount rollingCount = rollingCountMap.get(keys);
+            if (rollingCount == null) {
+                rollingCount = new RollingCount(context, entry.getValue().getLabel(), period);
+                rollingCountMap.put(keys, rollingCount);
             }
-            currentCounts.update(Utils.isTrue(entry.getValue().getValue()));
-            resultMap.put(keys, new LabeledResult(currentCounts.getLabel(), currentCounts.getValue()));
+            double count = rollingCount.update(Utils.isTrue(entry.getValue().getValue()));
+            resultMap.put(keys, new LabeledResult(rollingCount.getLabel(), count));
         }
+        rollingCountMap.endStep();
         return resultMap;
     }
 
+    @VisibleForTesting
+    int size() {
+        return rollingCountMap.size();
+    }
+
     @Override
     public ListValueExpression addFilter(Query query) {
         return new ListRollingCount(context, listExpression.addFilter(query), period);
@@ -16,24 +16,24 @@
 
 package com.netflix.atlas.client.interpreter;
 
-import com.netflix.servo.Metric;
-
-import java.util.List;
-
 final class MaxAf extends AbstractAf {
     MaxAf(Query filter) {
         super("MAX", filter);
     }
 
     @Override
-    public double apply(List<Metric> updates) {
-        double res = -Double.MAX_VALUE;
-        for (Metric m : updates) {
-            if (Utils.hasNumber(m) && matches(m.getConfig())) {
-                res = Math.max(res, m.getNumberValue().doubleValue());
-            }
-        }
-        return Double.compare(res, -Double.MAX_VALUE) == 0 ? Double.NaN : res;
+    double initial() {
+        return -Double.MAX_VALUE;
+    }
+
+    @Override
+    double combine(double aggregate, double v) {
+        return Math.max(aggregate, v);
+    }
+
+    @Override
+    double result(double aggregate, int count) {
+        return Double.compare(aggregate, -Double.MAX_VALUE) == 0 ? Double.NaN : aggregate;
     }
 
     @Override
@@ -16,24 +16,24 @@
 
 package com.netflix.atlas.client.interpreter;
 
-import com.netflix.servo.Metric;
-
-import java.util.List;
-
 final class MinAf extends AbstractAf {
     MinAf(Query filter) {
         super("MIN", filter);
     }
 
     @Override
-    public double apply(List<Metric> updates) {
-        double res = Double.MAX_VALUE;
-        for (Metric m : updates) {
-            if (Utils.hasNumber(m) && matches(m.getConfig())) {
-                res = Math.min(res, m.getNumberValue().doubleValue());
-            }
-        }
-        return res == Double.MAX_VALUE ? Double.NaN : res;
+    double initial() {
+        return Double.MAX_VALUE;
+    }
+
+    @Override
+    double combine(double aggregate, double v) {
+        return Math.min(aggregate, v);
+    }
+
+    @Override
+    double result(double aggregate, int count) {
+        return aggregate == Double.MAX_VALUE ? Double.NaN : aggregate;
     }
 
     @Override
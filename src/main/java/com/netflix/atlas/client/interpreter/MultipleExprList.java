@@ -29,7 +29,8 @@ import java.util.Map;
 /**
  * A {@link ListValueExpression} wrapping one or more {@link ValueExpression}s.
  */
-public final class MultipleExprList implements ListValueExpression {
+public final class MultipleExprList implements ListValueExpression,
+        CompositeExpression<Map<List<String>, LabeledResult>> {
     private static final List<String> KEYS = ImmutableList.of("label");
     private final List<Object> expressions;
 
@@ -50,16 +51,30 @@ public final class MultipleExprList implements ListValueExpression {
 
     @Override
     public Map<List<String>, LabeledResult> apply(List<Metric> updates) {
+        return apply(Scan.create(this, updates));
+    }
+
+    @Override
+    public List<Expression> getChildren() {
+        ImmutableList.Builder<Expression> builder = ImmutableList.builder();
+        for (Object o : expressions) {
+            builder.add((Expression) o);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public Map<List<String>, LabeledResult> apply(Scan scan) {
         Map<List<String>, LabeledResult> resultMap = Maps.newHashMap();
 
         for (Object o : expressions) {
             if (o instanceof ValueExpression) {
                 ValueExpression expression = (ValueExpression) o;
                 final String label = expression.getLabel();
-                resultMap.put(ImmutableList.of(label), new LabeledResult(label, expression.apply(updates)));
+                resultMap.put(ImmutableList.of(label), new LabeledResult(label, scan.value(expression)));
             } else {
                 ListValueExpression expression = (ListValueExpression) o;
-                Map<List<String>, LabeledResult> partial = expression.apply(updates);
+                Map<List<String>, LabeledResult> partial = scan.list(expression);
                 resultMap.putAll(partial);
             }
 
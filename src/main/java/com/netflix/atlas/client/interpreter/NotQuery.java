@@ -22,13 +22,17 @@ import com.netflix.servo.monitor.MonitorConfig;
 
 import java.util.Map;
 
-final class NotQuery implements Query {
+final class NotQuery implements TagViewQuery {
     private final Query q;
 
     NotQuery(Query q) {
         this.q = Preconditions.checkNotNull(q);
     }
 
+    Query getQuery() {
+        return q;
+    }
+
     @Override
     public String toString() {
         return q + ",:not";
@@ -44,6 +48,11 @@ final class NotQuery implements Query {
         return !q.apply(config);
     }
 
+    @Override
+    public boolean apply(TagView tags) {
+        return !Queries.matches(q, tags);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null || !(obj instanceof NotQuery)) {
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.netflix.servo.Metric;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Evaluates list expressions by splitting the metrics across a fork join pool. Each task
+ * computes partial aggregates for a chunk of the metrics and the partial results are merged
+ * in the order of the chunks, so the result is deterministic. Inputs with at most
+ * {@code threshold} metrics are evaluated on the calling thread.
+ */
+public final class ParallelEvaluator {
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private final int threshold;
+
+    /**
+     * Create a new evaluator.
+     *
+     * @param parallelism Number of threads used for the evaluation.
+     * @param threshold   Max number of metrics processed by a single task.
+     */
+    public ParallelEvaluator(int parallelism, int threshold) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be > 0");
+        Preconditions.checkArgument(threshold > 0, "threshold must be > 0");
+        this.pool = new ForkJoinPool(parallelism);
+        this.parallelism = parallelism;
+        this.threshold = threshold;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Evaluate the expression with the metrics provided. The result is the same as
+     * {@link ListValueExpression#apply(List)}.
+     */
+    public Map<List<String>, LabeledResult> apply(ListValueExpression expression, List<Metric> updates) {
+        if (expression instanceof CompositeExpression || expression instanceof GroupBy) {
+            return Scan.create(expression, updates, pool, threshold).list(expression);
+        }
+        return expression.apply(updates);
+    }
+
+    /**
+     * Stop the threads used by this evaluator.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("parallelism", parallelism)
+                .add("threshold", threshold)
+                .toString();
+    }
+}
@@ -16,10 +16,19 @@
 
 package com.netflix.atlas.client.interpreter;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.netflix.servo.DefaultMonitorRegistry;
 import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
 
 import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.List;
 import java.util.Map;
@@ -28,6 +37,23 @@ import java.util.Map;
  * Utility class for dealing with Queries.
  */
 public final class Queries {
+    private static final int MAX_PARSE_CACHE_SIZE = 1000;
+
+    // queries are immutable, so the result of parsing an expression can be shared
+    private static final LoadingCache<String, Query> PARSE_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PARSE_CACHE_SIZE)
+            .recordStats()
+            .build(new CacheLoader<String, Query>() {
+                @Override
+                public Query load(String expr) {
+                    return parseImpl(expr, Context.newDefaultContext());
+                }
+            });
+
+    static {
+        DefaultMonitorRegistry.getInstance().register(
+                Monitors.newCacheMonitor("atlas.queryParseCache", PARSE_CACHE));
+    }
 
     private Queries() {
     }
@@ -70,6 +96,63 @@ public final class Queries {
         }
     }
 
+    /**
+     * Return a query that will evaluate to true iff any of the queries evaluate to true. Nested
+     * or queries are flattened and the result is backed by a {@link QueryIndex}, so only the
+     * queries that could match a given config are evaluated.
+     */
+    public static Query anyOf(List<Query> queries) {
+        final List<Query> flattened = Lists.newArrayList();
+        for (Query q : queries) {
+            if (!addDisjuncts(q, flattened)) {
+                return TrueQuery.INSTANCE;
+            }
+        }
+        if (flattened.isEmpty()) {
+            return FalseQuery.INSTANCE;
+        } else if (flattened.size() == 1) {
+            return flattened.get(0);
+        }
+        return new AnyQuery(flattened);
+    }
+
+    /**
+     * Return an equivalent query where the top level or queries are backed by an index.
+     */
+    public static Query indexed(Query query) {
+        return anyOf(Collections.singletonList(query));
+    }
+
+    /**
+     * Add the queries that are or'ed together to the list. Returns false if one of them is
+     * always true.
+     */
+    private static boolean addDisjuncts(Query query, List<Query> disjuncts) {
+        if (query == TrueQuery.INSTANCE) {
+            return false;
+        } else if (query == FalseQuery.INSTANCE) {
+            return true;
+        } else if (query instanceof OrQuery) {
+            final OrQuery or = (OrQuery) query;
+            return addDisjuncts(or.getQ1(), disjuncts) && addDisjuncts(or.getQ2(), disjuncts);
+        } else if (query instanceof AnyQuery) {
+            disjuncts.addAll(((AnyQuery) query).getQueries());
+            return true;
+        }
+        disjuncts.add(query);
+        return true;
+    }
+
+    /**
+     * Return an equivalent query that is cheaper to evaluate. Nested and/or queries are
+     * flattened, equal and in queries on the same key are merged, contradictions are folded
+     * to false and the clauses are ordered by estimated cost. The string form of the result
+     * may differ from the original, so it should only be used for matching.
+     */
+    public static Query optimize(Query query) {
+        return QueryOptimizer.optimize(query);
+    }
+
     /**
      * Create an in query.
      */
@@ -114,10 +197,26 @@ public final class Queries {
     }
 
     /**
-     * Parse a given query.
+     * Returns whether a query matches the tags of a view. The queries created by this package
+     * read the tag values from the view, for other implementations the config of the view is
+     * used.
+     */
+    public static boolean matches(Query query, TagView tags) {
+        return (query instanceof TagViewQuery)
+                ? ((TagViewQuery) query).apply(tags)
+                : query.apply(tags.getConfig());
+    }
+
+    /**
+     * Parse a given query. The results are cached, so parsing the same expression again, for
+     * example when a config is reloaded, is a single lookup.
      */
     public static Query parse(String expr) {
-        return parseImpl(expr, Context.newDefaultContext());
+        try {
+            return PARSE_CACHE.getUnchecked(expr);
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
     }
 
     /**
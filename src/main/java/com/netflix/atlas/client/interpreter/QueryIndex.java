@@ -0,0 +1,376 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+import com.netflix.servo.monitor.MonitorConfig;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index over a list of queries for finding the ones that match a config without evaluating
+ * all of them. Each query is decomposed to find an anchor, a key and the set of values that
+ * key must have for the query to possibly match. Queries are then grouped in a hash table per
+ * anchor key, so for a given config only the queries anchored on one of its values and the
+ * queries that could not be anchored (regex, not, has) need to be evaluated. Queries that can
+ * never match are dropped.
+ *
+ * <p>Candidates are always evaluated in the order the queries were added. The index is
+ * immutable and can be shared by multiple threads.</p>
+ *
+ * @param <T> Type of the value associated with each query.
+ */
+public final class QueryIndex<T> {
+    private static final int[] NO_CANDIDATES = new int[0];
+
+    private final Query[] queries;
+    private final List<T> values;
+    private final String[] keys;
+    private final boolean[] isNameKey;
+    private final int[] slots;
+    private final List<Map<String, int[]>> candidates;
+    private final int[] unindexed;
+
+    private QueryIndex(List<Query> queries, List<T> values) {
+        this.queries = queries.toArray(new Query[queries.size()]);
+        this.values = ImmutableList.copyOf(values);
+
+        final Map<String, Map<String, List<Integer>>> byKey = Maps.newLinkedHashMap();
+        final List<Integer> others = Lists.newArrayList();
+        for (int i = 0; i < this.queries.length; ++i) {
+            final Anchor anchor = getAnchor(this.queries[i]);
+            if (anchor == null) {
+                others.add(i);
+                continue;
+            } else if (anchor.isEmpty()) {
+                continue;
+            }
+            Map<String, List<Integer>> byValue = byKey.get(anchor.key);
+            if (byValue == null) {
+                byValue = Maps.newHashMap();
+                byKey.put(anchor.key, byValue);
+            }
+            for (String v : anchor.values) {
+                List<Integer> idxs = byValue.get(v);
+                if (idxs == null) {
+                    idxs = Lists.newArrayList();
+                    byValue.put(v, idxs);
+                }
+                idxs.add(i);
+            }
+        }
+
+        keys = byKey.keySet().toArray(new String[byKey.size()]);
+        isNameKey = new boolean[keys.length];
+        slots = new int[keys.length];
+        final ImmutableList.Builder<Map<String, int[]>> builder = ImmutableList.builder();
+        for (int k = 0; k < keys.length; ++k) {
+            isNameKey[k] = "name".equals(keys[k]);
+            slots[k] = TagView.slot(keys[k]);
+            final ImmutableMap.Builder<String, int[]> byValue = ImmutableMap.builder();
+            for (Map.Entry<String, List<Integer>> entry : byKey.get(keys[k]).entrySet()) {
+                byValue.put(entry.getKey(), Ints.toArray(entry.getValue()));
+            }
+            builder.add(byValue.build());
+        }
+        candidates = builder.build();
+        unindexed = Ints.toArray(others);
+    }
+
+    /**
+     * Create a builder for an index.
+     */
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Number of queries in the index, including the ones that can never match.
+     */
+    public int size() {
+        return queries.length;
+    }
+
+    /**
+     * Return the values for all queries matching the config in the order they were added.
+     */
+    public List<T> findMatches(MonitorConfig config) {
+        final List<T> matches = Lists.newArrayList();
+        final Cursor cursor = new Cursor(lookup(config));
+        for (int i = cursor.next(); i >= 0; i = cursor.next()) {
+            if (queries[i].apply(config)) {
+                matches.add(values.get(i));
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Return the value for the first query matching the config, or null if none match.
+     */
+    public T findFirstMatch(MonitorConfig config) {
+        final Cursor cursor = new Cursor(lookup(config));
+        for (int i = cursor.next(); i >= 0; i = cursor.next()) {
+            if (queries[i].apply(config)) {
+                return values.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if at least one of the queries matches the config.
+     */
+    public boolean matchesAny(MonitorConfig config) {
+        for (int[] idxs : lookup(config)) {
+            for (int i : idxs) {
+                if (queries[i].apply(config)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if at least one of the queries matches the tags.
+     */
+    public boolean matchesAny(Map<String, String> tags) {
+        for (int[] idxs : lookup(tags)) {
+            for (int i : idxs) {
+                if (queries[i].apply(tags)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if at least one of the queries matches the tags of the view.
+     */
+    public boolean matchesAny(TagView tags) {
+        for (int[] idxs : lookup(tags)) {
+            for (int i : idxs) {
+                if (Queries.matches(queries[i], tags)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int[][] lookup(TagView tags) {
+        final int[][] sources = new int[keys.length + 1][];
+        for (int k = 0; k < keys.length; ++k) {
+            sources[k] = get(k, tags.get(slots[k]));
+        }
+        sources[keys.length] = unindexed;
+        return sources;
+    }
+
+    private int[][] lookup(MonitorConfig config) {
+        final int[][] sources = new int[keys.length + 1][];
+        for (int k = 0; k < keys.length; ++k) {
+            final String v = isNameKey[k] ? config.getName() : config.getTags().getValue(keys[k]);
+            sources[k] = get(k, v);
+        }
+        sources[keys.length] = unindexed;
+        return sources;
+    }
+
+    private int[][] lookup(Map<String, String> tags) {
+        final int[][] sources = new int[keys.length + 1][];
+        for (int k = 0; k < keys.length; ++k) {
+            sources[k] = get(k, tags.get(keys[k]));
+        }
+        sources[keys.length] = unindexed;
+        return sources;
+    }
+
+    private int[] get(int k, String value) {
+        final int[] idxs = (value == null) ? null : candidates.get(k).get(value);
+        return (idxs == null) ? NO_CANDIDATES : idxs;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("size", queries.length)
+                .add("keys", ImmutableList.copyOf(keys))
+                .add("unindexed", unindexed.length)
+                .toString();
+    }
+
+    /**
+     * Return the anchor for a query, or null if the query could match any value of any key.
+     * An anchor without values means the query can never match.
+     */
+    private static Anchor getAnchor(Query query) {
+        if (query instanceof EqualQuery) {
+            final EqualQuery eq = (EqualQuery) query;
+            return new Anchor(eq.getKey(), ImmutableSet.of(eq.getExpectedValue()));
+        } else if (query instanceof InQuery) {
+            final InQuery in = (InQuery) query;
+            return new Anchor(in.getKey(), in.getValues());
+        } else if (query instanceof AndQuery) {
+            final AndQuery and = (AndQuery) query;
+            return and(getAnchor(and.getQ1()), getAnchor(and.getQ2()));
+        } else if (query instanceof AllQuery) {
+            Anchor anchor = null;
+            for (Query q : ((AllQuery) query).getQueries()) {
+                anchor = and(anchor, getAnchor(q));
+            }
+            return anchor;
+        } else if (query instanceof OrQuery) {
+            final OrQuery or = (OrQuery) query;
+            final Anchor a1 = getAnchor(or.getQ1());
+            final Anchor a2 = getAnchor(or.getQ2());
+            if (a1 == null || a2 == null) {
+                return null;
+            } else if (a1.isEmpty()) {
+                return a2;
+            } else if (a2.isEmpty()) {
+                return a1;
+            } else if (a1.key.equals(a2.key)) {
+                return new Anchor(a1.key, ImmutableSet.copyOf(Sets.union(a1.values, a2.values)));
+            }
+            return null;
+        } else if (query instanceof AnyQuery) {
+            Anchor anchor = new Anchor("name", ImmutableSet.<String>of());
+            for (Query q : ((AnyQuery) query).getQueries()) {
+                final Anchor a = getAnchor(q);
+                if (a == null || !(a.isEmpty() || anchor.isEmpty() || a.key.equals(anchor.key))) {
+                    return null;
+                } else if (!a.isEmpty()) {
+                    anchor = new Anchor(a.key, ImmutableSet.copyOf(Sets.union(anchor.values, a.values)));
+                }
+            }
+            return anchor;
+        } else if (query == FalseQuery.INSTANCE) {
+            return new Anchor("name", ImmutableSet.<String>of());
+        }
+        return null;
+    }
+
+    /**
+     * Combine the anchors of two queries that must both match.
+     */
+    private static Anchor and(Anchor a1, Anchor a2) {
+        if (a1 == null) {
+            return a2;
+        } else if (a2 == null) {
+            return a1;
+        } else if (a1.key.equals(a2.key)) {
+            return new Anchor(a1.key, ImmutableSet.copyOf(Sets.intersection(a1.values, a2.values)));
+        }
+        // the name is present on every config, so it is usually the most selective key
+        return a1.isEmpty() || (a1.isName() && !a2.isEmpty()) ? a1 : a2;
+    }
+
+    /**
+     * Key and set of values a config must have for a query to possibly match.
+     */
+    private static final class Anchor {
+        private final String key;
+        private final Set<String> values;
+
+        Anchor(String key, Set<String> values) {
+            this.key = key;
+            this.values = values;
+        }
+
+        boolean isName() {
+            return "name".equals(key);
+        }
+
+        boolean isEmpty() {
+            return values.isEmpty();
+        }
+    }
+
+    /**
+     * Iterates over the union of the candidate lists in ascending order. The lists are sorted
+     * and disjoint since each query has at most one anchor key.
+     */
+    private static final class Cursor {
+        private final int[][] sources;
+        private final int[] positions;
+
+        Cursor(int[][] sources) {
+            this.sources = sources;
+            this.positions = new int[sources.length];
+        }
+
+        /**
+         * Return the next candidate, or -1 if there are no more.
+         */
+        int next() {
+            int min = -1;
+            int minSource = -1;
+            for (int s = 0; s < sources.length; ++s) {
+                final int[] idxs = sources[s];
+                final int pos = positions[s];
+                if (pos < idxs.length && (min < 0 || idxs[pos] < min)) {
+                    min = idxs[pos];
+                    minSource = s;
+                }
+            }
+            if (minSource >= 0) {
+                ++positions[minSource];
+            }
+            return min;
+        }
+    }
+
+    /**
+     * Helper for creating an index.
+     */
+    public static final class Builder<T> {
+        private final List<Query> queries = Lists.newArrayList();
+        private final List<T> values = Lists.newArrayList();
+
+        private Builder() {
+        }
+
+        /**
+         * Add a query along with the value to return when it matches.
+         */
+        public Builder<T> add(Query query, T value) {
+            queries.add(Preconditions.checkNotNull(query));
+            values.add(Preconditions.checkNotNull(value));
+            return this;
+        }
+
+        /**
+         * Create the index.
+         */
+        public QueryIndex<T> build() {
+            return new QueryIndex<>(queries, values);
+        }
+    }
+}
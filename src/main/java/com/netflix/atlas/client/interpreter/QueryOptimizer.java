@@ -0,0 +1,299 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites a query into an equivalent one that is cheaper to evaluate:
+ *
+ * <ul>
+ *     <li>Nested and/or queries are flattened, and long chains are replaced with n-ary
+ *     {@link AllQuery} and {@link AnyQuery} nodes.</li>
+ *     <li>Equal and in queries on the same key are merged into a single in query, and
+ *     clauses implied by them, like has queries on the same key, are removed.</li>
+ *     <li>Contradictions such as {@code k,a,:eq,k,b,:eq,:and} are folded to false, and
+ *     tautologies to true.</li>
+ *     <li>The clauses are sorted so the cheapest and most selective ones are evaluated
+ *     first and regular expressions last.</li>
+ * </ul>
+ *
+ * <p>The string form of the result can differ from the input, so it should only be used for
+ * matching, never for labels.</p>
+ */
+final class QueryOptimizer {
+    /** Min number of clauses for using an index for an or query. */
+    static final int MIN_INDEXED_SIZE = 4;
+
+    private static final int NAME_EQ_COST = 1;
+    private static final int EQ_COST = 2;
+    private static final int IN_COST = 3;
+    private static final int HAS_COST = 4;
+    private static final int NOT_COST = 1;
+    private static final int INDEXED_COST = 8;
+    private static final int REGEX_COST = 32;
+
+    private static final Comparator<Query> BY_COST = new Comparator<Query>() {
+        @Override
+        public int compare(Query q1, Query q2) {
+            final int c1 = cost(q1);
+            final int c2 = cost(q2);
+            return (c1 < c2) ? -1 : ((c1 == c2) ? 0 : 1);
+        }
+    };
+
+    private QueryOptimizer() {
+    }
+
+    /**
+     * Return an equivalent query that is cheaper to evaluate.
+     */
+    static Query optimize(Query query) {
+        if (query instanceof AndQuery || query instanceof AllQuery) {
+            return optimizeAnd(query);
+        } else if (query instanceof OrQuery || query instanceof AnyQuery) {
+            return optimizeOr(query);
+        } else if (query instanceof NotQuery) {
+            final Query q = optimize(((NotQuery) query).getQuery());
+            return (q instanceof NotQuery) ? ((NotQuery) q).getQuery() : Queries.not(q);
+        } else if (query instanceof InQuery) {
+            final InQuery in = (InQuery) query;
+            return keyQuery(in.getKey(), in.getValues());
+        }
+        return query;
+    }
+
+    /**
+     * Estimated cost of evaluating a query. The more selective clauses are also cheaper, so
+     * sorting by cost puts the clauses that are most likely to short-circuit first.
+     */
+    static int cost(Query query) {
+        if (query instanceof EqualQuery) {
+            return ((EqualQuery) query).isNameQuery() ? NAME_EQ_COST : EQ_COST;
+        } else if (query instanceof InQuery) {
+            return IN_COST;
+        } else if (query instanceof HasKeyQuery) {
+            return HAS_COST;
+        } else if (query instanceof RegexQuery) {
+            return REGEX_COST;
+        } else if (query instanceof NotQuery) {
+            return NOT_COST + cost(((NotQuery) query).getQuery());
+        } else if (query instanceof AnyQuery) {
+            return INDEXED_COST;
+        } else if (query instanceof AndQuery || query instanceof OrQuery || query instanceof AllQuery) {
+            int sum = 0;
+            for (Query q : children(query)) {
+                sum += cost(q);
+            }
+            return sum;
+        }
+        return 0;
+    }
+
+    private static List<Query> children(Query query) {
+        if (query instanceof AndQuery) {
+            final AndQuery and = (AndQuery) query;
+            return Lists.newArrayList(and.getQ1(), and.getQ2());
+        } else if (query instanceof OrQuery) {
+            final OrQuery or = (OrQuery) query;
+            return Lists.newArrayList(or.getQ1(), or.getQ2());
+        } else if (query instanceof AllQuery) {
+            return ((AllQuery) query).getQueries();
+        } else if (query instanceof AnyQuery) {
+            return ((AnyQuery) query).getQueries();
+        }
+        return Collections.singletonList(query);
+    }
+
+    private static void addConjuncts(Query query, Set<Query> conjuncts) {
+        if (query instanceof AndQuery || query instanceof AllQuery) {
+            for (Query q : children(query)) {
+                addConjuncts(q, conjuncts);
+            }
+        } else {
+            final Query q = optimize(query);
+            if (q instanceof AndQuery || q instanceof AllQuery) {
+                conjuncts.addAll(children(q));
+            } else {
+                conjuncts.add(q);
+            }
+        }
+    }
+
+    private static void addDisjuncts(Query query, Set<Query> disjuncts) {
+        if (query instanceof OrQuery || query instanceof AnyQuery) {
+            for (Query q : children(query)) {
+                addDisjuncts(q, disjuncts);
+            }
+        } else {
+            final Query q = optimize(query);
+            if (q instanceof OrQuery || q instanceof AnyQuery) {
+                disjuncts.addAll(children(q));
+            } else {
+                disjuncts.add(q);
+            }
+        }
+    }
+
+    private static Query optimizeAnd(Query query) {
+        final Set<Query> conjuncts = Sets.newLinkedHashSet();
+        addConjuncts(query, conjuncts);
+
+        // values allowed and excluded for each key by equal and in clauses
+        final Map<String, Set<String>> allowed = Maps.newLinkedHashMap();
+        final Map<String, Set<String>> excluded = Maps.newHashMap();
+        final Set<String> present = Sets.newHashSet();
+        final Set<String> missing = Sets.newHashSet();
+        final List<Query> others = Lists.newArrayList();
+        for (Query q : conjuncts) {
+            if (q == FalseQuery.INSTANCE) {
+                return FalseQuery.INSTANCE;
+            } else if (q == TrueQuery.INSTANCE) {
+                continue;
+            }
+            final String key = getKey(q);
+            final Set<String> values = getValues(q);
+            if (values != null) {
+                final Set<String> prev = allowed.get(key);
+                allowed.put(key, (prev == null) ? values : Sets.intersection(prev, values));
+            } else if (q instanceof HasKeyQuery) {
+                present.add(key);
+            } else if (q instanceof NotQuery && getValues(((NotQuery) q).getQuery()) != null) {
+                final Query nq = ((NotQuery) q).getQuery();
+                final String nkey = getKey(nq);
+                final Set<String> prev = excluded.get(nkey);
+                excluded.put(nkey, (prev == null) ? getValues(nq) : Sets.union(prev, getValues(nq)));
+            } else if (q instanceof NotQuery && ((NotQuery) q).getQuery() instanceof HasKeyQuery) {
+                missing.add(getKey(((NotQuery) q).getQuery()));
+            } else {
+                others.add(q);
+            }
+        }
+
+        final List<Query> result = Lists.newArrayList();
+        for (Map.Entry<String, Set<String>> entry : allowed.entrySet()) {
+            final String key = entry.getKey();
+            final Set<String> exclude = excluded.remove(key);
+            final Set<String> values = (exclude == null)
+                    ? entry.getValue()
+                    : Sets.difference(entry.getValue(), exclude);
+            if (values.isEmpty() || missing.contains(key)) {
+                return FalseQuery.INSTANCE;
+            }
+            present.remove(key);
+            result.add(keyQuery(key, values));
+        }
+        for (String key : present) {
+            if (missing.contains(key)) {
+                return FalseQuery.INSTANCE;
+            }
+            result.add(new HasKeyQuery(key));
+        }
+        for (Map.Entry<String, Set<String>> entry : excluded.entrySet()) {
+            result.add(Queries.not(keyQuery(entry.getKey(), entry.getValue())));
+        }
+        for (String key : missing) {
+            result.add(Queries.not(new HasKeyQuery(key)));
+        }
+        result.addAll(others);
+
+        Collections.sort(result, BY_COST);
+        switch (result.size()) {
+            case 0:
+                return TrueQuery.INSTANCE;
+            case 1:
+                return result.get(0);
+            case 2:
+                return new AndQuery(result.get(0), result.get(1));
+            default:
+                return new AllQuery(result);
+        }
+    }
+
+    private static Query optimizeOr(Query query) {
+        final Set<Query> disjuncts = Sets.newLinkedHashSet();
+        addDisjuncts(query, disjuncts);
+
+        // values matched for each key by equal and in clauses
+        final Map<String, Set<String>> matched = Maps.newLinkedHashMap();
+        final List<Query> others = Lists.newArrayList();
+        for (Query q : disjuncts) {
+            if (q == TrueQuery.INSTANCE) {
+                return TrueQuery.INSTANCE;
+            } else if (q == FalseQuery.INSTANCE) {
+                continue;
+            }
+            final Set<String> values = getValues(q);
+            if (values != null) {
+                final String key = getKey(q);
+                final Set<String> prev = matched.get(key);
+                matched.put(key, (prev == null) ? values : Sets.union(prev, values));
+            } else {
+                others.add(q);
+            }
+        }
+
+        final List<Query> result = Lists.newArrayList();
+        for (Map.Entry<String, Set<String>> entry : matched.entrySet()) {
+            result.add(keyQuery(entry.getKey(), entry.getValue()));
+        }
+        result.addAll(others);
+
+        Collections.sort(result, BY_COST);
+        if (result.isEmpty()) {
+            return FalseQuery.INSTANCE;
+        } else if (result.size() >= MIN_INDEXED_SIZE) {
+            return new AnyQuery(result);
+        }
+        Query q = result.get(0);
+        for (int i = 1; i < result.size(); ++i) {
+            q = new OrQuery(q, result.get(i));
+        }
+        return q;
+    }
+
+    private static String getKey(Query query) {
+        return (query instanceof AbstractKeyQuery) ? ((AbstractKeyQuery) query).getKey() : null;
+    }
+
+    /**
+     * Return the values matched by an equal or in query, or null for other queries.
+     */
+    private static Set<String> getValues(Query query) {
+        if (query instanceof EqualQuery) {
+            return ImmutableSet.of(((EqualQuery) query).getExpectedValue());
+        } else if (query instanceof InQuery) {
+            return ((InQuery) query).getValues();
+        }
+        return null;
+    }
+
+    private static Query keyQuery(String key, Set<String> values) {
+        return (values.size() == 1)
+                ? new EqualQuery(key, values.iterator().next())
+                : new InQuery(key, values);
+    }
+}
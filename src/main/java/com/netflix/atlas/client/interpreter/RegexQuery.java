@@ -21,20 +21,20 @@ import com.google.common.base.Preconditions;
 import com.netflix.servo.monitor.MonitorConfig;
 
 import java.util.Map;
-import java.util.regex.Pattern;
 
 /**
  * A query that determines whether a key value matches a
- * given regular expression.
+ * given regular expression. Simple patterns like prefixes and literals are checked without
+ * the regex engine, see {@link StringMatcher}.
  */
 final class RegexQuery extends AbstractKeyQuery {
     private final String v;
-    private final Pattern p;
+    private final StringMatcher matcher;
 
     RegexQuery(String k, String v) {
         super(k);
         this.v = Preconditions.checkNotNull(v);
-        this.p = Pattern.compile(v);
+        this.matcher = StringMatcher.forRegex(v);
     }
 
     @Override
@@ -45,13 +45,19 @@ final class RegexQuery extends AbstractKeyQuery {
     @Override
     public boolean apply(Map<String, String> tags) {
         final String value = tags.get(getKey());
-        return (value != null) && p.matcher(value).find();
+        return (value != null) && matcher.matches(value);
     }
 
     @Override
     public boolean apply(MonitorConfig config) {
         final String s = getValue(config);
-        return (s != null) && p.matcher(s).find();
+        return (s != null) && matcher.matches(s);
+    }
+
+    @Override
+    public boolean apply(TagView tags) {
+        final String s = getValue(tags);
+        return (s != null) && matcher.matches(s);
     }
 
     @Override
@@ -64,8 +64,20 @@ final class RollingCount {
         }
     }
 
-    void update(boolean result) {
-        getState().update(result);
+    /**
+     * Add a result and return the updated count.
+     */
+    double update(boolean result) {
+        final State state = getState();
+        state.update(result);
+        return state.getValue();
+    }
+
+    /**
+     * Remove the state kept in the context for this count.
+     */
+    void clear() {
+        context.removeState(label);
     }
 
     double getValue() {
@@ -99,31 +111,37 @@ final class RollingCount {
     }
 
     /**
-     * State for RollingCount.
+     * State for RollingCount. The results for the last period steps are kept in a ring of bits
+     * along with the number of bits that are set, so updating and reading the count are O(1).
      */
     @VisibleForTesting
     static class State {
-        private final boolean[] values;
+        private static final int ADDRESS_BITS = 6;
+
+        private final long[] words;
+        private final int period;
         private int pos;
+        private int count;
 
         State(int period) {
-            values = new boolean[period];
-            Arrays.fill(values, false);
+            this.period = period;
+            words = new long[((period - 1) >> ADDRESS_BITS) + 1];
             pos = 0;
+            count = 0;
         }
 
         void update(boolean result) {
-            int idx = pos++ % values.length;
-            values[idx] = result;
+            final int idx = pos >> ADDRESS_BITS;
+            final long mask = 1L << pos;
+            final boolean previous = (words[idx] & mask) != 0;
+            if (previous != result) {
+                words[idx] ^= mask;
+                count += result ? 1 : -1;
+            }
+            pos = (pos + 1 == period) ? 0 : pos + 1;
         }
 
         double getValue() {
-            int count = 0;
-            for (boolean b : values) {
-                if (b) {
-                    ++count;
-                }
-            }
             return count;
         }
 
@@ -137,18 +155,19 @@ final class RollingCount {
             }
 
             State state = (State) o;
-            return pos == state.pos && Arrays.equals(values, state.values);
+            return pos == state.pos && period == state.period && Arrays.equals(words, state.words);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hashCode(values, pos);
+            return Objects.hashCode(Arrays.hashCode(words), period, pos);
         }
 
         @Override
         public String toString() {
             return Objects.toStringHelper(this)
-                    .add("values", values)
+                    .add("count", count)
+                    .add("period", period)
                     .add("pos", pos)
                     .toString();
         }
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.servo.Metric;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Evaluates the aggregates of an expression tree with a single pass over the metrics. The
+ * aggregate functions and group by expressions in the tree are collected when the scan is
+ * created, and every metric is fed to all of them. Identical aggregates are only computed
+ * once, and the filters shared by several aggregates are only evaluated once per metric.
+ * The filters and group by keys read the tags through a {@link TagView}, so each tag of a
+ * metric is looked up at most once. The composite expressions then get the results for their
+ * children from the scan.
+ *
+ * <p>For large inputs the metrics can be split into chunks that are scanned in parallel, the
+ * partial aggregates are then merged. A scan is not thread safe, each task uses its own.</p>
+ */
+final class Scan {
+    private final List<Metric> updates;
+    private final Map<Expression, AfSink> aggregates = Maps.newHashMap();
+    private final Map<Expression, GroupSink> groups = Maps.newHashMap();
+    private final List<Sink> sinks = Lists.newArrayList();
+    private final List<Query> filters = Lists.newArrayList();
+    private final Map<Query, Integer> filterIds = Maps.newHashMap();
+
+    // filter results for the current metric, a filter has been evaluated for the metric
+    // if its position in evaluatedAt is the current row
+    private int[] evaluatedAt;
+    private boolean[] matched;
+    private int row;
+
+    private Scan(List<Metric> updates) {
+        this.updates = updates;
+    }
+
+    /**
+     * Create a scan computing all the aggregates of an expression over the metrics.
+     */
+    static Scan create(Expression root, List<Metric> updates) {
+        final Scan scan = new Scan(updates);
+        scan.collect(root);
+        scan.run(updates);
+        return scan;
+    }
+
+    /**
+     * Create a scan where the metrics are split into chunks of at most {@code threshold}
+     * metrics that are scanned in parallel using the pool. The partial results are merged in
+     * the order of the chunks, so the result only depends on the input and the threshold.
+     */
+    static Scan create(Expression root, List<Metric> updates, ForkJoinPool pool, int threshold) {
+        if (updates.size() <= threshold) {
+            return create(root, updates);
+        }
+        return pool.invoke(new ScanTask(root, updates, 0, updates.size(), threshold));
+    }
+
+    private void collect(Expression e) {
+        if (e instanceof CompositeExpression) {
+            for (Expression child : ((CompositeExpression<?>) e).getChildren()) {
+                collect(child);
+            }
+        } else if (e instanceof AbstractAf) {
+            if (!aggregates.containsKey(e)) {
+                final AbstractAf af = (AbstractAf) e;
+                final AfSink sink = new AfSink(af, filterId(af));
+                aggregates.put(e, sink);
+                sinks.add(sink);
+            }
+        } else if (e instanceof GroupBy) {
+            if (!groups.containsKey(e)) {
+                final GroupBy groupBy = (GroupBy) e;
+                final GroupSink sink = (groupBy.getExpression() instanceof AbstractAf)
+                        ? new AfGroupSink(groupBy)
+                        : new ListGroupSink(groupBy);
+                groups.put(e, sink);
+                sinks.add(sink);
+            }
+        }
+    }
+
+    private int filterId(AbstractAf af) {
+        final Query filter = af.getFilter();
+        Integer id = filterIds.get(filter);
+        if (id == null) {
+            id = filters.size();
+            filters.add(af.getOptimizedFilter());
+            filterIds.put(filter, id);
+        }
+        return id;
+    }
+
+    private void run(List<Metric> metrics) {
+        if (sinks.isEmpty()) {
+            return;
+        }
+        evaluatedAt = new int[filters.size()];
+        Arrays.fill(evaluatedAt, -1);
+        matched = new boolean[filters.size()];
+
+        final Sink[] all = sinks.toArray(new Sink[sinks.size()]);
+        TagView tags = null;
+        row = 0;
+        for (Metric m : metrics) {
+            if (tags == null) {
+                tags = new TagView(m.getConfig());
+            } else {
+                tags.reset(m.getConfig());
+            }
+            final double v = Utils.hasNumber(m) ? m.getNumberValue().doubleValue() : Double.NaN;
+            for (Sink sink : all) {
+                sink.update(m, tags, v);
+            }
+            ++row;
+        }
+    }
+
+    /**
+     * Merge the partial results of a scan for the same expression over other metrics.
+     */
+    private void merge(Scan other) {
+        for (int i = 0; i < sinks.size(); ++i) {
+            sinks.get(i).merge(other.sinks.get(i));
+        }
+    }
+
+    private boolean matches(int filterId, TagView tags) {
+        if (evaluatedAt[filterId] != row) {
+            matched[filterId] = Queries.matches(filters.get(filterId), tags);
+            evaluatedAt[filterId] = row;
+        }
+        return matched[filterId];
+    }
+
+    /**
+     * Return the result of a value expression.
+     */
+    double value(ValueExpression e) {
+        final AfSink sink = aggregates.get(e);
+        if (sink != null) {
+            return sink.result();
+        } else if (e instanceof CompositeExpression) {
+            return (Double) ((CompositeExpression<?>) e).apply(this);
+        }
+        return e.apply(updates);
+    }
+
+    /**
+     * Return the result of a list value expression.
+     */
+    @SuppressWarnings("unchecked")
+    Map<List<String>, LabeledResult> list(ListValueExpression e) {
+        final GroupSink sink = groups.get(e);
+        if (sink != null) {
+            return sink.result();
+        } else if (e instanceof CompositeExpression) {
+            return (Map<List<String>, LabeledResult>) ((CompositeExpression<?>) e).apply(this);
+        }
+        return e.apply(updates);
+    }
+
+    /**
+     * Receives each metric of the scan.
+     */
+    private interface Sink {
+        /**
+         * Update with a metric. The value is NaN if the metric does not have a number value.
+         */
+        void update(Metric m, TagView tags, double v);
+
+        /**
+         * Merge the state of a sink of the same type that was updated with other metrics.
+         */
+        void merge(Sink other);
+    }
+
+    private final class AfSink implements Sink {
+        private final AbstractAf af;
+        private final int filterId;
+        private double aggregate;
+        private int count;
+
+        AfSink(AbstractAf af, int filterId) {
+            this.af = af;
+            this.filterId = filterId;
+            this.aggregate = af.initial();
+        }
+
+        @Override
+        public void update(Metric m, TagView tags, double v) {
+            if (!Double.isNaN(v) && matches(filterId, tags)) {
+                aggregate = af.combine(aggregate, v);
+                ++count;
+            }
+        }
+
+        @Override
+        public void merge(Sink other) {
+            final AfSink sink = (AfSink) other;
+            if (sink.count > 0) {
+                aggregate = (count > 0) ? af.combine(aggregate, sink.aggregate) : sink.aggregate;
+                count += sink.count;
+            }
+        }
+
+        double result() {
+            return af.result(aggregate, count);
+        }
+    }
+
+    private abstract static class GroupSink implements Sink {
+        private final GroupBy groupBy;
+        private final GroupKeys keys = new GroupKeys();
+        private final String[] values;
+        private Map<List<String>, LabeledResult> result;
+
+        GroupSink(GroupBy groupBy) {
+            this.groupBy = groupBy;
+            this.values = new String[groupBy.getKeys().size()];
+        }
+
+        /**
+         * Return the id of the group for a config, or -1 if the config is missing one of the
+         * group by keys.
+         */
+        int groupId(TagView tags) {
+            return groupBy.getGroupValues(tags, values) ? keys.intern(values) : -1;
+        }
+
+        /**
+         * Merge the groups of another sink. For each group of the other sink, in order, the
+         * id of the group in this sink and the id in the other sink are passed to
+         * {@link #merge(int, GroupSink, int)}.
+         */
+        @Override
+        public void merge(Sink other) {
+            final GroupSink sink = (GroupSink) other;
+            for (int otherId = 0; otherId < sink.keys.size(); ++otherId) {
+                merge(keys.intern(sink.keys.get(otherId)), sink, otherId);
+            }
+        }
+
+        abstract void merge(int id, GroupSink other, int otherId);
+
+        /**
+         * Compute the value for a group.
+         */
+        abstract double value(int id);
+
+        Map<List<String>, LabeledResult> result() {
+            if (result == null) {
+                result = Maps.newHashMapWithExpectedSize(keys.size());
+                for (int id = 0; id < keys.size(); ++id) {
+                    final GroupKey key = keys.get(id);
+                    result.put(key, groupBy.newResult(key, value(id)));
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Group by on an aggregate function. The values are folded into the aggregate for each
+     * group, so the metrics do not need to be kept.
+     */
+    private final class AfGroupSink extends GroupSink {
+        private final GroupAggregates aggregates;
+        private final int filterId;
+
+        AfGroupSink(GroupBy groupBy) {
+            super(groupBy);
+            final AbstractAf af = (AbstractAf) groupBy.getExpression();
+            this.aggregates = new GroupAggregates(af);
+            this.filterId = filterId(af);
+        }
+
+        @Override
+        public void update(Metric m, TagView tags, double v) {
+            final int id = groupId(tags);
+            if (id < 0) {
+                return;
+            }
+            // groups are created even if no metric matches the filter, in which case
+            // the value for the group is NaN
+            aggregates.ensureGroup(id);
+            if (!Double.isNaN(v) && matches(filterId, tags)) {
+                aggregates.add(id, v);
+            }
+        }
+
+        @Override
+        void merge(int id, GroupSink other, int otherId) {
+            aggregates.ensureGroup(id);
+            aggregates.merge(id, ((AfGroupSink) other).aggregates, otherId);
+        }
+
+        @Override
+        double value(int id) {
+            return aggregates.result(id);
+        }
+    }
+
+    /**
+     * Group by on an arbitrary expression. The metrics are collected for each group and the
+     * expression is applied to them at the end.
+     */
+    private static final class ListGroupSink extends GroupSink {
+        private final ValueExpression expression;
+        private final List<List<Metric>> metrics = Lists.newArrayList();
+
+        ListGroupSink(GroupBy groupBy) {
+            super(groupBy);
+            this.expression = groupBy.getExpression();
+        }
+
+        @Override
+        public void update(Metric m, TagView tags, double v) {
+            final int id = groupId(tags);
+            if (id < 0) {
+                return;
+            }
+            metricsForGroup(id).add(m);
+        }
+
+        @Override
+        void merge(int id, GroupSink other, int otherId) {
+            metricsForGroup(id).addAll(((ListGroupSink) other).metrics.get(otherId));
+        }
+
+        private List<Metric> metricsForGroup(int id) {
+            if (id == metrics.size()) {
+                metrics.add(Lists.<Metric>newArrayList());
+            }
+            return metrics.get(id);
+        }
+
+        @Override
+        double value(int id) {
+            return expression.apply(metrics.get(id));
+        }
+    }
+
+    /**
+     * Scans a range of the metrics, splitting it in two halves if it is above the threshold.
+     */
+    private static final class ScanTask extends RecursiveTask<Scan> {
+        private static final long serialVersionUID = 1L;
+
+        private final Expression root;
+        private final List<Metric> updates;
+        private final int start;
+        private final int end;
+        private final int threshold;
+
+        ScanTask(Expression root, List<Metric> updates, int start, int end, int threshold) {
+            this.root = root;
+            this.updates = updates;
+            this.start = start;
+            this.end = end;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected Scan compute() {
+            if (end - start <= threshold) {
+                final Scan scan = new Scan(updates);
+                scan.collect(root);
+                scan.run(updates.subList(start, end));
+                return scan;
+            }
+            final int mid = (start + end) >>> 1;
+            final ScanTask left = new ScanTask(root, updates, start, mid, threshold);
+            final ScanTask right = new ScanTask(root, updates, mid, end, threshold);
+            left.fork();
+            final Scan rightScan = right.compute();
+            final Scan scan = left.join();
+            scan.merge(rightScan);
+            return scan;
+        }
+    }
+}
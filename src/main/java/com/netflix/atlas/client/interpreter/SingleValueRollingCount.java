@@ -18,6 +18,7 @@ package com.netflix.atlas.client.interpreter;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.netflix.servo.Metric;
 
 import java.util.List;
@@ -25,7 +26,7 @@ import java.util.List;
 /**
  * Rolling count that applies to a valueExpression.
  */
-final class SingleValueRollingCount implements ValueExpression {
+final class SingleValueRollingCount implements ValueExpression, CompositeExpression<Double> {
     private final ValueExpression expression;
     private final RollingCount rollingCount;
     private final Context context;
@@ -38,8 +39,17 @@ final class SingleValueRollingCount implements ValueExpression {
 
     @Override
     public double apply(List<Metric> updates) {
-        rollingCount.update(Utils.isTrue(expression.apply(updates)));
-        return rollingCount.getValue();
+        return apply(Scan.create(this, updates));
+    }
+
+    @Override
+    public List<Expression> getChildren() {
+        return ImmutableList.<Expression>of(expression);
+    }
+
+    @Override
+    public Double apply(Scan scan) {
+        return rollingCount.update(Utils.isTrue(scan.value(expression)));
     }
 
     @Override
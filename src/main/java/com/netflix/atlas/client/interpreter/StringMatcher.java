@@ -0,0 +1,439 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Chars;
+import com.google.common.primitives.Ints;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Checks whether a string contains a match for a regular expression, with the same result as
+ * {@code Pattern.compile(regex).matcher(s).find()}. Common patterns are detected when the
+ * matcher is created and checked without the regex engine:
+ *
+ * <ul>
+ *     <li>{@code ^abc}: starts with</li>
+ *     <li>{@code abc$}: ends with</li>
+ *     <li>{@code ^abc$}: equals</li>
+ *     <li>{@code abc}: contains</li>
+ *     <li>{@code ^(a|b)}, {@code (a|b)$}, {@code ^(a|b)$}: the same checks for each
+ *     alternative</li>
+ *     <li>{@code a|b|c}: contains any, using an Aho-Corasick automaton</li>
+ * </ul>
+ *
+ * <p>A leading or trailing {@code .*} is ignored when it cannot change the result. Other
+ * patterns use {@link Pattern}, and the results are memoized for up to {@link #MAX_MEMO_SIZE}
+ * values since the same tag values are checked on every polling cycle. Once the memo is full
+ * new values are not added, so a large set of distinct values does not cause churn.</p>
+ */
+abstract class StringMatcher {
+    /** Max number of values for which the result of a regex is memoized. */
+    static final int MAX_MEMO_SIZE = 1000;
+
+    private static final String META_CHARS = "\\.[]{}()*+?^$|";
+
+    /**
+     * Returns true if the string contains a match.
+     */
+    abstract boolean matches(String s);
+
+    /**
+     * Create a matcher for a regular expression.
+     */
+    static StringMatcher forRegex(String regex) {
+        final Pattern pattern = Pattern.compile(regex);
+        final StringMatcher matcher = analyze(regex, pattern);
+        return (matcher == null) ? new RegexMatcher(pattern) : matcher;
+    }
+
+    /**
+     * Return a matcher that does not need the regex engine, or null if the pattern is not
+     * one of the supported forms.
+     */
+    private static StringMatcher analyze(String regex, Pattern pattern) {
+        String body = regex;
+        final boolean startAnchored = body.startsWith("^");
+        if (startAnchored) {
+            body = body.substring(1);
+        }
+        final boolean endAnchored = body.endsWith("$") && !isEscaped(body, body.length() - 1);
+        if (endAnchored) {
+            body = body.substring(0, body.length() - 1);
+        }
+
+        // "." does not match line terminators, so the wildcards can only be dropped when
+        // there is no anchor on the same side
+        if (!startAnchored && body.startsWith(".*")) {
+            body = body.substring(2);
+        }
+        if (!endAnchored && body.endsWith(".*") && !isEscaped(body, body.length() - 2)) {
+            body = body.substring(0, body.length() - 2);
+        }
+
+        final List<String> alternatives;
+        if (isGroup(body)) {
+            final int start = body.startsWith("(?:") ? 3 : 1;
+            alternatives = split(body.substring(start, body.length() - 1));
+        } else if (!startAnchored && !endAnchored) {
+            alternatives = split(body);
+        } else {
+            alternatives = Lists.newArrayList(body);
+        }
+
+        final List<String> literals = Lists.newArrayList();
+        for (String alt : alternatives) {
+            final String literal = literal(alt);
+            if (literal == null) {
+                return null;
+            }
+            literals.add(literal);
+        }
+
+        if (startAnchored && endAnchored) {
+            return new EqualsMatcher(literals, pattern);
+        } else if (startAnchored) {
+            return new PrefixMatcher(literals);
+        } else if (endAnchored) {
+            return new SuffixMatcher(literals, pattern);
+        } else if (literals.size() == 1) {
+            return new ContainsMatcher(literals.get(0));
+        }
+        return new AhoCorasickMatcher(literals);
+    }
+
+    /**
+     * Returns true if the body is a single group without nested groups.
+     */
+    private static boolean isGroup(String body) {
+        if (body.length() < 2 || body.charAt(0) != '(' || body.charAt(body.length() - 1) != ')'
+                || isEscaped(body, body.length() - 1)) {
+            return false;
+        }
+        if (body.charAt(1) == '?' && !body.startsWith("(?:")) {
+            return false;
+        }
+        final int start = body.startsWith("(?:") ? 3 : 1;
+        for (int i = start; i < body.length() - 1; ++i) {
+            final char c = body.charAt(i);
+            if ((c == '(' || c == ')') && !isEscaped(body, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split on the unescaped pipes.
+     */
+    private static List<String> split(String body) {
+        final List<String> parts = Lists.newArrayList();
+        int start = 0;
+        for (int i = 0; i < body.length(); ++i) {
+            if (body.charAt(i) == '|' && !isEscaped(body, i)) {
+                parts.add(body.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(body.substring(start));
+        return parts;
+    }
+
+    /**
+     * Returns true if the char at the given position is preceded by an odd number of
+     * backslashes.
+     */
+    private static boolean isEscaped(String s, int pos) {
+        int n = 0;
+        for (int i = pos - 1; i >= 0 && s.charAt(i) == '\\'; --i) {
+            ++n;
+        }
+        return n % 2 == 1;
+    }
+
+    /**
+     * Return the string matched by a pattern without meta characters, or null if the
+     * pattern has some. Escaped punctuation is allowed.
+     */
+    private static String literal(String p) {
+        final StringBuilder builder = new StringBuilder(p.length());
+        for (int i = 0; i < p.length(); ++i) {
+            char c = p.charAt(i);
+            if (c == '\\') {
+                if (i + 1 == p.length()) {
+                    return null;
+                }
+                c = p.charAt(++i);
+                if (Character.isLetterOrDigit(c) || c > 0x7F) {
+                    return null;
+                }
+            } else if (META_CHARS.indexOf(c) >= 0) {
+                return null;
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns true if "$" could match before a line terminator at the end of the string, in
+     * which case the regex engine is used to get the same result.
+     */
+    private static boolean endsWithLineTerminator(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        final char c = s.charAt(s.length() - 1);
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Uses the regex engine and memoizes the results.
+     */
+    private static final class RegexMatcher extends StringMatcher {
+        private final Pattern pattern;
+        private final ConcurrentMap<String, Boolean> memo = new ConcurrentHashMap<>();
+
+        RegexMatcher(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        boolean matches(String s) {
+            Boolean result = memo.get(s);
+            if (result == null) {
+                result = pattern.matcher(s).find();
+                if (memo.size() < MAX_MEMO_SIZE) {
+                    memo.put(s, result);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("pattern", pattern).toString();
+        }
+    }
+
+    private static final class ContainsMatcher extends StringMatcher {
+        private final String literal;
+
+        ContainsMatcher(String literal) {
+            this.literal = literal;
+        }
+
+        @Override
+        boolean matches(String s) {
+            return s.contains(literal);
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("literal", literal).toString();
+        }
+    }
+
+    private static final class PrefixMatcher extends StringMatcher {
+        private final String[] prefixes;
+
+        PrefixMatcher(List<String> prefixes) {
+            this.prefixes = prefixes.toArray(new String[prefixes.size()]);
+        }
+
+        @Override
+        boolean matches(String s) {
+            for (String prefix : prefixes) {
+                if (s.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("prefixes", prefixes).toString();
+        }
+    }
+
+    private static final class SuffixMatcher extends StringMatcher {
+        private final String[] suffixes;
+        private final Pattern pattern;
+
+        SuffixMatcher(List<String> suffixes, Pattern pattern) {
+            this.suffixes = suffixes.toArray(new String[suffixes.size()]);
+            this.pattern = pattern;
+        }
+
+        @Override
+        boolean matches(String s) {
+            if (endsWithLineTerminator(s)) {
+                return pattern.matcher(s).find();
+            }
+            for (String suffix : suffixes) {
+                if (s.endsWith(suffix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("suffixes", suffixes).toString();
+        }
+    }
+
+    private static final class EqualsMatcher extends StringMatcher {
+        private final Set<String> values;
+        private final Pattern pattern;
+
+        EqualsMatcher(List<String> values, Pattern pattern) {
+            this.values = ImmutableSet.copyOf(values);
+            this.pattern = pattern;
+        }
+
+        @Override
+        boolean matches(String s) {
+            return endsWithLineTerminator(s) ? pattern.matcher(s).find() : values.contains(s);
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("values", values).toString();
+        }
+    }
+
+    /**
+     * Checks if a string contains any of a set of literals in a single pass over the string.
+     */
+    private static final class AhoCorasickMatcher extends StringMatcher {
+        private final List<String> literals;
+        private final char[][] labels;
+        private final int[][] targets;
+        private final int[] failure;
+        private final boolean[] output;
+
+        AhoCorasickMatcher(List<String> literals) {
+            this.literals = literals;
+
+            // trie of the literals
+            final List<List<Character>> nodeLabels = Lists.newArrayList();
+            final List<List<Integer>> nodeTargets = Lists.newArrayList();
+            final List<Boolean> terminal = Lists.newArrayList();
+            nodeLabels.add(Lists.<Character>newArrayList());
+            nodeTargets.add(Lists.<Integer>newArrayList());
+            terminal.add(false);
+            for (String literal : literals) {
+                int node = 0;
+                for (int i = 0; i < literal.length(); ++i) {
+                    final int idx = nodeLabels.get(node).indexOf(literal.charAt(i));
+                    if (idx >= 0) {
+                        node = nodeTargets.get(node).get(idx);
+                    } else {
+                        final int next = nodeLabels.size();
+                        nodeLabels.add(Lists.<Character>newArrayList());
+                        nodeTargets.add(Lists.<Integer>newArrayList());
+                        terminal.add(false);
+                        nodeLabels.get(node).add(literal.charAt(i));
+                        nodeTargets.get(node).add(next);
+                        node = next;
+                    }
+                }
+                terminal.set(node, true);
+            }
+
+            final int size = nodeLabels.size();
+            labels = new char[size][];
+            targets = new int[size][];
+            output = new boolean[size];
+            for (int n = 0; n < size; ++n) {
+                labels[n] = Chars.toArray(nodeLabels.get(n));
+                targets[n] = Ints.toArray(nodeTargets.get(n));
+                output[n] = terminal.get(n);
+            }
+
+            // failure links in breadth first order, so the link of the parent is set first
+            failure = new int[size];
+            final Deque<Integer> queue = new ArrayDeque<>();
+            for (int t : targets[0]) {
+                queue.add(t);
+            }
+            while (!queue.isEmpty()) {
+                final int node = queue.poll();
+                for (int i = 0; i < labels[node].length; ++i) {
+                    final int child = targets[node][i];
+                    int f = failure[node];
+                    int next = transition(f, labels[node][i]);
+                    while (next < 0 && f != 0) {
+                        f = failure[f];
+                        next = transition(f, labels[node][i]);
+                    }
+                    failure[child] = (next < 0) ? 0 : next;
+                    output[child] |= output[failure[child]];
+                    queue.add(child);
+                }
+            }
+        }
+
+        private int transition(int node, char c) {
+            final char[] cs = labels[node];
+            for (int i = 0; i < cs.length; ++i) {
+                if (cs[i] == c) {
+                    return targets[node][i];
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        boolean matches(String s) {
+            if (output[0]) {
+                return true;
+            }
+            int node = 0;
+            for (int i = 0; i < s.length(); ++i) {
+                final char c = s.charAt(i);
+                int next = transition(node, c);
+                while (next < 0 && node != 0) {
+                    node = failure[node];
+                    next = transition(node, c);
+                }
+                node = (next < 0) ? 0 : next;
+                if (output[node]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("literals", literals).toString();
+        }
+    }
+}
@@ -16,30 +16,24 @@
 
 package com.netflix.atlas.client.interpreter;
 
-import com.netflix.servo.Metric;
-
-import java.util.List;
-
 final class SumAf extends AbstractAf {
     SumAf(Query filter) {
         super("SUM", filter);
     }
 
     @Override
-    public double apply(List<Metric> updates) {
-        double res = Double.NaN;
-        for (Metric m : updates) {
-            if (Utils.hasNumber(m) && matches(m.getConfig())) {
-                double d = m.getNumberValue().doubleValue();
-                if (Double.isNaN(res)) {
-                    res = d;
-                } else {
-                    res += d;
-                }
-            }
-        }
+    double initial() {
+        return Double.NaN;
+    }
 
-        return res;
+    @Override
+    double combine(double aggregate, double v) {
+        return Double.isNaN(aggregate) ? v : aggregate + v;
+    }
+
+    @Override
+    double result(double aggregate, int count) {
+        return aggregate;
     }
 
     @Override
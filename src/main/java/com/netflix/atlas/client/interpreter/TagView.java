@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.netflix.servo.monitor.MonitorConfig;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * View of the tags of a config for evaluating queries. Each key used by a query is assigned
+ * a slot when the query is created, and the value for a slot is looked up in the config the
+ * first time it is needed and then kept in an array. When many queries check the same keys
+ * for a metric, for example the filters of an expression or the rules of a rollup config,
+ * each tag is only looked up once.
+ *
+ * <p>A view is not thread safe. It can be reused for several configs with
+ * {@link #reset(MonitorConfig)}, which is O(1).</p>
+ */
+public final class TagView {
+    /** Slot for the name of the config. */
+    static final int NAME_SLOT = 0;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // slots are shared by all queries, so views can be used for any query. Entries are never
+    // removed: the registry grows with the number of distinct keys that appear in the queries
+    // created by the process, not with the number of metrics or tag values. The keys come from
+    // the expressions, rollup rules and filters in the configuration, so the set stays small
+    // even when the configuration is reloaded many times. A key costs one map entry here and
+    // one array element in the views that look it up.
+    private static final ConcurrentMap<String, Integer> SLOTS = new ConcurrentHashMap<>();
+    private static final List<String> KEYS = new CopyOnWriteArrayList<>();
+
+    static {
+        slot("name");
+    }
+
+    private MonitorConfig config;
+    private String[] values = new String[INITIAL_CAPACITY];
+    private int[] resolvedAt = new int[INITIAL_CAPACITY];
+    private int generation;
+
+    /**
+     * Create a view for a config.
+     */
+    public TagView(MonitorConfig config) {
+        reset(config);
+    }
+
+    /**
+     * Return the slot for a key, assigning a new one if the key has not been seen before. The
+     * slot stays assigned for the life of the process, so this should only be called with the
+     * keys of queries and never with keys taken from the metrics.
+     */
+    static int slot(String key) {
+        final Integer slot = SLOTS.get(key);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (KEYS) {
+            Integer s = SLOTS.get(key);
+            if (s == null) {
+                s = KEYS.size();
+                KEYS.add(key);
+                SLOTS.put(key, s);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Update the view to use another config.
+     */
+    public void reset(MonitorConfig config) {
+        this.config = Preconditions.checkNotNull(config);
+        ++generation;
+        if (generation == 0) {
+            // overflow, the stamps could match the new generation
+            Arrays.fill(resolvedAt, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * The config for the view.
+     */
+    public MonitorConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Return the value of the key for a slot, or null if the config does not have the key.
+     */
+    String get(int slot) {
+        if (slot >= values.length) {
+            final int capacity = Math.max(slot + 1, KEYS.size());
+            values = Arrays.copyOf(values, capacity);
+            resolvedAt = Arrays.copyOf(resolvedAt, capacity);
+        }
+        if (resolvedAt[slot] != generation) {
+            values[slot] = (slot == NAME_SLOT)
+                    ? config.getName()
+                    : config.getTags().getValue(KEYS.get(slot));
+            resolvedAt[slot] = generation;
+        }
+        return values[slot];
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("config", config).toString();
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client.interpreter;
+
+/**
+ * Query that can be evaluated directly against a {@link TagView}. This is implemented by the
+ * queries of this package only, {@link Queries#matches(Query, TagView)} falls back to the
+ * config of the view for other implementations of {@link Query}.
+ */
+interface TagViewQuery extends Query {
+
+    /**
+     * Returns true if the tags of the view match the query expression. This is the same as
+     * using the config of the view, but the tag values are looked up only once per view.
+     */
+    boolean apply(TagView tags);
+}
@@ -23,7 +23,7 @@ import java.util.Map;
 /**
  * A query that always succeeds.
  */
-public enum TrueQuery implements Query {
+public enum TrueQuery implements TagViewQuery {
     /** Singleton representing a query that always succeeds. */
     INSTANCE;
 
@@ -37,6 +37,11 @@ public enum TrueQuery implements Query {
         return true;
     }
 
+    @Override
+    public boolean apply(TagView tags) {
+        return true;
+    }
+
     @Override
     public String toString() {
         return ":true";
@@ -18,6 +18,7 @@ package com.netflix.atlas.client.interpreter;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.netflix.servo.Metric;
 
 import java.util.List;
@@ -25,7 +26,7 @@ import java.util.List;
 /**
  * Unary operation on a single scalar value.
  */
-final class ValueUnaryOp implements ValueExpression {
+final class ValueUnaryOp implements ValueExpression, CompositeExpression<Double> {
     private final ValueExpression a;
     private final UnaryOp op;
     ValueUnaryOp(ValueExpression a, UnaryOp op) {
@@ -44,7 +45,17 @@ final class ValueUnaryOp implements ValueExpression {
 
     @Override
     public double apply(List<Metric> updates) {
-        return op.apply(a.apply(updates));
+        return apply(Scan.create(this, updates));
+    }
+
+    @Override
+    public List<Expression> getChildren() {
+        return ImmutableList.<Expression>of(a);
+    }
+
+    @Override
+    public Double apply(Scan scan) {
+        return op.apply(scan.value(a));
     }
 
     @Override
@@ -18,6 +18,7 @@ package com.netflix.atlas.client.interpreter;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.netflix.servo.Metric;
 
 import java.util.List;
@@ -25,7 +26,7 @@ import java.util.List;
 /**
  * A binary operation that operates on two scalar values (ValueExpressions).
  */
-final class ValueValueRelOp implements ValueExpression {
+final class ValueValueRelOp implements ValueExpression, CompositeExpression<Double> {
     private final ValueExpression a;
     private final ValueExpression b;
     private final BinOp op;
@@ -68,8 +69,18 @@ final class ValueValueRelOp implements ValueExpression {
 
     @Override
     public double apply(List<Metric> updates) {
-        double aVal = a.apply(updates);
-        double bVal = b.apply(updates);
+        return apply(Scan.create(this, updates));
+    }
+
+    @Override
+    public List<Expression> getChildren() {
+        return ImmutableList.<Expression>of(a, b);
+    }
+
+    @Override
+    public Double apply(Scan scan) {
+        double aVal = scan.value(a);
+        double bVal = scan.value(b);
         return op.apply(aVal, bVal);
     }
 
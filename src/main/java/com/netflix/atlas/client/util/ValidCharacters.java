@@ -17,12 +17,15 @@
 package com.netflix.atlas.client.util;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.netflix.servo.Metric;
 import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.BasicTagList;
 import com.netflix.servo.tag.Tag;
+import com.netflix.servo.tag.TagList;
 
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
 
 /**
  * Utility class to deal with rewriting keys/values to the valid character set.
@@ -31,17 +34,61 @@ public final class ValidCharacters {
     /**
      * Only allow letters, numbers, underscores, dashes and dots in our identifiers.
      */
-    private static final Pattern INVALID_CHARS = Pattern.compile("[^a-zA-Z0-9_\\-\\.]");
+    private static final boolean[] VALID_CHARS = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; ++c) {
+            VALID_CHARS[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; ++c) {
+            VALID_CHARS[c] = true;
+        }
+        for (char c = '0'; c <= '9'; ++c) {
+            VALID_CHARS[c] = true;
+        }
+        VALID_CHARS['_'] = true;
+        VALID_CHARS['-'] = true;
+        VALID_CHARS['.'] = true;
+    }
 
     private ValidCharacters() {
         // utility class
     }
 
+    private static boolean isValid(int c) {
+        return c < VALID_CHARS.length && VALID_CHARS[c];
+    }
+
     /**
-     * Convert a given string to one where all characters are valid.
+     * Check if all characters of a given string are valid.
+     */
+    public static boolean hasValidCharset(String str) {
+        final int length = str.length();
+        for (int i = 0; i < length; ++i) {
+            if (!isValid(str.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Convert a given string to one where all characters are valid. Each invalid code point
+     * is replaced with an underscore. Strings that are already valid are returned as is.
      */
     public static String toValidCharset(String str) {
-        return INVALID_CHARS.matcher(str).replaceAll("_");
+        if (hasValidCharset(str)) {
+            return str;
+        }
+        final int length = str.length();
+        final StringBuilder buf = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            final int cp = str.codePointAt(i);
+            buf.append(isValid(cp) ? (char) cp : '_');
+            i += Character.charCount(cp);
+        }
+        return buf.toString();
     }
 
     /**
@@ -49,13 +96,46 @@ public final class ValidCharacters {
      * set.
      */
     public static Metric toValidValue(Metric metric) {
-        MonitorConfig cfg = metric.getConfig();
+        return new Metric(toValidConfig(metric.getConfig()), metric.getTimestamp(), metric.getValue());
+    }
+
+    /**
+     * Return a config where the name and all tags are using the valid character set. If the
+     * config is already valid it will be returned as is.
+     */
+    public static MonitorConfig toValidConfig(MonitorConfig cfg) {
+        if (hasValidCharset(cfg)) {
+            return cfg;
+        }
         MonitorConfig.Builder cfgBuilder = MonitorConfig.builder(toValidCharset(cfg.getName()));
         for (Tag orig : cfg.getTags()) {
             cfgBuilder.withTag(toValidCharset(orig.getKey()), toValidCharset(orig.getValue()));
         }
         cfgBuilder.withPublishingPolicy(cfg.getPublishingPolicy());
-        return new Metric(cfgBuilder.build(), metric.getTimestamp(), metric.getValue());
+        return cfgBuilder.build();
+    }
+
+    private static boolean hasValidCharset(MonitorConfig cfg) {
+        if (!hasValidCharset(cfg.getName())) {
+            return false;
+        }
+        for (Tag tag : cfg.getTags()) {
+            if (!hasValidCharset(tag.getKey()) || !hasValidCharset(tag.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return a tag list where all keys and values are using the valid character set.
+     */
+    public static TagList toValidTagList(TagList tags) {
+        final Map<String, String> valid = Maps.newLinkedHashMap();
+        for (Tag tag : tags) {
+            valid.put(toValidCharset(tag.getKey()), toValidCharset(tag.getValue()));
+        }
+        return BasicTagList.copyOf(valid);
     }
 
     /**
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class AimdLimiterTest {
+    private static final int MAX_IN_FLIGHT = 16;
+
+    private static AimdLimiter newLimiter(final long targetLatencyMs) {
+        return new AimdLimiter(new DynamicPluginConfig() {
+            @Override
+            public int getMaxInFlight() {
+                return MAX_IN_FLIGHT;
+            }
+
+            @Override
+            public long getTargetLatencyMs() {
+                return targetLatencyMs;
+            }
+        });
+    }
+
+    /**
+     * Return a start time that is after all the decreases applied so far.
+     */
+    private static long startNanos() {
+        final long before = System.nanoTime();
+        long now = System.nanoTime();
+        while (now == before) {
+            now = System.nanoTime();
+        }
+        return now;
+    }
+
+    @Test
+    public void testDecreaseOncePerWindow() throws Exception {
+        AimdLimiter limiter = newLimiter(60000L);
+        assertEquals(limiter.limit(), MAX_IN_FLIGHT);
+
+        // all the requests of the window fail, but the window is only halved once
+        long start = startNanos();
+        for (int i = 0; i < 5; ++i) {
+            limiter.onResponse(start, true);
+            assertEquals(limiter.limit(), MAX_IN_FLIGHT / 2);
+        }
+
+        // a request started after the decrease halves it again
+        long next = startNanos();
+        limiter.onResponse(next, true);
+        assertEquals(limiter.limit(), MAX_IN_FLIGHT / 4);
+        limiter.onResponse(start, true);
+        limiter.onResponse(next, true);
+        assertEquals(limiter.limit(), MAX_IN_FLIGHT / 4);
+    }
+
+    @Test
+    public void testMinWindow() throws Exception {
+        AimdLimiter limiter = newLimiter(60000L);
+        for (int i = 0; i < 10; ++i) {
+            limiter.onResponse(startNanos(), true);
+        }
+        assertEquals(limiter.limit(), 1);
+        assertTrue(limiter.acquire(System.currentTimeMillis()));
+        assertFalse(limiter.acquire(System.currentTimeMillis()));
+        limiter.release();
+        assertTrue(limiter.acquire(System.currentTimeMillis()));
+        limiter.release();
+    }
+
+    @Test
+    public void testAdditiveIncrease() throws Exception {
+        AimdLimiter limiter = newLimiter(60000L);
+        for (int i = 0; i < 10; ++i) {
+            limiter.onResponse(startNanos(), true);
+        }
+
+        // the window grows by 1 / window for each fast response: 1, 2, 2.5, 2.9, 3.24
+        int[] expected = {2, 2, 2, 3};
+        for (int e : expected) {
+            limiter.onResponse(System.nanoTime(), false);
+            assertEquals(limiter.limit(), e);
+        }
+
+        // and never goes above the max
+        for (int i = 0; i < 1000; ++i) {
+            limiter.onResponse(System.nanoTime(), false);
+        }
+        assertEquals(limiter.limit(), MAX_IN_FLIGHT);
+    }
+
+    @Test
+    public void testSlowResponse() throws Exception {
+        AimdLimiter limiter = newLimiter(5L);
+        long start = startNanos();
+        Thread.sleep(50L);
+        limiter.onResponse(start, false);
+        assertEquals(limiter.limit(), MAX_IN_FLIGHT / 2);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.MetricObserver;
+import com.netflix.servo.tag.BasicTagList;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class AsyncDispatcherTest {
+    private static final long TIMEOUT_MS = 5000L;
+
+    /**
+     * Observer that records the size of each update and blocks on the first one until
+     * released.
+     */
+    private static final class BlockingObserver implements MetricObserver {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        public String getName() {
+            return "blocking";
+        }
+
+        @Override
+        public void update(List<Metric> metrics) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sizes.add(metrics.size());
+        }
+    }
+
+    private static List<Metric> update(int size) {
+        return Collections.nCopies(size, new Metric("test", BasicTagList.EMPTY, 0L, 1.0));
+    }
+
+    private static long dropped(String name, String reason) {
+        return Servo.getCounter(MonitorConfig.builder("atlas.async.dropped")
+                .withTag("observer", name).withTag("reason", reason).build()).getValue().longValue();
+    }
+
+    private static void waitFor(String what, Condition condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.isTrue()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for " + what);
+            Thread.sleep(5L);
+        }
+    }
+
+    private interface Condition {
+        boolean isTrue();
+    }
+
+    @Test
+    public void testCapacity() {
+        assertEquals(new AsyncDispatcher(1, 1000L).capacity(), 1);
+        assertEquals(new AsyncDispatcher(5, 1000L).capacity(), 8);
+        assertEquals(new AsyncDispatcher(16, 1000L).capacity(), 16);
+    }
+
+    @Test
+    public void testOverrun() throws Exception {
+        final String name = "testOverrun";
+        final AsyncDispatcher dispatcher = new AsyncDispatcher(4, TimeUnit.MINUTES.toMillis(1));
+        final BlockingObserver observer = new BlockingObserver();
+        dispatcher.register(name, observer);
+
+        dispatcher.publish(update(0));
+        assertTrue(observer.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        // the observer is stuck on the first update while 10 more are published, only the
+        // last 4 are still in the ring when it gets released
+        for (int i = 1; i <= 10; ++i) {
+            dispatcher.publish(update(i));
+        }
+        observer.release.countDown();
+
+        waitFor("updates", new Condition() {
+            @Override
+            public boolean isTrue() {
+                return observer.sizes.size() == 5;
+            }
+        });
+        assertEquals(observer.sizes, Arrays.asList(0, 7, 8, 9, 10));
+        assertEquals(dropped(name, "overrun"), 6L);
+        assertEquals(dropped(name, "expired"), 0L);
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        final String name = "testExpired";
+        final AsyncDispatcher dispatcher = new AsyncDispatcher(16, 50L);
+        final BlockingObserver observer = new BlockingObserver();
+        dispatcher.register(name, observer);
+
+        dispatcher.publish(update(0));
+        assertTrue(observer.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        dispatcher.publish(update(1));
+        dispatcher.publish(update(2));
+        Thread.sleep(100L);
+        observer.release.countDown();
+
+        waitFor("expired updates", new Condition() {
+            @Override
+            public boolean isTrue() {
+                return dropped(name, "expired") == 2L;
+            }
+        });
+        assertEquals(observer.sizes, Arrays.asList(0));
+        assertEquals(dropped(name, "overrun"), 0L);
+    }
+
+    @Test
+    public void testSlotsReleased() throws Exception {
+        final AsyncDispatcher dispatcher = new AsyncDispatcher(8, TimeUnit.MINUTES.toMillis(1));
+        final BlockingObserver slow = new BlockingObserver();
+        final BlockingObserver fast = new BlockingObserver();
+        fast.release.countDown();
+        dispatcher.register("testSlotsReleasedSlow", slow);
+        dispatcher.register("testSlotsReleasedFast", fast);
+
+        dispatcher.publish(update(0));
+        dispatcher.publish(update(1));
+        dispatcher.publish(update(2));
+        waitFor("fast observer", new Condition() {
+            @Override
+            public boolean isTrue() {
+                return fast.sizes.size() == 3;
+            }
+        });
+        // the slow observer has not moved past the first update, so the others are kept
+        assertTrue(dispatcher.retained() >= 2);
+
+        slow.release.countDown();
+        waitFor("released slots", new Condition() {
+            @Override
+            public boolean isTrue() {
+                return dispatcher.retained() == 0;
+            }
+        });
+        assertEquals(slow.sizes, Arrays.asList(0, 1, 2));
+    }
+}
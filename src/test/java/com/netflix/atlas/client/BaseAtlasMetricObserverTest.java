@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.BasicTag;
+import com.netflix.servo.tag.TagList;
+import org.testng.annotations.Test;
+import rx.Observable;
+import rx.functions.Func0;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class BaseAtlasMetricObserverTest {
+    private static final long TIMEOUT_MS = 10000L;
+
+    /**
+     * Observer that records when the senders are created and subscribed instead of sending
+     * the batches.
+     */
+    private static class RecordingObserver extends BaseAtlasMetricObserver {
+        private final List<String> events = Collections.synchronizedList(Lists.<String>newArrayList());
+        private final List<MetricBatch> batches = Collections.synchronizedList(Lists.<MetricBatch>newArrayList());
+        private final Map<String, String> threads = new ConcurrentHashMap<>();
+
+        RecordingObserver(final int batchSize, final int batchMaxBytes) {
+            this(batchSize, batchMaxBytes, 1);
+        }
+
+        RecordingObserver(final int batchSize, final int batchMaxBytes, final int pushWorkers) {
+            super(new DynamicPluginConfig() {
+                @Override
+                public int getBatchSize() {
+                    return batchSize;
+                }
+
+                @Override
+                public int getBatchMaxBytes() {
+                    return batchMaxBytes;
+                }
+
+                @Override
+                public int getPushWorkers() {
+                    return pushWorkers;
+                }
+
+                @Override
+                public long getPushLingerMs() {
+                    return 0L;
+                }
+            }, new DynamicPluginConfig(), 0);
+        }
+
+        @Override
+        Observable<Integer> getSenderObservable(TagList tags, final MetricBatch batch, long deadlineMs) {
+            events.add("create " + batch.size());
+            batches.add(batch);
+            // pushes are sent by the worker thread of their lane
+            for (int i = 0; i < batch.size(); ++i) {
+                threads.put(batch.config(i).getName(), Thread.currentThread().getName());
+            }
+            return Observable.defer(new Func0<Observable<Integer>>() {
+                @Override
+                public Observable<Integer> call() {
+                    events.add("send " + batch.size());
+                    return Observable.just(batch.size());
+                }
+            });
+        }
+    }
+
+    private static List<Metric> newMetrics(int n) {
+        final List<Metric> metrics = Lists.newArrayList();
+        for (int i = 0; i < n; ++i) {
+            metrics.add(new Metric(MonitorConfig.builder("m" + i).withTag("k", "v").build(), 0L, i));
+        }
+        return metrics;
+    }
+
+    private static void waitForSent(RecordingObserver observer, int n) throws Exception {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (observer.threads.size() < n && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(observer.threads.size(), n);
+    }
+
+    private static List<Integer> sizes(List<MetricBatch> batches) {
+        final List<Integer> sizes = Lists.newArrayList();
+        for (MetricBatch batch : batches) {
+            sizes.add(batch.size());
+        }
+        return sizes;
+    }
+
+    @Test
+    public void testSplitByBatchSize() throws Exception {
+        final RecordingObserver observer = new RecordingObserver(3, Integer.MAX_VALUE);
+        observer.update(newMetrics(10));
+        assertEquals(sizes(observer.batches), ImmutableList.of(3, 3, 3, 1));
+    }
+
+    @Test
+    public void testSplitByBytes() throws Exception {
+        // every metric has the same estimated size, so the budget fits two and a half metrics
+        final List<Metric> metrics = newMetrics(10);
+        final MonitorConfig sent = metrics.get(0).getConfig().withAdditionalTag(new BasicTag("atlas.dstype", "gauge"));
+        final int size = BaseAtlasMetricObserver.estimateSize(sent);
+        final RecordingObserver observer = new RecordingObserver(10000, 2 * size + size / 2);
+        observer.update(metrics);
+        assertEquals(sizes(observer.batches), ImmutableList.of(2, 2, 2, 2, 2));
+
+        // the batch order and the order of the metrics within the batches are preserved
+        int i = 0;
+        for (MetricBatch batch : observer.batches) {
+            for (int j = 0; j < batch.size(); ++j, ++i) {
+                assertEquals(batch.config(j).getName(), "m" + i);
+            }
+        }
+    }
+
+    @Test
+    public void testSplitByBothLimits() throws Exception {
+        final List<Metric> metrics = newMetrics(10);
+        final MonitorConfig sent = metrics.get(0).getConfig().withAdditionalTag(new BasicTag("atlas.dstype", "gauge"));
+        final int size = BaseAtlasMetricObserver.estimateSize(sent);
+        final RecordingObserver observer = new RecordingObserver(3, 4 * size);
+        observer.update(metrics);
+        assertEquals(sizes(observer.batches), ImmutableList.of(3, 3, 3, 1));
+
+        final RecordingObserver byBytes = new RecordingObserver(5, 4 * size);
+        byBytes.update(metrics);
+        assertEquals(sizes(byBytes.batches), ImmutableList.of(4, 4, 2));
+    }
+
+    @Test
+    public void testSendersCreatedWhenSubscribed() throws Exception {
+        final RecordingObserver observer = new RecordingObserver(4, Integer.MAX_VALUE);
+        observer.update(newMetrics(10));
+        assertEquals(observer.events, ImmutableList.of(
+                "create 4", "send 4", "create 4", "send 4", "create 2", "send 2"));
+    }
+
+    @Test
+    public void testPushLaneByConfig() throws Exception {
+        // every push of a series goes through the worker of the same lane
+        final RecordingObserver observer = new RecordingObserver(10000, Integer.MAX_VALUE, 4);
+        final List<Metric> metrics = newMetrics(100);
+        observer.push(metrics);
+        waitForSent(observer, 100);
+        final Map<String, String> first = ImmutableMap.copyOf(observer.threads);
+        assertTrue(ImmutableSet.copyOf(first.values()).size() > 1);
+
+        observer.threads.clear();
+        for (Metric m : Lists.reverse(metrics)) {
+            observer.push(ImmutableList.of(m));
+        }
+        waitForSent(observer, 100);
+        assertEquals(observer.threads, first);
+    }
+
+    @Test
+    public void testPushLaneByKey() throws Exception {
+        // all the metrics pushed with a key go through the same lane
+        final RecordingObserver observer = new RecordingObserver(10000, Integer.MAX_VALUE, 4);
+        final List<Metric> metrics = newMetrics(100);
+        observer.push("source", metrics.subList(0, 50));
+        observer.push("source", metrics.subList(50, 100));
+        waitForSent(observer, 100);
+        assertEquals(ImmutableSet.copyOf(observer.threads.values()).size(), 1);
+    }
+
+    @Test
+    public void testPushNullKey() throws Exception {
+        final RecordingObserver observer = new RecordingObserver(10000, Integer.MAX_VALUE, 4);
+        observer.push(null, newMetrics(100));
+        waitForSent(observer, 100);
+    }
+}
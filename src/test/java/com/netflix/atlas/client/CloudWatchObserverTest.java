@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.collect.ImmutableList;
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+public class CloudWatchObserverTest {
+    private static final String EXPR = "name,sps,:eq,:sum,0,:gt,4,:rolling-count";
+    private static final String OTHER_EXPR = "name,sps,:eq,:sum,0,:gt,3,:rolling-count";
+
+    private final Counter compileCount = Servo.getCounter("atlas.cloudwatch.compile");
+
+    private static PluginConfig config(final AtomicReference<String> expr) {
+        return new DynamicPluginConfig() {
+            @Override
+            public String getCloudwatchExpr() {
+                return expr.get();
+            }
+
+            @Override
+            public int getEvalParallelism() {
+                return 0;
+            }
+        };
+    }
+
+    private static double value(List<Metric> metrics) {
+        assertEquals(metrics.size(), 1);
+        return metrics.get(0).getNumberValue().doubleValue();
+    }
+
+    private long compiled() {
+        return compileCount.getValue().longValue();
+    }
+
+    @Test
+    public void testCompiledOnce() throws Exception {
+        final AtomicReference<String> expr = new AtomicReference<>(EXPR);
+        final CloudWatchObserver observer = new CloudWatchObserver(config(expr), new PushManager());
+        final List<Metric> metrics = ImmutableList.of(
+                new Metric(MonitorConfig.builder("sps").build(), 1000L, 1.0));
+
+        final long before = compiled();
+        final Object expression = observer.getExpression();
+        for (int i = 1; i <= 6; ++i) {
+            // the rolling count only keeps growing if its state survives between updates
+            assertEquals(value(observer.getCloudwatchMetrics(metrics, 1000L * i)), (double) Math.min(i, 4));
+            assertSame(observer.getExpression(), expression);
+        }
+        assertEquals(compiled() - before, 1L);
+
+        // a new expression is compiled with a fresh state
+        expr.set(OTHER_EXPR);
+        assertEquals(value(observer.getCloudwatchMetrics(metrics, 7000L)), 1.0);
+        assertEquals(value(observer.getCloudwatchMetrics(metrics, 8000L)), 2.0);
+        assertEquals(compiled() - before, 2L);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.servo.Metric;
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.testng.annotations.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+
+public class CounterRateCacheTest {
+    private static final long STEP = 60000L;
+
+    // the table of a new cache has 32 slots and is not resized until it has more than 16 series
+    private static final int MASK = 31;
+
+    private static double rate(CounterRateCache cache, MonitorConfig config, long timestamp, double value) {
+        Metric m = cache.toRate(new Metric(config, timestamp, value));
+        assertEquals(m.getConfig(), config.withAdditionalTag(DataSourceType.RATE));
+        return m.getNumberValue().doubleValue();
+    }
+
+    /**
+     * Return configs that all have the given home slot, so they are stored in consecutive
+     * slots starting from it.
+     */
+    private static List<MonitorConfig> configsForSlot(int slot, int n) {
+        List<MonitorConfig> configs = Lists.newArrayList();
+        for (int i = 0; configs.size() < n; ++i) {
+            MonitorConfig config = MonitorConfig.builder("c" + i).build();
+            if (CounterRateCache.slot(config.hashCode(), MASK) == slot) {
+                configs.add(config);
+            }
+        }
+        return configs;
+    }
+
+    @Test
+    public void testRate() throws Exception {
+        CounterRateCache cache = new CounterRateCache(STEP);
+        MonitorConfig config = MonitorConfig.builder("c").build();
+        assertEquals(rate(cache, config, 0L, 60.0), 1.0);
+        assertEquals(rate(cache, config, 30000L, 120.0), 2.0);
+        assertEquals(rate(cache, config, 60000L, 60.0), 0.0);
+        assertEquals(rate(cache, config, 60000L, 120.0), 0.0);
+        assertEquals(cache.size(), 1);
+    }
+
+    @Test
+    public void testWrapAroundRemoval() throws Exception {
+        // the probe sequence starts in the last slot and wraps around to the first ones
+        CounterRateCache cache = new CounterRateCache(STEP);
+        List<MonitorConfig> configs = configsForSlot(MASK, 4);
+        for (MonitorConfig config : configs) {
+            assertEquals(rate(cache, config, 0L, 60.0), 1.0);
+        }
+
+        // the first config is stored in the last slot and expires, the others are shifted
+        // back over the end of the table and must still be found
+        for (int step = 1; step <= 3; ++step) {
+            cache.advance(step * STEP);
+            for (MonitorConfig config : configs.subList(1, configs.size())) {
+                assertEquals(rate(cache, config, step * STEP, 60.0 * (step + 1)), 1.0);
+            }
+        }
+        assertEquals(cache.size(), 3);
+
+        // a new series gets the default rate, a known one the rate since the last update
+        cache.advance(4 * STEP);
+        assertEquals(rate(cache, configs.get(0), 4 * STEP, 240.0), 4.0);
+        for (MonitorConfig config : configs.subList(1, configs.size())) {
+            assertEquals(rate(cache, config, 4 * STEP, 300.0), 1.0);
+        }
+        assertEquals(cache.size(), 4);
+    }
+
+    @Test
+    public void testRemovalWithMixedSlots() throws Exception {
+        // entries from neighbouring home slots share a cluster, removing one must only move
+        // the entries that can be moved before their home slot
+        // stored in slots 30, 31, 0, 1 and 2 with home slots 30, 31, 0, 30 and 0
+        List<MonitorConfig> before = configsForSlot(MASK - 1, 2);
+        List<MonitorConfig> first = configsForSlot(0, 2);
+        List<MonitorConfig> configs = Lists.newArrayList(
+                before.get(0), configsForSlot(MASK, 1).get(0), first.get(0), before.get(1), first.get(1));
+        for (int removed = 0; removed < configs.size(); ++removed) {
+            CounterRateCache c = new CounterRateCache(STEP);
+            for (MonitorConfig config : configs) {
+                assertEquals(rate(c, config, 0L, 60.0), 1.0);
+            }
+            for (int step = 1; step <= 3; ++step) {
+                c.advance(step * STEP);
+                for (int i = 0; i < configs.size(); ++i) {
+                    if (i != removed) {
+                        assertEquals(rate(c, configs.get(i), step * STEP, 60.0 * (step + 1)), 1.0);
+                    }
+                }
+            }
+            assertEquals(c.size(), configs.size() - 1);
+        }
+    }
+
+    @Test
+    public void testMatchesReference() throws Exception {
+        // compare with a map based implementation while series come and go, steps are skipped
+        // and the table is resized
+        Random random = new Random(42);
+        CounterRateCache cache = new CounterRateCache(STEP);
+        Map<MonitorConfig, double[]> reference = Maps.newHashMap();
+        long step = 0L;
+        for (int n = 0; n < 200; ++n) {
+            step += (random.nextInt(10) == 0) ? 1 + random.nextInt(4) : 1;
+            long now = step * STEP + random.nextInt((int) STEP / 2);
+            cache.advance(now);
+            Iterator<double[]> it = reference.values().iterator();
+            while (it.hasNext()) {
+                if (it.next()[2] <= step - 3) {
+                    it.remove();
+                }
+            }
+
+            int numSeries = (n % 50 < 25) ? 300 : 40;
+            for (int i = 0; i < numSeries; ++i) {
+                if (random.nextInt(3) == 0) {
+                    continue;
+                }
+                MonitorConfig config = MonitorConfig.builder("s" + i).build();
+                double[] prev = reference.get(config);
+                double value = (prev == null ? 0.0 : prev[1]) + random.nextInt(100) - 10;
+                double expected = (prev == null)
+                        ? Math.max(0.0, value) / (STEP / 1000.0)
+                        : Math.max(0.0, value - prev[1]) / ((now - prev[0]) / 1000.0);
+                assertEquals(rate(cache, config, now, value), expected, 1e-9);
+                reference.put(config, new double[] {now, value, step});
+            }
+            assertEquals(cache.size(), reference.size());
+        }
+    }
+}
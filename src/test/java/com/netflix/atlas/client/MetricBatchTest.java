@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class MetricBatchTest {
+    private static MonitorConfig config(String name) {
+        return MonitorConfig.builder(name).build();
+    }
+
+    private static MetricBatch batch(Metric... metrics) {
+        return MetricBatch.from(ImmutableList.copyOf(metrics));
+    }
+
+    @Test
+    public void testFromSkipsNonNumbers() throws Exception {
+        List<Metric> metrics = ImmutableList.of(
+                new Metric(config("a"), 1000L, 1.0),
+                new Metric(config("b"), 1000L, "foo"),
+                new Metric(config("c"), 2000L, 3L),
+                new Metric(config("a"), 3000L, 4));
+        MetricBatch batch = MetricBatch.from(metrics);
+        assertEquals(batch.size(), 3);
+        assertEquals(batch.numConfigs(), 2);
+        assertEquals(batch.toList(), ImmutableList.of(
+                new Metric(config("a"), 1000L, 1.0),
+                new Metric(config("c"), 2000L, 3.0),
+                new Metric(config("a"), 3000L, 4.0)));
+        assertEquals(batch.id(0), batch.id(2));
+
+        assertTrue(batch(new Metric(config("b"), 1000L, "foo")).isEmpty());
+    }
+
+    @Test
+    public void testConcat() throws Exception {
+        MetricBatch b1 = batch(
+                new Metric(config("a"), 1000L, 1.0),
+                new Metric(config("b"), 1000L, 2.0));
+        MetricBatch b2 = batch(
+                new Metric(config("b"), 2000L, 3.0),
+                new Metric(config("c"), 2000L, 4.0));
+        MetricBatch empty = batch();
+
+        MetricBatch batch = MetricBatch.concat(ImmutableList.of(b1, empty, b2));
+        assertEquals(batch.size(), 4);
+        // configs shared by the batches are stored once
+        assertEquals(batch.numConfigs(), 3);
+        assertEquals(batch.id(1), batch.id(2));
+        List<Metric> expected = Lists.newArrayList(b1.toList());
+        expected.addAll(b2.toList());
+        assertEquals(batch.toList(), expected);
+
+        assertSame(MetricBatch.concat(ImmutableList.of(b1)), b1);
+    }
+
+    @Test
+    public void testConcatSlices() throws Exception {
+        List<Metric> metrics = Lists.newArrayList();
+        for (int i = 0; i < 10; ++i) {
+            metrics.add(new Metric(config("m" + (i % 3)), 1000L * i, (double) i));
+        }
+        MetricBatch batch = MetricBatch.from(metrics);
+        MetricBatch concat = MetricBatch.concat(ImmutableList.of(batch.slice(6, 10), batch.slice(0, 6)));
+        List<Metric> expected = Lists.newArrayList(metrics.subList(6, 10));
+        expected.addAll(metrics.subList(0, 6));
+        assertEquals(concat.toList(), expected);
+        assertEquals(concat.numConfigs(), 3);
+    }
+
+    @Test
+    public void testBuilderGrowth() throws Exception {
+        // the builder starts without room for any row, so both the rows and the index grow
+        MetricBatch.Builder builder = new MetricBatch.Builder(0);
+        List<Metric> expected = Lists.newArrayList();
+        for (int i = 0; i < 1000; ++i) {
+            MonitorConfig c = config("m" + (i % 300));
+            builder.add(c, i, i);
+            expected.add(new Metric(c, i, (double) i));
+        }
+        assertEquals(builder.size(), 1000);
+        MetricBatch batch = builder.build();
+        assertEquals(batch.numConfigs(), 300);
+        assertEquals(batch.toList(), expected);
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(batch.id(i), i % 300);
+        }
+    }
+
+    @Test
+    public void testConfigIndexGrowth() throws Exception {
+        ConfigIndex index = new ConfigIndex(0);
+        for (int i = 0; i < 5000; ++i) {
+            assertEquals(index.intern(config("m" + i)), i);
+            assertEquals(index.size(), i + 1);
+        }
+
+        // ids are stable once the table has been rehashed several times
+        for (int i = 0; i < 5000; ++i) {
+            MonitorConfig c = config("m" + i);
+            assertEquals(index.intern(c), i);
+            assertEquals(index.get(i), c);
+        }
+        assertEquals(index.size(), 5000);
+        MonitorConfig[] configs = index.toArray();
+        assertEquals(configs.length, 5000);
+        assertEquals(configs[4999], config("m4999"));
+    }
+}
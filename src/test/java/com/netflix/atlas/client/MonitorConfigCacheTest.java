@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.base.Functions;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class MonitorConfigCacheTest {
+
+    private static int registered(String name) {
+        int count = 0;
+        for (Monitor<?> m : DefaultMonitorRegistry.getInstance().getRegisteredMonitors()) {
+            if (m.getConfig().getName().equals(name)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testRegisteredOncePerName() throws Exception {
+        final String name = "atlas.test.configCache";
+        final MonitorConfig config = MonitorConfig.builder("foo").build();
+        final MonitorConfigCache first = new MonitorConfigCache(name, 10, Functions.<MonitorConfig>identity());
+        assertEquals(first.apply(config), config);
+        assertEquals(registered(name), 1);
+
+        // a new cache with the same name replaces the first one in the monitor
+        final MonitorConfigCache second = new MonitorConfigCache(name, 10, Functions.<MonitorConfig>identity());
+        assertEquals(registered(name), 1);
+        assertEquals(MonitorConfigCache.current(name).stats().requestCount(), 0L);
+        second.apply(config);
+        second.apply(config);
+        assertEquals(MonitorConfigCache.current(name).stats().hitCount(), 1L);
+        assertEquals(MonitorConfigCache.current(name).stats().missCount(), 1L);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.netflix.atlas.client.interpreter.Query;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+public class PluginConfigsTest {
+
+    /**
+     * Implementation that only knows about the public options.
+     */
+    private static class UserConfig implements PluginConfig {
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isFileMetricsEnabled() {
+            return false;
+        }
+
+        @Override
+        public String getMetricsDir() {
+            return "/tmp";
+        }
+
+        @Override
+        public boolean isCloudwatchEnabled() {
+            return false;
+        }
+
+        @Override
+        public int getPushQueueSize() {
+            return 7;
+        }
+
+        @Override
+        public String getPublishUri() {
+            return "http://localhost:7101/api/v1/publish";
+        }
+
+        @Override
+        public int getBatchSize() {
+            return 42;
+        }
+
+        @Override
+        public Callable<Query> getFilterExpr() {
+            return null;
+        }
+
+        @Override
+        public String getCloudwatchExpr() {
+            return ":false,:sum";
+        }
+
+        @Override
+        public String getCloudwatchNamespace() {
+            return "TEST";
+        }
+
+        @Override
+        public RollupConfig getRollupConfig() {
+            return new RollupConfig(Collections.<RollupConfig.Rule>emptyList());
+        }
+
+        @Override
+        public boolean isDropByDefault() {
+            return false;
+        }
+    }
+
+    @Test
+    public void testExtendUserConfig() throws Exception {
+        ExtendedPluginConfig defaults = new DynamicPluginConfig();
+        ExtendedPluginConfig config = PluginConfigs.extend(new UserConfig());
+        assertEquals(config.getBatchSize(), 42);
+        assertEquals(config.getPushQueueSize(), 7);
+        assertEquals(config.getCloudwatchNamespace(), "TEST");
+        assertEquals(config.getMaxInFlight(), defaults.getMaxInFlight());
+        assertEquals(config.getPushWorkers(), defaults.getPushWorkers());
+        assertEquals(config.getBatchMaxBytes(), defaults.getBatchMaxBytes());
+    }
+
+    @Test
+    public void testExtendDynamicConfig() throws Exception {
+        ExtendedPluginConfig config = new DynamicPluginConfig();
+        assertSame(PluginConfigs.extend(config), config);
+    }
+}
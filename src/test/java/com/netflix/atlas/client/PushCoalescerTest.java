@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.collect.ImmutableList;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class PushCoalescerTest {
+    private static final long NO_FLUSH = Long.MAX_VALUE;
+
+    private static MetricBatch batch(String name, int size) {
+        MetricBatch.Builder builder = new MetricBatch.Builder(size);
+        for (int i = 0; i < size; ++i) {
+            builder.add(MonitorConfig.builder(name).withTag("i", "" + i).build(), 0L, i);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testDropOldestOverBytes() throws Exception {
+        PushCoalescer queue = new PushCoalescer(0);
+        MetricBatch b1 = batch("a", 1);
+        MetricBatch b2 = batch("b", 2);
+        MetricBatch b3 = batch("c", 3);
+        assertEquals(queue.offer(b1, 40L, 100L, 100), 0);
+        assertEquals(queue.offer(b2, 40L, 100L, 100), 0);
+        assertEquals(queue.bytes(), 80L);
+
+        // the third push does not fit, so the oldest one is dropped
+        assertEquals(queue.offer(b3, 40L, 100L, 100), 1);
+        assertEquals(queue.size(), 2);
+        assertEquals(queue.bytes(), 80L);
+
+        // several pushes can be dropped to make room for a large one
+        MetricBatch b4 = batch("d", 4);
+        assertEquals(queue.offer(b4, 90L, 100L, 100), 5);
+        assertEquals(queue.size(), 1);
+        assertEquals(queue.bytes(), 90L);
+        assertEquals(queue.take(0L, NO_FLUSH), b4);
+        assertEquals(queue.size(), 0);
+        assertEquals(queue.bytes(), 0L);
+    }
+
+    @Test
+    public void testOversizedPush() throws Exception {
+        // a push over the bound is accepted when nothing else is pending
+        PushCoalescer queue = new PushCoalescer(0);
+        assertEquals(queue.offer(batch("a", 5), 500L, 100L, 100), 0);
+        assertEquals(queue.bytes(), 500L);
+        assertEquals(queue.offer(batch("b", 1), 10L, 100L, 100), 5);
+        assertEquals(queue.bytes(), 10L);
+    }
+
+    @Test
+    public void testDropOldestOverSize() throws Exception {
+        PushCoalescer queue = new PushCoalescer(0);
+        MetricBatch b2 = batch("b", 1);
+        MetricBatch b3 = batch("c", 1);
+        assertEquals(queue.offer(batch("a", 2), 1L, 100L, 2), 0);
+        assertEquals(queue.offer(b2, 1L, 100L, 2), 0);
+        assertEquals(queue.offer(b3, 1L, 100L, 2), 2);
+        assertEquals(queue.take(0L, NO_FLUSH), MetricBatch.concat(ImmutableList.of(b2, b3)));
+    }
+
+    @Test
+    public void testFlushBytes() throws Exception {
+        // enough bytes are pending, so take does not wait for the linger time
+        PushCoalescer queue = new PushCoalescer(0);
+        MetricBatch b1 = batch("a", 1);
+        MetricBatch b2 = batch("b", 2);
+        queue.offer(b1, 40L, 100L, 100);
+        queue.offer(b2, 40L, 100L, 100);
+        long start = System.nanoTime();
+        assertEquals(queue.take(60000L, 80L), MetricBatch.concat(ImmutableList.of(b1, b2)));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 30000L);
+    }
+
+    @Test
+    public void testLinger() throws Exception {
+        // pushes that arrive while lingering are sent with the first one
+        final PushCoalescer queue = new PushCoalescer(0);
+        MetricBatch b1 = batch("a", 1);
+        final MetricBatch b2 = batch("b", 2);
+        long start = System.nanoTime();
+        queue.offer(b1, 40L, 100L, 100);
+        Thread pusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50L);
+                    queue.offer(b2, 40L, 100L, 100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        pusher.start();
+        assertEquals(queue.take(500L, NO_FLUSH), MetricBatch.concat(ImmutableList.of(b1, b2)));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 500L);
+        pusher.join();
+    }
+}
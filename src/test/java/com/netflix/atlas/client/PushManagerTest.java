@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class PushManagerTest {
+    private static final int NUM_THREADS = 4;
+    private static final int NUM_SAVES = 20000;
+
+    private static Metric metric(String name, long timestamp, double value) {
+        return new Metric(MonitorConfig.builder(name).build(), timestamp, value);
+    }
+
+    private static double value(List<Metric> metrics) {
+        assertEquals(metrics.size(), 1);
+        return metrics.get(0).getNumberValue().doubleValue();
+    }
+
+    @Test
+    public void testOlderTimestampIgnored() throws Exception {
+        PushManager manager = new PushManager();
+        manager.save(ImmutableList.of(metric("m", 2000L, 2.0)));
+        manager.save(ImmutableList.of(metric("m", 1000L, 1.0)));
+        assertEquals(value(manager.getMetrics()), 2.0);
+
+        manager.save(ImmutableList.of(metric("m", 2000L, 3.0)));
+        assertEquals(value(manager.getMetrics()), 3.0);
+        manager.save(ImmutableList.of(metric("m", 3000L, 4.0), metric("m", 2500L, 5.0)));
+        assertEquals(value(manager.getMetrics()), 4.0);
+    }
+
+    @Test
+    public void testConcurrentSavesKeepLatest() throws Exception {
+        final PushManager manager = new PushManager();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = Lists.newArrayList();
+        for (int t = 0; t < NUM_THREADS; ++t) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    // each thread pushes a decreasing sequence, the threads are interleaved
+                    for (int i = NUM_SAVES; i > 0; --i) {
+                        long timestamp = (long) i * NUM_THREADS + offset;
+                        manager.save(ImmutableList.of(metric("m", timestamp, timestamp)));
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long latest = (long) NUM_SAVES * NUM_THREADS + NUM_THREADS - 1;
+        assertEquals(manager.getMetrics().get(0).getTimestamp(), latest);
+        assertEquals(value(manager.getMetrics()), (double) latest);
+    }
+
+    @Test
+    public void testSavesRacingWithResetNotLost() throws Exception {
+        final PushManager manager = new PushManager();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final List<Metric> retired = Collections.synchronizedList(Lists.<Metric>newArrayList());
+
+        Thread resetter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    manager.reset();
+                    retired.addAll(manager.getLastPushedMetrics());
+                }
+            }
+        });
+        resetter.start();
+
+        List<Thread> threads = Lists.newArrayList();
+        final Set<MonitorConfig> saved = Collections.newSetFromMap(
+                new ConcurrentHashMap<MonitorConfig, Boolean>());
+        for (int t = 0; t < NUM_THREADS; ++t) {
+            final String name = "m" + t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < NUM_SAVES; ++i) {
+                        Metric m = metric(name + "-" + i, 1000L, i);
+                        manager.save(ImmutableList.of(m));
+                        saved.add(m.getConfig());
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        done.set(true);
+        resetter.join();
+        manager.reset();
+        retired.addAll(manager.getLastPushedMetrics());
+
+        // every series is pushed once, so it must show up in exactly one retired buffer
+        Set<MonitorConfig> seen = Sets.newHashSet();
+        for (Metric m : retired) {
+            assertTrue(seen.add(m.getConfig()), "duplicate " + m);
+        }
+        assertEquals(saved.size(), NUM_THREADS * NUM_SAVES);
+        assertEquals(seen, saved);
+    }
+
+    @Test
+    public void testLatestFallsBackToLastPushed() throws Exception {
+        PushManager manager = new PushManager();
+        assertTrue(manager.getLatestPushedMetrics().isEmpty());
+
+        manager.save(ImmutableList.of(metric("m", 1000L, 1.0)));
+        assertEquals(value(manager.getLatestPushedMetrics()), 1.0);
+
+        // nothing pushed since the reset, the previous interval is used
+        manager.reset();
+        assertTrue(manager.getMetrics().isEmpty());
+        assertEquals(value(manager.getLatestPushedMetrics()), 1.0);
+
+        manager.save(ImmutableList.of(metric("m", 2000L, 2.0)));
+        assertEquals(value(manager.getLatestPushedMetrics()), 2.0);
+
+        manager.reset();
+        manager.reset();
+        assertTrue(manager.getLatestPushedMetrics().isEmpty());
+    }
+}
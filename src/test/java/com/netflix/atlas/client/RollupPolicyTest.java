@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.SmallTagMap;
+import com.netflix.servo.tag.Tag;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+
+public class RollupPolicyTest {
+    private static final double EPSILON = 1e-9;
+
+    private static RollupConfigurator configurator(final RollupConfig config, final boolean dropByDefault) {
+        return new RollupConfigurator() {
+            @Override
+            public RollupConfig getRollupConfig() {
+                return config;
+            }
+
+            @Override
+            public boolean isDropByDefault() {
+                return dropByDefault;
+            }
+        };
+    }
+
+    private static RollupConfig config(RollupConfig.Aggr aggr) {
+        List<String> tags = ImmutableList.of("node");
+        return new RollupConfig(ImmutableList.of(
+                RollupConfig.Rule.of("name,a,:eq", tags, false, aggr),
+                RollupConfig.Rule.of("name,b,:eq", tags, true, aggr)));
+    }
+
+    private static List<Metric> metrics(long seed, double min, double max) {
+        Random random = new Random(seed);
+        List<Metric> metrics = Lists.newArrayList();
+        String[] names = {"a", "b", "c"};
+        for (int i = 0; i < 1000; ++i) {
+            // unmatched metrics are passed through, so only give them distinct configs
+            String name = names[random.nextInt(names.length)];
+            int node = "c".equals(name) ? i : random.nextInt(50);
+            MonitorConfig config = MonitorConfig.builder(name)
+                    .withTag("node", "i-" + node)
+                    .withTag("status", String.valueOf(200 + random.nextInt(3)))
+                    .build();
+            double value = min + (max - min) * random.nextDouble();
+            metrics.add(new Metric(config, 1000L + i, value));
+        }
+        return metrics;
+    }
+
+    private static MonitorConfig mapTags(MonitorConfig config, Set<String> tags, boolean keep) {
+        SmallTagMap.Builder newTags = SmallTagMap.builder();
+        for (Tag tag : config.getTags()) {
+            if (tags.contains(tag.getKey()) == keep) {
+                newTags.add(tag);
+            }
+        }
+        return MonitorConfig.builder(config.getName())
+                .withTags(newTags)
+                .withPublishingPolicy(config.getPublishingPolicy())
+                .build();
+    }
+
+    private static double aggregate(RollupConfig.Aggr aggr, List<Double> values) {
+        double res;
+        switch (aggr) {
+            case SUM:
+            case AVG:
+                res = 0.0;
+                for (double v : values) {
+                    res += v;
+                }
+                return aggr == RollupConfig.Aggr.SUM ? res : res / values.size();
+            case COUNT:
+                return values.size();
+            case MAX:
+                res = Double.NEGATIVE_INFINITY;
+                for (double v : values) {
+                    res = Math.max(v, res);
+                }
+                return res;
+            case MIN:
+                res = Double.POSITIVE_INFINITY;
+                for (double v : values) {
+                    res = Math.min(v, res);
+                }
+                return res;
+            default:
+                throw new IllegalArgumentException("Unknown aggregate: " + aggr);
+        }
+    }
+
+    /**
+     * List based rollup as it was done before the values were folded into accumulators:
+     * the values for each rule and config are collected and reduced at the end. Unlike the
+     * old implementation MAX starts from negative infinity instead of Double.MIN_VALUE, so
+     * groups with only negative values are not reported as NaN.
+     */
+    private static Map<MonitorConfig, Double> expected(RollupConfig config, boolean dropByDefault,
+                                                       List<Metric> metrics) {
+        Map<MonitorConfig, Double> result = Maps.newHashMap();
+        List<RollupConfig.Rule> rules = config.getRules();
+        List<Map<MonitorConfig, List<Double>>> groups = Lists.newArrayList();
+        for (int i = 0; i < rules.size(); ++i) {
+            groups.add(Maps.<MonitorConfig, List<Double>>newLinkedHashMap());
+        }
+
+        for (Metric metric : metrics) {
+            boolean matched = false;
+            for (int i = 0; i < rules.size() && !matched; ++i) {
+                RollupConfig.Rule rule = rules.get(i);
+                if (rule.getQuery().apply(metric.getConfig())) {
+                    MonitorConfig newConfig = mapTags(metric.getConfig(),
+                            ImmutableSet.copyOf(rule.getTags()), rule.isKeep());
+                    List<Double> values = groups.get(i).get(newConfig);
+                    if (values == null) {
+                        values = Lists.newArrayList();
+                        groups.get(i).put(newConfig, values);
+                    }
+                    values.add(metric.getNumberValue().doubleValue());
+                    matched = true;
+                }
+            }
+            if (!matched && !dropByDefault) {
+                result.put(metric.getConfig(), metric.getNumberValue().doubleValue());
+            }
+        }
+
+        for (int i = 0; i < rules.size(); ++i) {
+            for (Map.Entry<MonitorConfig, List<Double>> entry : groups.get(i).entrySet()) {
+                result.put(entry.getKey(), aggregate(rules.get(i).getAggr(), entry.getValue()));
+            }
+        }
+        return result;
+    }
+
+    private static Map<MonitorConfig, Double> actual(List<Metric> metrics) {
+        Map<MonitorConfig, Double> result = Maps.newHashMap();
+        for (Metric metric : metrics) {
+            result.put(metric.getConfig(), metric.getNumberValue().doubleValue());
+        }
+        assertEquals(result.size(), metrics.size(), "duplicate configs in " + metrics);
+        return result;
+    }
+
+    private static void checkRollup(RollupConfig.Aggr aggr, boolean dropByDefault, double min, double max) {
+        RollupConfig config = config(aggr);
+        RollupPolicy policy = new RollupPolicy(configurator(config, dropByDefault));
+        for (long seed = 0; seed < 5; ++seed) {
+            List<Metric> metrics = metrics(seed, min, max);
+            Map<MonitorConfig, Double> expected = expected(config, dropByDefault, metrics);
+            Map<MonitorConfig, Double> actual = actual(policy.rollup(metrics));
+            assertEquals(actual.keySet(), expected.keySet());
+            for (Map.Entry<MonitorConfig, Double> entry : expected.entrySet()) {
+                assertEquals(actual.get(entry.getKey()), entry.getValue(), EPSILON,
+                        aggr + " " + entry.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void testSum() throws Exception {
+        checkRollup(RollupConfig.Aggr.SUM, false, -100.0, 100.0);
+        checkRollup(RollupConfig.Aggr.SUM, true, -100.0, 100.0);
+    }
+
+    @Test
+    public void testAvg() throws Exception {
+        checkRollup(RollupConfig.Aggr.AVG, false, -100.0, 100.0);
+    }
+
+    @Test
+    public void testCount() throws Exception {
+        checkRollup(RollupConfig.Aggr.COUNT, false, -100.0, 100.0);
+        checkRollup(RollupConfig.Aggr.COUNT, true, -100.0, 100.0);
+    }
+
+    @Test
+    public void testMin() throws Exception {
+        checkRollup(RollupConfig.Aggr.MIN, false, -100.0, 100.0);
+        checkRollup(RollupConfig.Aggr.MIN, false, 1.0, 100.0);
+    }
+
+    @Test
+    public void testMax() throws Exception {
+        checkRollup(RollupConfig.Aggr.MAX, false, -100.0, 100.0);
+        checkRollup(RollupConfig.Aggr.MAX, true, 1.0, 100.0);
+    }
+
+    @Test
+    public void testMaxAllNegative() throws Exception {
+        checkRollup(RollupConfig.Aggr.MAX, false, -100.0, -1.0);
+
+        MonitorConfig config = MonitorConfig.builder("a").withTag("node", "i-1").build();
+        MonitorConfig other = MonitorConfig.builder("a").withTag("node", "i-2").build();
+        List<Metric> metrics = ImmutableList.of(
+                new Metric(config, 1000L, -3.0),
+                new Metric(other, 2000L, -2.0));
+        RollupPolicy policy = new RollupPolicy(configurator(config(RollupConfig.Aggr.MAX), false));
+        List<Metric> result = policy.rollup(metrics);
+        assertEquals(result.size(), 1);
+        assertEquals(result.get(0).getConfig(), MonitorConfig.builder("a").build());
+        assertEquals(result.get(0).getTimestamp(), 1000L);
+        assertEquals(result.get(0).getNumberValue().doubleValue(), -2.0);
+    }
+
+    @Test
+    public void testNonNumbersIgnored() throws Exception {
+        MonitorConfig config = MonitorConfig.builder("a").withTag("node", "i-1").build();
+        List<Metric> metrics = ImmutableList.of(
+                new Metric(config, 1000L, "foo"),
+                new Metric(config, 1000L, 2.0));
+        RollupPolicy policy = new RollupPolicy(configurator(config(RollupConfig.Aggr.COUNT), false));
+        List<Metric> result = policy.rollup(metrics);
+        assertEquals(result.size(), 1);
+        assertEquals(result.get(0).getNumberValue().doubleValue(), 1.0);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.netflix.servo.util.Clock;
+import com.netflix.servo.util.ManualClock;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.reactivex.netty.RxNetty;
+import io.reactivex.netty.protocol.http.client.HttpClientRequest;
+import io.reactivex.netty.protocol.http.client.HttpClientResponse;
+import io.reactivex.netty.protocol.http.server.HttpServer;
+import io.reactivex.netty.protocol.http.server.HttpServerRequest;
+import io.reactivex.netty.protocol.http.server.HttpServerResponse;
+import io.reactivex.netty.protocol.http.server.RequestHandler;
+import org.testng.annotations.Test;
+import rx.Observable;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class RxHttpTest {
+    private static final long TARGET_LATENCY_MS = 1000L;
+
+    private final AtomicInteger maxConnections = new AtomicInteger(10);
+
+    private final PluginConfig config = new DynamicPluginConfig() {
+        @Override
+        public int getMaxConnections() {
+            return maxConnections.get();
+        }
+
+        @Override
+        public long getTargetLatencyMs() {
+            return TARGET_LATENCY_MS;
+        }
+    };
+
+    private static long count(String name, String cause) {
+        return Servo.getCounter(name, "cause", cause).getValue().longValue();
+    }
+
+    @Test
+    public void testBackoffBounds() throws Exception {
+        for (int attempt = 1; attempt <= 3; ++attempt) {
+            final long max = 500L << (attempt - 1);
+            final Set<Long> delays = new HashSet<>();
+            for (int i = 0; i < 1000; ++i) {
+                final long delay = RxHttp.getBackoffDelay(attempt);
+                assertTrue(delay >= max / 2 && delay <= max, "delay " + delay + " for attempt " + attempt);
+                delays.add(delay);
+            }
+            // jittered, so instances that failed together do not retry together
+            assertTrue(delays.size() > 1);
+        }
+    }
+
+    @Test
+    public void testRetryNearDeadline() throws Exception {
+        final ManualClock clock = new ManualClock(10000L);
+        final RxHttp rxHttp = new RxHttp(config, clock, new SmileEncoder());
+        final long retries = count("rxhttp.retries", "testDeadline");
+        final long skipped = count("rxhttp.retriesSkipped", "testDeadline");
+
+        // the retry is expected to end at now + delay + target latency
+        final long expectedEnd = 10000L + 500L + TARGET_LATENCY_MS;
+        assertTrue(rxHttp.shouldRetry(1, expectedEnd, "testDeadline", 500L));
+        assertEquals(count("rxhttp.retries", "testDeadline"), retries + 1);
+        assertFalse(rxHttp.shouldRetry(1, expectedEnd - 1, "testDeadline", 500L));
+        assertEquals(count("rxhttp.retriesSkipped", "testDeadline"), skipped + 1);
+
+        clock.set(10001L);
+        assertFalse(rxHttp.shouldRetry(2, expectedEnd, "testDeadline", 500L));
+        assertEquals(count("rxhttp.retries", "testDeadline"), retries + 1);
+        assertEquals(count("rxhttp.retriesSkipped", "testDeadline"), skipped + 2);
+    }
+
+    @Test(timeOut = 30000L)
+    public void testRetryServerError() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final HttpServer<ByteBuf, ByteBuf> server = RxNetty.createHttpServer(0, new RequestHandler<ByteBuf, ByteBuf>() {
+            @Override
+            public Observable<Void> handle(HttpServerRequest<ByteBuf> req, HttpServerResponse<ByteBuf> res) {
+                requests.incrementAndGet();
+                res.setStatus(HttpResponseStatus.SERVICE_UNAVAILABLE);
+                return res.close();
+            }
+        }).start();
+        final RxHttp rxHttp = new RxHttp(config);
+        try {
+            final RxHttp.Server target = new RxHttp.Server("localhost", server.getServerPort(), false);
+            final long skipped = count("rxhttp.retriesSkipped", "throttled");
+
+            // enough time for all the attempts
+            long deadline = Clock.WALL.now() + 60000L;
+            HttpClientResponse<ByteBuf> res = rxHttp.execute(target, HttpClientRequest.createPost("/"), deadline)
+                    .toBlocking().single();
+            assertEquals(res.getStatus().code(), 503);
+            assertEquals(requests.get(), 3);
+
+            // no time for a retry, the first response is returned
+            requests.set(0);
+            deadline = Clock.WALL.now() + TARGET_LATENCY_MS;
+            res = rxHttp.execute(target, HttpClientRequest.createPost("/"), deadline).toBlocking().single();
+            assertEquals(res.getStatus().code(), 503);
+            assertEquals(requests.get(), 1);
+            assertEquals(count("rxhttp.retriesSkipped", "throttled"), skipped + 1);
+        } finally {
+            rxHttp.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeOut = 30000L)
+    public void testRequestThroughPool() throws Exception {
+        final HttpServer<ByteBuf, ByteBuf> server = RxNetty.createHttpServer(0, new RequestHandler<ByteBuf, ByteBuf>() {
+            @Override
+            public Observable<Void> handle(HttpServerRequest<ByteBuf> req, HttpServerResponse<ByteBuf> res) {
+                res.setStatus(HttpResponseStatus.OK);
+                return res.close();
+            }
+        }).start();
+        final RxHttp rxHttp = new RxHttp(config);
+        try {
+            final RxHttp.Server target = new RxHttp.Server("localhost", server.getServerPort(), false);
+            for (int i = 0; i < 3; ++i) {
+                final HttpClientResponse<ByteBuf> res = rxHttp
+                        .execute(target, HttpClientRequest.createPost("/"), Long.MAX_VALUE)
+                        .toBlocking().single();
+                assertEquals(res.getStatus().code(), 200);
+            }
+
+            // the pool is shut down when it is replaced once the requests have released it
+            final RxHttp.PooledClient pooled = rxHttp.acquireClient(target);
+            pooled.release();
+            maxConnections.incrementAndGet();
+            rxHttp.acquireClient(target).release();
+            final long deadline = System.currentTimeMillis() + 10000L;
+            while (!pooled.isShutdown() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertTrue(pooled.isShutdown());
+        } finally {
+            rxHttp.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testPoolReusedForServer() throws Exception {
+        final RxHttp rxHttp = new RxHttp(config);
+        final RxHttp.PooledClient p1 = rxHttp.acquireClient(new RxHttp.Server("localhost", 7101, false));
+        final RxHttp.PooledClient p2 = rxHttp.acquireClient(new RxHttp.Server("localhost", 7101, false));
+        final RxHttp.PooledClient p3 = rxHttp.acquireClient(new RxHttp.Server("localhost", 7102, false));
+        assertSame(p1, p2);
+        assertNotSame(p1, p3);
+        p1.release();
+        p2.release();
+        p3.release();
+        assertFalse(p1.isShutdown());
+        rxHttp.shutdown();
+        assertTrue(p1.isShutdown());
+        assertTrue(p3.isShutdown());
+    }
+
+    @Test
+    public void testReplacedPoolShutdownAfterRelease() throws Exception {
+        final RxHttp rxHttp = new RxHttp(config);
+        final RxHttp.Server server = new RxHttp.Server("localhost", 7101, false);
+        final RxHttp.PooledClient old = rxHttp.acquireClient(server);
+        final RxHttp.PooledClient oldIdle = rxHttp.acquireClient(server);
+        oldIdle.release();
+
+        // the settings changed, requests in flight keep the old pool open
+        maxConnections.incrementAndGet();
+        final RxHttp.PooledClient fresh = rxHttp.acquireClient(server);
+        assertNotSame(fresh, old);
+        assertFalse(old.isShutdown());
+
+        // the last request on the old pool shuts it down
+        old.release();
+        assertTrue(old.isShutdown());
+        assertFalse(fresh.isShutdown());
+        assertSame(rxHttp.acquireClient(server), fresh);
+        fresh.release();
+        fresh.release();
+        assertFalse(fresh.isShutdown());
+        rxHttp.shutdown();
+        assertTrue(fresh.isShutdown());
+    }
+
+    @Test
+    public void testReplacedIdlePoolShutdown() throws Exception {
+        final RxHttp rxHttp = new RxHttp(config);
+        final RxHttp.Server server = new RxHttp.Server("localhost", 7101, false);
+        final RxHttp.PooledClient old = rxHttp.acquireClient(server);
+        old.release();
+        maxConnections.incrementAndGet();
+        final RxHttp.PooledClient fresh = rxHttp.acquireClient(server);
+        assertNotSame(fresh, old);
+        assertTrue(old.isShutdown());
+        fresh.release();
+        rxHttp.shutdown();
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.atlas.client;
+
+import com.google.common.io.ByteStreams;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.BasicTagList;
+import com.netflix.servo.util.Clock;
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.reactivex.netty.RxNetty;
+import io.reactivex.netty.protocol.http.client.HttpClientResponse;
+import io.reactivex.netty.protocol.http.server.HttpServer;
+import io.reactivex.netty.protocol.http.server.HttpServerRequest;
+import io.reactivex.netty.protocol.http.server.HttpServerResponse;
+import io.reactivex.netty.protocol.http.server.RequestHandler;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.smile.SmileFactory;
+import org.testng.annotations.Test;
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Func0;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class SmileEncoderTest {
+    private static final long TIMEOUT_MS = 10000L;
+
+    /**
+     * Allocator that keeps track of the buffers it returns.
+     */
+    private static class RecordingAllocator extends AbstractByteBufAllocator {
+        private final List<ByteBuf> buffers = new CopyOnWriteArrayList<>();
+
+        @Override
+        protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+            return record(PooledByteBufAllocator.DEFAULT.heapBuffer(initialCapacity, maxCapacity));
+        }
+
+        @Override
+        protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+            return record(PooledByteBufAllocator.DEFAULT.directBuffer(initialCapacity, maxCapacity));
+        }
+
+        @Override
+        public boolean isDirectBufferPooled() {
+            return true;
+        }
+
+        private ByteBuf record(ByteBuf buf) {
+            buffers.add(buf);
+            return buf;
+        }
+    }
+
+    private static UpdateRequest newRequest() {
+        final MetricBatch.Builder builder = new MetricBatch.Builder(100);
+        for (int i = 0; i < 100; ++i) {
+            final MonitorConfig config = MonitorConfig.builder("requests")
+                    .withTag("node", "i-" + (i % 10))
+                    .withTag("status", "" + (200 + i % 3))
+                    .build();
+            builder.add(config, 60000L * i, i * 1.5);
+        }
+        return new UpdateRequest(BasicTagList.of("cluster", "test", "app", "atlas"), builder.build(), 60000L);
+    }
+
+    /**
+     * Encoding used before the payload was streamed into a pooled buffer.
+     */
+    private static byte[] toByteArray(JsonPayload payload) throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final JsonGenerator gen = new SmileFactory().createJsonGenerator(baos, JsonEncoding.UTF8);
+        payload.toJson(gen);
+        gen.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] gunzip(ByteBuf buf) throws Exception {
+        final byte[] compressed = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), compressed);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    private static void waitForRelease(ByteBuf buf) throws Exception {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (buf.refCnt() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(buf.refCnt(), 0);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final RecordingAllocator allocator = new RecordingAllocator();
+        final SmileEncoder encoder = new SmileEncoder(allocator);
+        final UpdateRequest request = newRequest();
+        final ByteBuf buf = encoder.encode(request);
+        try {
+            final byte[] smile = gunzip(buf);
+            assertEquals(smile, toByteArray(request));
+            assertTrue(encoder.getCompressionRatio() < 1.0);
+
+            final JsonNode json = new ObjectMapper(new SmileFactory()).readTree(smile);
+            assertEquals(json.get("tags").get("cluster").getTextValue(), "test");
+            assertEquals(json.get("metrics").size(), 100);
+            final JsonNode last = json.get("metrics").get(99);
+            assertEquals(last.get("tags").get("name").getTextValue(), "requests");
+            assertEquals(last.get("tags").get("node").getTextValue(), "i-9");
+            assertEquals(last.get("start").getLongValue(), 60000L * 99);
+            assertEquals(last.get("values").get(0).getDoubleValue(), 99 * 1.5);
+        } finally {
+            buf.release();
+        }
+        assertEquals(allocator.buffers.size(), 1);
+        assertEquals(allocator.buffers.get(0).refCnt(), 0);
+    }
+
+    private static HttpServer<ByteBuf, ByteBuf> startServer(final boolean respond, final CountDownLatch received) {
+        return RxNetty.createHttpServer(0, new RequestHandler<ByteBuf, ByteBuf>() {
+            @Override
+            public Observable<Void> handle(HttpServerRequest<ByteBuf> req, final HttpServerResponse<ByteBuf> res) {
+                received.countDown();
+                if (!respond) {
+                    return Observable.never();
+                }
+                return req.getContent().ignoreElements().cast(Void.class).concatWith(
+                        Observable.defer(new Func0<Observable<Void>>() {
+                            @Override
+                            public Observable<Void> call() {
+                                res.setStatus(HttpResponseStatus.OK);
+                                return res.close();
+                            }
+                        }));
+            }
+        }).start();
+    }
+
+    @Test(timeOut = 30000L)
+    public void testPostSmileReleasesBuffer() throws Exception {
+        final CountDownLatch received = new CountDownLatch(1);
+        final HttpServer<ByteBuf, ByteBuf> server = startServer(true, received);
+        final RecordingAllocator allocator = new RecordingAllocator();
+        final RxHttp rxHttp = new RxHttp(new DynamicPluginConfig(), Clock.WALL, new SmileEncoder(allocator));
+        try {
+            final String uri = "http://localhost:" + server.getServerPort() + "/api/v1/publish";
+            final HttpClientResponse<ByteBuf> res = rxHttp.postSmile(uri, newRequest(), Long.MAX_VALUE)
+                    .toBlocking().single();
+            assertEquals(res.getStatus().code(), 200);
+            assertEquals(allocator.buffers.size(), 1);
+            waitForRelease(allocator.buffers.get(0));
+        } finally {
+            rxHttp.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeOut = 30000L)
+    public void testPostSmileReleasesBufferOnUnsubscribe() throws Exception {
+        final CountDownLatch received = new CountDownLatch(1);
+        final HttpServer<ByteBuf, ByteBuf> server = startServer(false, received);
+        final RecordingAllocator allocator = new RecordingAllocator();
+        final RxHttp rxHttp = new RxHttp(new DynamicPluginConfig(), Clock.WALL, new SmileEncoder(allocator));
+        try {
+            final String uri = "http://localhost:" + server.getServerPort() + "/api/v1/publish";
+            final Subscription subscription = rxHttp.postSmile(uri, newRequest(), Long.MAX_VALUE).subscribe();
+            assertTrue(received.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            assertEquals(allocator.buffers.size(), 1);
+            subscription.unsubscribe();
+            waitForRelease(allocator.buffers.get(0));
+        } finally {
+            rxHttp.shutdown();
+            server.shutdown();
+        }
+    }
+}
@@ -17,7 +17,9 @@
 package com.netflix.atlas.client.interpreter;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
 import com.netflix.servo.tag.BasicTagList;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -29,6 +31,8 @@ import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
@@ -216,9 +220,161 @@ public class InterpreterTest {
         assertEquals(eval(e, updates), 4.0);
     }
 
+    @Test
+    public void testRollingCountState() throws Exception {
+        final int period = 70;
+        RollingCount.State state = new RollingCount.State(period);
+        boolean[] window = new boolean[period];
+        for (int i = 0; i < 5 * period; ++i) {
+            boolean b = (i % 3 == 0) || (i > 2 * period && i < 3 * period);
+            window[i % period] = b;
+            state.update(b);
+            int expected = 0;
+            for (boolean v : window) {
+                expected += v ? 1 : 0;
+            }
+            assertEquals(state.getValue(), (double) expected);
+        }
+    }
+
+    @Test
+    public void testListRollingCountEviction() throws Exception {
+        Context context = execute("a,:has,(,b,),:by,0,:gt,2,:rolling-count");
+        ListRollingCount e = (ListRollingCount) context.getStack().pop();
+        List<Metric> onlyFirst = ImmutableList.of(TestUtils.tm1);
+        List<String> second = ImmutableList.of("b-val2");
+
+        assertEquals(e.apply(groupByMetrics).get(second).getValue(), 1.0);
+        assertEquals(e.apply(groupByMetrics).get(second).getValue(), 2.0);
+        assertEquals(e.size(), 2);
+        assertEquals(context.stateSize(), 2L);
+
+        // the second group is evicted once it has been missing for a full period
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(e.apply(onlyFirst).size(), 1);
+        }
+        assertEquals(e.size(), 1);
+        assertEquals(context.stateSize(), 1L);
+        assertEquals(e.apply(groupByMetrics).get(second).getValue(), 1.0);
+        assertEquals(e.apply(groupByMetrics).get(ImmutableList.of("b-val1")).getValue(), 2.0);
+    }
+
+    @Test
+    public void testGetTokens() throws Exception {
+        String[] exprs = {
+            "", " ", ",", ",,", "a", " a ", "a,b", "a , b", " a,\tb ,\n c ", "a,,b", ",a,", "a b,c",
+            "name,sps,:re,(,nf.node,),:by", " (,a, b ,) ,:in"
+        };
+        for (String expr : exprs) {
+            List<Object> expected = new ArrayList<>();
+            for (String t : expr.trim().split("\\s*,\\s*")) {
+                if (!t.isEmpty()) {
+                    expected.add(t);
+                }
+            }
+            assertEquals(Interpreter.getTokens(expr), expected, expr);
+        }
+    }
+
+    @Test
+    public void testParseCache() throws Exception {
+        Query q = Queries.parse("name,sps,:eq,status,200,:eq,:and");
+        assertTrue(q == Queries.parse("name,sps,:eq,status,200,:eq,:and"));
+        assertEquals(q, parseQuery("name,sps,:eq,status,200,:eq,:and"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testParseCacheInvalid() throws Exception {
+        Queries.parse("name,sps,:eq,name,foo,:eq");
+    }
+
     @Test
     public void testDes() throws Exception {
+        Context context = execute("name,sps,:re,:sum,2,0.5,0.5,:des");
+        ValueExpression e = (ValueExpression) context.getStack().pop();
+        assertEquals(e.getLabel(), "DES(SUM(name,sps,:re), 2, 0.5, 0.5)");
+        assertTrue(Double.isNaN(eval(e, updates)));
+        assertTrue(Double.isNaN(eval(e, ImmutableList.<Metric>of())));
+        assertTrue(Double.isNaN(eval(e, updates)));
+        // a constant input is smoothed to itself and the state is kept in the context
+        assertEquals(eval(e, updates), 3.0);
+        assertEquals(eval(e, updates), 3.0);
+        assertEquals(context.dumpState().keySet(), ImmutableSet.of(((Des) e).getStateKey()));
+
+        // level and trend follow a linear input
+        Des.State state = new Des.State(1, 0.5, 0.5);
+        assertTrue(Double.isNaN(state.next(0.0)));
+        assertEquals(state.next(2.0), 0.0);
+        assertEquals(state.next(4.0), 1.0);
+        assertEquals(state.next(6.0), 2.75);
+    }
 
+    @Test
+    public void testDesList() throws Exception {
+        Context context = execute("name,sps,:re,(,name,),:by,1,0.5,0.5,:des");
+        ListValueExpression e = (ListValueExpression) context.getStack().pop();
+        assertEquals(e.getKeys(), ImmutableList.of("name"));
+        for (LabeledResult r : e.apply(updates).values()) {
+            assertTrue(Double.isNaN(r.getValue()));
+        }
+        Map<List<String>, LabeledResult> actual = e.apply(updates);
+        Map<List<String>, LabeledResult> expected = new HashMap<>();
+        expected.put(ImmutableList.of("bar"),
+                new LabeledResult("DES(GroupBy([bar], SUM(name,sps,:re)), 1, 0.5, 0.5)", Double.NaN));
+        expected.put(ImmutableList.of("spsBar"),
+                new LabeledResult("DES(GroupBy([spsBar], SUM(name,sps,:re)), 1, 0.5, 0.5)", 2.0));
+        expected.put(ImmutableList.of("spsFoo"),
+                new LabeledResult("DES(GroupBy([spsFoo], SUM(name,sps,:re)), 1, 0.5, 0.5)", 1.0));
+        assertEquals(actual, expected);
+        assertEquals(context.dumpState().size(), 3);
+    }
+
+    @Test
+    public void testListDesEviction() throws Exception {
+        Context context = execute("a,:has,(,b,),:by,1,0.5,0.5,:des");
+        ListDes e = (ListDes) context.getStack().pop();
+        List<Metric> onlyFirst = ImmutableList.of(TestUtils.tm1);
+        List<String> second = ImmutableList.of("b-val2");
+
+        assertTrue(Double.isNaN(e.apply(groupByMetrics).get(second).getValue()));
+        assertTrue(!Double.isNaN(e.apply(groupByMetrics).get(second).getValue()));
+        assertEquals(e.size(), 2);
+        assertEquals(context.stateSize(), 2L);
+
+        // the second group is evicted once it has been missing for a full eviction period
+        for (int i = 0; i < 2 * ListDes.MIN_EVICTION_PERIOD - 2; ++i) {
+            assertEquals(e.apply(onlyFirst).size(), 1);
+        }
+        assertEquals(e.size(), 1);
+        assertEquals(context.stateSize(), 1L);
+
+        // when it comes back it is trained again
+        assertTrue(Double.isNaN(e.apply(groupByMetrics).get(second).getValue()));
+        assertTrue(!Double.isNaN(e.apply(groupByMetrics).get(ImmutableList.of("b-val1")).getValue()));
+    }
+
+    @Test
+    public void testDesStateKey() throws Exception {
+        // the labels are the same once rounded, but each expression needs its own state
+        Context context = execute("name,sps,:re,:sum,1,0.1,0.02,:des,name,sps,:re,:sum,1,0.1,0.01,:des");
+        Des e2 = (Des) context.getStack().pop();
+        Des e1 = (Des) context.getStack().pop();
+        assertEquals(e1.getLabel(), e2.getLabel());
+        assertTrue(!e1.getStateKey().equals(e2.getStateKey()));
+
+        // each state is advanced once per step and uses its own smoothing factors
+        Des.State expected1 = new Des.State(1, 0.1, 0.02);
+        Des.State expected2 = new Des.State(1, 0.1, 0.01);
+        List<Metric> first = ImmutableList.of(new Metric("sps", BasicTagList.EMPTY, 0L, 3.0));
+        assertTrue(Double.isNaN(eval(e1, first)) && Double.isNaN(expected1.next(3.0)));
+        assertTrue(Double.isNaN(eval(e2, first)) && Double.isNaN(expected2.next(3.0)));
+        double[] values = {5.0, 4.0, 8.0, 2.0};
+        for (double v : values) {
+            List<Metric> step = ImmutableList.of(new Metric("sps", BasicTagList.EMPTY, 0L, v));
+            assertEquals(eval(e1, step), expected1.next(v), 1e-12);
+            assertEquals(eval(e2, step), expected2.next(v), 1e-12);
+        }
+        assertEquals(context.dumpState().size(), 2);
     }
 
     @Test
@@ -650,6 +806,279 @@ public class InterpreterTest {
         assertEquals(context.getStack(), expected);
     }
 
+    @Test
+    public void testOptimize() throws Exception {
+        assertEquals(Queries.optimize(parseQuery("k,a,:eq,k,b,:eq,:and")), FalseQuery.INSTANCE);
+        assertEquals(Queries.optimize(parseQuery("k,(,a,b,),:in,k,b,:eq,:and,name,sps,:eq,:and")),
+                parseQuery("name,sps,:eq,k,b,:eq,:and"));
+        assertEquals(Queries.optimize(parseQuery("k,a,:eq,k,b,:eq,:or,k,c,:eq,:or")),
+                parseQuery("k,(,a,b,c,),:in"));
+        assertEquals(Queries.optimize(parseQuery("k,(,a,b,),:in,k,a,:eq,:not,:and,k,:has,:and")),
+                parseQuery("k,b,:eq"));
+        assertEquals(Queries.optimize(parseQuery("k,a,:eq,k,:has,:not,:and")), FalseQuery.INSTANCE);
+        assertEquals(Queries.optimize(parseQuery("k,a,:eq,:not,:not")), parseQuery("k,a,:eq"));
+
+        Query q = Queries.optimize(parseQuery("a,x,:re,b,1,:eq,:and,c,:has,:and,name,sps,:eq,:and"));
+        assertTrue(q instanceof AllQuery);
+        assertEquals(q.toString(), "name,sps,:eq,b,1,:eq,:and,c,:has,:and,a,x,:re,:and");
+    }
+
+    @Test
+    public void testOptimizeEquivalence() throws Exception {
+        String[] keys = {"name", "a", "b"};
+        String[] values = {"1", "2", "3"};
+        Random random = new Random(42);
+
+        List<Map<String, String>> tagMaps = new ArrayList<>();
+        List<MonitorConfig> configs = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            Map<String, String> tags = new HashMap<>();
+            for (String k : keys) {
+                if (random.nextInt(4) > 0) {
+                    tags.put(k, values[random.nextInt(values.length)]);
+                }
+            }
+            tagMaps.add(tags);
+            if (tags.containsKey("name")) {
+                Map<String, String> configTags = new HashMap<>(tags);
+                configTags.remove("name");
+                configs.add(MonitorConfig.builder(tags.get("name"))
+                        .withTags(BasicTagList.copyOf(configTags)).build());
+            }
+        }
+
+        for (int i = 0; i < 2000; ++i) {
+            Query q = randomQuery(random, keys, values, 4);
+            Query optimized = Queries.optimize(q);
+            for (Map<String, String> tags : tagMaps) {
+                assertEquals(optimized.apply(tags), q.apply(tags), q + " => " + optimized + " " + tags);
+            }
+            for (MonitorConfig config : configs) {
+                assertEquals(optimized.apply(config), q.apply(config), q + " => " + optimized + " " + config);
+            }
+        }
+    }
+
+    private static Query randomQuery(Random random, String[] keys, String[] values, int depth) {
+        String k = keys[random.nextInt(keys.length)];
+        int type = random.nextInt((depth > 0) ? 8 : 4);
+        switch (type) {
+            case 0:
+                return Queries.eq(k, values[random.nextInt(values.length)]);
+            case 1:
+                return Queries.in(k, values[random.nextInt(values.length)], values[random.nextInt(values.length)]);
+            case 2:
+                return new HasKeyQuery(k);
+            case 3:
+                return Queries.re(k, "^[" + values[random.nextInt(values.length)] + "2]");
+            case 4:
+                return Queries.not(randomQuery(random, keys, values, depth - 1));
+            case 5:
+            case 6:
+                return Queries.and(randomQuery(random, keys, values, depth - 1),
+                        randomQuery(random, keys, values, depth - 1));
+            default:
+                return Queries.or(randomQuery(random, keys, values, depth - 1),
+                        randomQuery(random, keys, values, depth - 1));
+        }
+    }
+
+    @Test
+    public void testStringMatcher() throws Exception {
+        String[] regexes = {
+            "", "^", "$", "^$", "abc", "^abc", "abc$", "^abc$", ".*abc", "abc.*", "^abc.*", ".*abc$",
+            "^.*abc", "abc.*$", "a|bc|abd", "^(a|bc)", "(?:a|bc)$", "^(abc|b)$", "(ab|bc)", "a\\.b",
+            "^a\\|b", "a\\.*", "a.c", "^a+", "(?i)abc", "(a)|(b)", "[ab]c", "a\\$", "he|she|his|hers"
+        };
+        String[] values = {
+            "", "a", "abc", "xabc", "abcx", "xabcx", "ab", "bc", "abd", "a.b", "axb", "a|b", "ABC",
+            "abc\n", "x\nabc", "abc\r\n", "ushers", "a$", "a.", "b\n"
+        };
+        for (String regex : regexes) {
+            StringMatcher matcher = StringMatcher.forRegex(regex);
+            Pattern pattern = Pattern.compile(regex);
+            for (String value : values) {
+                assertEquals(matcher.matches(value), pattern.matcher(value).find(),
+                        regex + " " + matcher + " [" + value + "]");
+                assertEquals(matcher.matches(value), pattern.matcher(value).find(),
+                        regex + " " + matcher + " [" + value + "]");
+            }
+        }
+    }
+
+    @Test
+    public void testQueryIndex() throws Exception {
+        List<String> exprs = ImmutableList.of(
+                "name,a,:eq",
+                "name,sps,:re",
+                "name,(,a,b,),:in,status,200,:eq,:and",
+                "status,200,:eq",
+                "name,a,:eq,name,b,:eq,:and",
+                "name,c,:eq,:not",
+                "status,(,200,500,),:in,name,b,:eq,:or");
+        QueryIndex.Builder<String> builder = QueryIndex.builder();
+        List<Query> queries = new ArrayList<>();
+        for (String e : exprs) {
+            Query q = parseQuery(e);
+            queries.add(q);
+            builder.add(q, e);
+        }
+        QueryIndex<String> index = builder.build();
+        Query any = Queries.anyOf(queries);
+
+        List<Metric> metrics = ImmutableList.<Metric>builder()
+                .addAll(updates).addAll(edda).addAll(groupByMetrics)
+                .add(new Metric("a", BasicTagList.of("status", "200"), 0L, 1.0))
+                .add(new Metric("b", BasicTagList.of("status", "500"), 0L, 1.0))
+                .add(new Metric("c", BasicTagList.of("status", "404"), 0L, 1.0))
+                .build();
+        for (Metric m : metrics) {
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < exprs.size(); ++i) {
+                if (queries.get(i).apply(m.getConfig())) {
+                    expected.add(exprs.get(i));
+                }
+            }
+            assertEquals(index.findMatches(m.getConfig()), expected);
+            assertEquals(index.findFirstMatch(m.getConfig()), expected.isEmpty() ? null : expected.get(0));
+            assertEquals(index.matchesAny(m.getConfig()), !expected.isEmpty());
+            assertEquals(any.apply(m.getConfig()), !expected.isEmpty());
+        }
+
+        assertEquals(Queries.anyOf(ImmutableList.<Query>of()), FalseQuery.INSTANCE);
+        assertEquals(Queries.anyOf(ImmutableList.of(parseQuery(":true"), parseQuery("name,a,:eq"))),
+                TrueQuery.INSTANCE);
+        assertEquals(Queries.indexed(parseQuery("name,a,:eq")), parseQuery("name,a,:eq"));
+        assertEquals(Queries.indexed(parseQuery("name,a,:eq,name,b,:eq,:or")).toString(),
+                "name,a,:eq,name,b,:eq,:or");
+    }
+
+    @Test
+    public void testTagView() throws Exception {
+        String[] exprs = {
+            "name,sps,:eq", "name,sps,:re", "status,200,:eq", "status,(,200,500,),:in", "status,:has",
+            "status,:has,:not", "name,a,:eq,status,200,:eq,:and", "name,a,:eq,name,b,:eq,:or,name,c,:eq,:or,"
+                + "status,500,:eq,:or", "b,b-val1,:eq,a,:has,:and,c,c-.*,:re,:and"
+        };
+        List<Metric> metrics = ImmutableList.<Metric>builder()
+                .addAll(updates).addAll(edda).addAll(groupByMetrics)
+                .add(new Metric("a", BasicTagList.of("status", "200"), 0L, 1.0))
+                .add(new Metric("b", BasicTagList.of("status", "500"), 0L, 1.0))
+                .build();
+        TagView tags = new TagView(metrics.get(0).getConfig());
+        for (String expr : exprs) {
+            for (Query q : ImmutableList.of(parseQuery(expr), Queries.optimize(parseQuery(expr)))) {
+                for (Metric m : metrics) {
+                    tags.reset(m.getConfig());
+                    assertEquals(Queries.matches(q, tags), q.apply(m.getConfig()), q + " " + m.getConfig());
+                    assertEquals(Queries.matches(q, tags), q.apply(m.getConfig()), q + " " + m.getConfig());
+                }
+            }
+        }
+
+        // slots for new keys can be assigned after the view was created
+        Query q = Queries.eq("tagViewTestKey", "v");
+        MonitorConfig config = MonitorConfig.builder("m").withTag("tagViewTestKey", "v").build();
+        tags.reset(config);
+        assertTrue(Queries.matches(q, tags));
+    }
+
+    @Test
+    public void testSharedScan() throws Exception {
+        final int[] calls = new int[1];
+        final Query sps = Queries.re("name", "sps");
+        Query counting = new Query() {
+            @Override
+            public boolean apply(MonitorConfig config) {
+                ++calls[0];
+                return sps.apply(config);
+            }
+
+            @Override
+            public boolean apply(Map<String, String> tags) {
+                return sps.apply(tags);
+            }
+        };
+        ValueExpression e = ValueValueRelOp.create(
+                ValueValueRelOp.create(AggregateFunctions.sum(counting), AggregateFunctions.max(counting), BinOp.ADD),
+                AggregateFunctions.count(counting), BinOp.DIV);
+        assertEquals(eval(e, updates), 2.5);
+        assertEquals(calls[0], updates.size());
+
+        // group by on an aggregate and on a composite expression
+        ListValueExpression avg = (ListValueExpression) execute("name,m,:re,:avg,(,b,),:by").getStack().pop();
+        ListValueExpression div = (ListValueExpression) execute(
+                "name,m,:re,:sum,name,m,:re,:count,:div,(,b,),:by").getStack().pop();
+        Map<List<String>, LabeledResult> avgResults = avg.apply(groupByMetrics);
+        Map<List<String>, LabeledResult> divResults = div.apply(groupByMetrics);
+        assertEquals(avgResults.keySet(), divResults.keySet());
+        assertEquals(avgResults.size(), 2);
+        for (List<String> k : avgResults.keySet()) {
+            assertEquals(avgResults.get(k).getValue(), divResults.get(k).getValue(), 1e-12);
+        }
+
+        // groups without a metric matching the filter are still reported
+        ListValueExpression nan = (ListValueExpression) execute("name,m1,:eq,:sum,(,b,),:by").getStack().pop();
+        Map<List<String>, LabeledResult> nanResults = nan.apply(groupByMetrics);
+        assertEquals(nanResults.get(ImmutableList.of("b-val1")).getValue(), 1.0);
+        assertTrue(Double.isNaN(nanResults.get(ImmutableList.of("b-val2")).getValue()));
+    }
+
+    @Test
+    public void testGroupKeys() throws Exception {
+        GroupKeys keys = new GroupKeys();
+        String[] values = {"a", "b"};
+        int id = keys.intern(values);
+        values[1] = "c";
+        assertEquals(keys.intern(values), id + 1);
+        values[1] = "b";
+        assertEquals(keys.intern(values), id);
+        for (int i = 0; i < 1000; ++i) {
+            keys.intern(new String[] {"k", String.valueOf(i)});
+        }
+        assertEquals(keys.size(), 1002);
+        assertEquals(keys.intern(new String[] {"k", "999"}), 1001);
+
+        GroupKey key = keys.get(id);
+        List<String> expected = ImmutableList.of("a", "b");
+        assertEquals(key, expected);
+        assertEquals(expected, key);
+        assertEquals(key.hashCode(), expected.hashCode());
+
+        GroupBy groupBy = new GroupBy(execute(""), ImmutableList.of("a", "b"), AggregateFunctions.sum(parseQuery(":true")));
+        assertEquals(groupBy.newResult(key, 1.0), new LabeledResult("GroupBy([a,b], SUM(:true))", 1.0));
+    }
+
+    @Test
+    public void testParallelEvaluator() throws Exception {
+        List<Metric> metrics = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            metrics.add(new Metric("m" + (i % 3), BasicTagList.of("a", "a" + (i % 7), "b", "b" + (i % 5)), 0L, i));
+        }
+        String[] exprs = {
+            "name,m1,:eq,:max,(,a,),:by,name,m2,:eq,:min,(,a,),:by,:sub",
+            "name,m,:re,:avg,(,a,b,),:by",
+            "name,m1,:eq,:sum,name,m2,:eq,:count,:div,(,b,),:by",
+            "name,m1,:eq,:sum,name,m0,:eq,:sum,name,m2,:eq,:avg"
+        };
+        ParallelEvaluator evaluator = new ParallelEvaluator(4, 10);
+        try {
+            for (String expr : exprs) {
+                ListValueExpression e = execute(expr).getListExpression(Interpreter.getTokens(expr));
+                Map<List<String>, LabeledResult> expected = e.apply(metrics);
+                Map<List<String>, LabeledResult> actual = evaluator.apply(e, metrics);
+                assertEquals(actual.keySet(), expected.keySet(), expr);
+                for (List<String> k : expected.keySet()) {
+                    assertEquals(actual.get(k).getLabel(), expected.get(k).getLabel());
+                    assertEquals(actual.get(k).getValue(), expected.get(k).getValue(), 1e-9, expr);
+                }
+                assertEquals(evaluator.apply(e, metrics), actual);
+            }
+        } finally {
+            evaluator.shutdown();
+        }
+    }
+
     @Test
     public void testLegend() throws Exception {
         String expr = "nf.region,us-east-1,:eq,nf.cluster,cl_name,:eq,:and,name,loadavg15,:eq,:and,:avg,(,nf.node,),:by,800,:gt,30,:rolling-count,2,:ge,$nf.node,:legend";